@@ -0,0 +1,51 @@
+package com.adrien.games.landscapes.benchmarks;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the generation of height maps
+ *
+ * @author adrien
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeightMapBenchmark {
+
+    @Param({"256", "1024", "4096"})
+    private int size;
+
+    @Param({"1", "4", "8"})
+    private int octaves;
+
+    @Param({"FBM_2D", "PERLIN_3D"})
+    private NoiseType noise;
+
+    @Param({"1"})
+    private int threads;
+
+    private HeightMapParameters parameters;
+
+    @Setup
+    public void setUp() {
+        this.parameters = HeightMapParameters.create().width(this.size).depth(this.size).scale(128).frequency(0.012f)
+                .octaves(this.octaves).persistence(0.4f).exponent(1.16f).noise(this.noise).threads(this.threads);
+    }
+
+    @Benchmark
+    public float generate() {
+        final var map = new HeightMap(this.parameters);
+        final float height = map.getHeight(map.getWidth() / 2, map.getDepth() / 2);
+        map.destroy();
+        return height;
+    }
+
+}
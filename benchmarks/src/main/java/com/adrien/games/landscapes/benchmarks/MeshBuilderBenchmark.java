@@ -0,0 +1,93 @@
+package com.adrien.games.landscapes.benchmarks;
+
+import com.adrien.games.landscapes.rendering.terrain.TerrainMeshBuilder;
+import com.adrien.games.landscapes.rendering.terrain.TerrainRtinBuilder;
+import com.adrien.games.landscapes.rendering.terrain.TerrainVertexFormat;
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the phases of the mesh building
+ * <p>
+ * Each phase is measured on its own. None of them requires an OpenGL context
+ *
+ * @author adrien
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeshBuilderBenchmark {
+
+    private static final float ADAPTIVE_MAX_ERROR = 0.5f;
+
+    @Param({"256", "1024", "2048"})
+    private int size;
+
+    @Param({"1"})
+    private int threads;
+
+    private HeightMap map;
+
+    @Setup
+    public void setUp() {
+        this.map = new HeightMap(HeightMapParameters.create().width(this.size).depth(this.size).scale(128).frequency(0.012f)
+                .octaves(6).persistence(0.4f).exponent(1.16f).noise(NoiseType.FBM_2D).threads(Runtime.getRuntime().availableProcessors()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.map.destroy();
+    }
+
+    @Benchmark
+    public int generateStandardVertexData() {
+        final var vertexData = TerrainMeshBuilder.generateVertexData(this.map, this.threads, TerrainVertexFormat.STANDARD);
+        final int capacity = vertexData.capacity();
+        MemoryUtil.memFree(vertexData);
+        return capacity;
+    }
+
+    @Benchmark
+    public int generateCompactVertexData() {
+        final var vertexData = TerrainMeshBuilder.generateVertexData(this.map, this.threads, TerrainVertexFormat.COMPACT);
+        final int capacity = vertexData.capacity();
+        MemoryUtil.memFree(vertexData);
+        return capacity;
+    }
+
+    @Benchmark
+    public int generateIndexData() {
+        final var indexData = TerrainMeshBuilder.generateIndexData(this.map, this.threads);
+        final int capacity = indexData.capacity();
+        MemoryUtil.memFree(indexData);
+        return capacity;
+    }
+
+    @Benchmark
+    public int buildAdaptiveMesh() {
+        final var data = TerrainRtinBuilder.build(this.map, this.threads, TerrainVertexFormat.STANDARD, ADAPTIVE_MAX_ERROR);
+        final int indexCount = data.getIndexCount();
+        data.destroy();
+        return indexCount;
+    }
+
+    @Benchmark
+    public void computeNormals(final Blackhole blackhole) {
+        for (int x = 0; x < this.map.getWidth(); x++) {
+            for (int z = 0; z < this.map.getDepth(); z++) {
+                blackhole.consume(TerrainMeshBuilder.computeSlopeX(this.map, x, z));
+                blackhole.consume(TerrainMeshBuilder.computeSlopeZ(this.map, x, z));
+            }
+        }
+    }
+
+}
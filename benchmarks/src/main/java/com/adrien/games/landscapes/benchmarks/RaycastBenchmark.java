@@ -0,0 +1,101 @@
+package com.adrien.games.landscapes.benchmarks;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.HeightPyramid;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks ray queries against the terrain
+ * <p>
+ * The same rays are intersected with the height pyramid and by marching the
+ * map cell by cell. Rays start above the terrain at random positions and go
+ * down either steeply, like mouse picking, or at grazing angles, where most
+ * of their length runs over the terrain. Throughputs are in rays
+ *
+ * @author adrien
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RaycastBenchmark {
+
+    private static final int RAY_COUNT = 1024;
+    private static final float MAX_DISTANCE = 10_000f;
+
+    @Param({"256", "1024", "2048"})
+    private int size;
+
+    @Param({"STEEP", "GRAZING"})
+    private RayKind rays;
+
+    private HeightMap map;
+    private HeightPyramid pyramid;
+    private Vector3f[] origins;
+    private Vector3f[] directions;
+
+    @Setup
+    public void setUp() {
+        this.map = new HeightMap(HeightMapParameters.create().width(this.size).depth(this.size).scale(128).frequency(0.012f)
+                .octaves(6).persistence(0.4f).exponent(1.16f).noise(NoiseType.FBM_2D).threads(Runtime.getRuntime().availableProcessors()));
+        this.pyramid = new HeightPyramid(this.map);
+        this.origins = new Vector3f[RAY_COUNT];
+        this.directions = new Vector3f[RAY_COUNT];
+        final var random = new Random(0);
+        final float height = this.pyramid.getMaxHeight() + 10;
+        for (int i = 0; i < RAY_COUNT; i++) {
+            this.origins[i] = new Vector3f(random.nextFloat() * this.size, height, random.nextFloat() * this.size);
+            final float slope = this.rays == RayKind.STEEP ? 0.5f + random.nextFloat() : 0.01f + random.nextFloat() * 0.05f;
+            this.directions[i] = new Vector3f(random.nextFloat() * 2 - 1, 0, random.nextFloat() * 2 - 1).normalize();
+            this.directions[i].y = -slope;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.map.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public float intersectPyramid() {
+        float sum = 0;
+        for (int i = 0; i < RAY_COUNT; i++) {
+            sum += this.pyramid.intersect(this.origins[i], this.directions[i], MAX_DISTANCE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RAY_COUNT)
+    public float marchCells() {
+        float sum = 0;
+        for (int i = 0; i < RAY_COUNT; i++) {
+            sum += HeightPyramid.march(this.map, this.origins[i], this.directions[i], MAX_DISTANCE);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int buildPyramid() {
+        return new HeightPyramid(this.map).getLevelCount();
+    }
+
+    /**
+     * Slope of the benchmarked rays
+     */
+    public enum RayKind {
+        STEEP,
+        GRAZING
+    }
+
+}
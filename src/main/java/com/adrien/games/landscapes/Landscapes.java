@@ -1,14 +1,25 @@
 package com.adrien.games.landscapes;
 
 
+import com.adrien.games.landscapes.profiling.FrameProfiler;
+import com.adrien.games.landscapes.profiling.ProfilerOverlay;
+import com.adrien.games.landscapes.profiling.ProfilerPhase;
+import com.adrien.games.landscapes.rendering.terrain.DisplacedTerrain;
+import com.adrien.games.landscapes.rendering.terrain.StreamingTerrain;
 import com.adrien.games.landscapes.rendering.terrain.TerrainMesh;
+import com.adrien.games.landscapes.rendering.terrain.TerrainRebuilder;
 import com.adrien.games.landscapes.rendering.terrain.TerrainRenderer;
+import com.adrien.games.landscapes.rendering.terrain.TerrainVertexFormat;
 import com.adrien.games.landscapes.rendering.water.WaterMesh;
 import com.adrien.games.landscapes.rendering.water.WaterRenderer;
-import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.ErosionParameters;
+import com.adrien.games.landscapes.terrain.HeightMapCache;
 import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.HeightPyramid;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
 import com.adrien.games.landscapes.ui.UI;
 import com.adrien.games.landscapes.ui.controls.CheckBox;
+import com.adrien.games.landscapes.ui.controls.Label;
 import com.adrien.games.landscapes.ui.controls.Slider;
 import com.adrienben.games.bagl.core.Color;
 import com.adrienben.games.bagl.core.io.ResourcePath;
@@ -19,15 +30,17 @@ import com.adrienben.games.bagl.engine.camera.FPSCameraController;
 import com.adrienben.games.bagl.engine.game.Game;
 import com.adrienben.games.bagl.engine.rendering.light.DirectionalLight;
 import com.adrienben.games.bagl.engine.rendering.light.Light;
-import com.adrienben.games.bagl.engine.rendering.shape.UIRenderer;
 import com.adrienben.games.bagl.engine.rendering.text.Font;
-import com.adrienben.games.bagl.engine.rendering.text.Text;
 import com.adrienben.games.bagl.engine.rendering.text.TextRenderer;
 import com.adrienben.games.bagl.opengl.OpenGL;
 import org.joml.Vector3f;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.opengl.GL11;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Landscape generator
  *
@@ -37,22 +50,51 @@ public class Landscapes implements Game {
 
     private static final int TERRAIN_SIZE = 800;
     private static final int HEIGHT_SCALE = 128;
+    private static final float FIELD_OF_VIEW = (float) Math.toRadians(70f);
+    private static final int[] REFINEMENT_STEPS = {8, 4, 2, 1};
+    private static final int STREAMING_TILE_SIZE = 128;
+    private static final int STREAMING_RADIUS = 4;
+    private static final int STREAMING_CAPACITY = 128;
+    private static final Path HEIGHT_MAP_CACHE_DIRECTORY = Paths.get(System.getProperty("java.io.tmpdir"), "landscapes");
+    private static final int HEIGHT_MAP_CACHE_CAPACITY = 16;
+    private static final float ADAPTIVE_MAX_ERROR = 0.5f;
+    private static final int TERRACE_LEVELS = 12;
+    private static final float TERRACE_SHARPNESS = 3f;
+    private static final Path PROFILE_DIRECTORY = Paths.get(".");
+    private static final float CAMERA_CLEARANCE = 2f;
 
     private Camera camera;
     private CameraController cameraController;
     private TerrainRenderer terrainRenderer;
     private HeightMapParameters mapParameters;
+    private TerrainRebuilder rebuilder;
     private TerrainMesh mesh;
     private boolean dirtyMesh;
+    private StreamingTerrain streamingTerrain;
+    private boolean streaming;
+    private DisplacedTerrain displacedTerrain;
+    private boolean displaced;
     private WaterRenderer waterRenderer;
     private WaterMesh waterMesh;
     private boolean renderWater;
+    private boolean bakedLighting;
+    private HeightPyramid pyramid;
+    private Vector3f pickedPoint;
+    private int[] viewport;
     private Light ambient;
     private DirectionalLight sun;
     private TextRenderer textRenderer;
-    private UIRenderer uiRenderer;
     private Font font;
     private UI ui;
+    private Label modeLabel;
+    private StringBuilder modeBuilder;
+    private State modeState;
+    private int modeTriangles;
+    private int modeIndices;
+    private Vector3f modePickedPoint;
+    private FrameProfiler profiler;
+    private ProfilerOverlay profilerOverlay;
+    private boolean showProfiler;
     private State state = State.UI;
 
     /**
@@ -68,15 +110,25 @@ public class Landscapes implements Game {
         final var config = Configuration.getInstance();
 
         this.camera = new Camera(new Vector3f(TERRAIN_SIZE / 10, HEIGHT_SCALE * 2, TERRAIN_SIZE / 10), new Vector3f(1f, -1f, 1f),
-                new Vector3f(0f, 1f, 0f), (float) Math.toRadians(70f), (float) config.getXResolution() / config.getYResolution(),
+                new Vector3f(0f, 1f, 0f), FIELD_OF_VIEW, (float) config.getXResolution() / config.getYResolution(),
                 0.1f, 1000f);
         this.cameraController = new FPSCameraController(this.camera);
+        this.viewport = new int[]{0, 0, config.getXResolution(), config.getYResolution()};
 
         this.terrainRenderer = new TerrainRenderer();
+        this.terrainRenderer.setLodProjection(FIELD_OF_VIEW, config.getYResolution());
         this.mapParameters = HeightMapParameters.create().width(TERRAIN_SIZE).depth(TERRAIN_SIZE).scale(HEIGHT_SCALE).frequency(0.012f).octaves(6)
-                .persistence(0.4f).exponent(1.16f);
-        this.mesh = new TerrainMesh(new HeightMap(this.mapParameters));
-        this.dirtyMesh = false;
+                .persistence(0.4f).exponent(1.16f).threads(Runtime.getRuntime().availableProcessors()).noise(NoiseType.FBM_2D);
+        this.rebuilder = new TerrainRebuilder(REFINEMENT_STEPS);
+        this.rebuilder.setCache(new HeightMapCache(HEIGHT_MAP_CACHE_DIRECTORY, HEIGHT_MAP_CACHE_CAPACITY));
+        this.profiler = new FrameProfiler();
+        this.rebuilder.setProfiler(this.profiler);
+        this.mesh = null;
+        this.dirtyMesh = true;
+        this.streamingTerrain = new StreamingTerrain(this.mapParameters, STREAMING_TILE_SIZE, STREAMING_RADIUS, STREAMING_CAPACITY);
+        this.streaming = false;
+        this.displacedTerrain = new DisplacedTerrain();
+        this.displaced = false;
 
         this.waterRenderer = new WaterRenderer();
         this.waterMesh = new WaterMesh();
@@ -86,10 +138,12 @@ public class Landscapes implements Game {
         this.sun = new DirectionalLight(1f, Color.WHITE, new Vector3f(-1f, -1f, -1f));
 
         this.textRenderer = new TextRenderer();
-        this.uiRenderer = new UIRenderer();
         this.font = new Font(ResourcePath.get("classpath:/fonts/arial/arial.fnt"));
-        this.ui = new UI(this.uiRenderer, this.textRenderer, this.font);
+        this.ui = new UI(this.textRenderer, this.font);
+        this.modeBuilder = new StringBuilder();
         this.setUpUI();
+        this.profilerOverlay = new ProfilerOverlay(this.profiler, this.font);
+        this.showProfiler = false;
     }
 
     /**
@@ -104,6 +158,16 @@ public class Landscapes implements Game {
         final var exponentSlider = new Slider("exponent", "exponent", 0.005f, 0.185f, 0.4f, 0.02f, 0.01f, 5, 0.01f,
                 this.mapParameters.getExponent());
         final var waterToggle = new CheckBox("waterToggle", "Display water", 0.005f, 0.245f, 0.04f, true);
+        final var referenceNoiseToggle = new CheckBox("referenceNoiseToggle", "Reference noise", 0.005f, 0.295f, 0.04f, false);
+        final var lodToggle = new CheckBox("lodToggle", "Quadtree LOD", 0.005f, 0.345f, 0.04f, false);
+        final var streamingToggle = new CheckBox("streamingToggle", "Infinite terrain", 0.005f, 0.395f, 0.04f, false);
+        final var compactToggle = new CheckBox("compactToggle", "Compact vertices", 0.005f, 0.445f, 0.04f, false);
+        final var displacementToggle = new CheckBox("displacementToggle", "GPU displacement", 0.005f, 0.495f, 0.04f, false);
+        final var adaptiveToggle = new CheckBox("adaptiveToggle", "Adaptive mesh", 0.005f, 0.545f, 0.04f, false);
+        this.modeLabel = new Label("modeLabel", "", 0.0f, 0.9f, 0.1f);
+        final var erosionToggle = new CheckBox("erosionToggle", "Erosion", 0.005f, 0.595f, 0.04f, false);
+        final var lightingToggle = new CheckBox("lightingToggle", "Baked shadows", 0.005f, 0.645f, 0.04f, false);
+        final var terraceToggle = new CheckBox("terraceToggle", "Terraces", 0.005f, 0.695f, 0.04f, false);
         this.ui.add(octavesSlider, octaves -> {
             this.mapParameters.octaves((int) octaves);
             this.dirtyMesh = true;
@@ -121,6 +185,52 @@ public class Landscapes implements Game {
             this.dirtyMesh = true;
         });
         this.ui.add(waterToggle, checked -> this.renderWater = checked);
+        this.ui.add(referenceNoiseToggle, checked -> {
+            this.mapParameters.noise(checked ? NoiseType.PERLIN_3D : NoiseType.FBM_2D);
+            this.dirtyMesh = true;
+        });
+        this.ui.add(lodToggle, checked -> {
+            this.rebuilder.setLod(checked);
+            this.dirtyMesh = true;
+        });
+        this.ui.add(streamingToggle, checked -> {
+            this.streaming = checked;
+            if (checked) {
+                // the baked lighting only covers the local map, it is baked again when streaming stops
+                this.terrainRenderer.setLighting(null);
+            }
+            this.dirtyMesh = true;
+        });
+        this.ui.add(compactToggle, checked -> {
+            this.rebuilder.setVertexFormat(checked ? TerrainVertexFormat.COMPACT : TerrainVertexFormat.STANDARD);
+            this.dirtyMesh = true;
+        });
+        this.ui.add(displacementToggle, checked -> {
+            this.displaced = checked;
+            this.rebuilder.setDisplaced(checked);
+            this.dirtyMesh = true;
+        });
+        this.ui.add(adaptiveToggle, checked -> {
+            this.rebuilder.setAdaptiveError(checked ? ADAPTIVE_MAX_ERROR : -1);
+            this.dirtyMesh = true;
+        });
+        this.ui.add(this.modeLabel);
+        this.ui.add(erosionToggle, checked -> {
+            this.rebuilder.setErosion(checked ? ErosionParameters.create() : null);
+            this.dirtyMesh = true;
+        });
+        this.ui.add(lightingToggle, checked -> {
+            this.bakedLighting = checked;
+            this.rebuilder.setSunDirection(checked ? this.sun.getDirection() : null);
+            if (!checked) {
+                this.terrainRenderer.setLighting(null);
+            }
+            this.dirtyMesh = true;
+        });
+        this.ui.add(terraceToggle, checked -> {
+            this.rebuilder.setTerraces(checked ? TERRACE_LEVELS : 0, TERRACE_SHARPNESS);
+            this.dirtyMesh = true;
+        });
     }
 
     /**
@@ -131,12 +241,18 @@ public class Landscapes implements Game {
      * <p>
      * If the game is in CAMERA state, updates the camera controller to allow
      * camera movement. If the game is is UI state then it is the ui controller
-     * which is updated to allow ui interaction.
+     * which is updated to allow ui interaction. In CAMERA state the camera is
+     * kept above the terrain, in UI state right clicking picks a point of the terrain
+     * <p>
+     * F3 toggles the profiler overlay and F4 dumps the profiler samples to a CSV file,
+     * reporting the outcome in the overlay
      *
      * @see Game#update(Time)
      */
     @Override
     public void update(final Time time) {
+        this.profiler.startFrame();
+        this.profiler.begin(ProfilerPhase.UPDATE);
         if (Input.wasKeyPressed(GLFW.GLFW_KEY_TAB)) {
             if (this.state == State.CAMERA) {
                 this.state = State.UI;
@@ -149,8 +265,21 @@ public class Landscapes implements Game {
 
         if (this.state == State.CAMERA) {
             this.cameraController.update(time);
+            this.keepCameraAboveGround();
         } else {
+            this.profiler.begin(ProfilerPhase.UI_UPDATE);
             this.ui.update();
+            this.profiler.end(ProfilerPhase.UI_UPDATE);
+            if (Input.wasMouseButtonPressed(GLFW.GLFW_MOUSE_BUTTON_2)) {
+                this.pickTerrain();
+            }
+        }
+
+        if (Input.wasKeyPressed(GLFW.GLFW_KEY_F3)) {
+            this.showProfiler = !this.showProfiler;
+        }
+        if (Input.wasKeyPressed(GLFW.GLFW_KEY_F4)) {
+            this.dumpProfile();
         }
 
         if (Input.wasKeyReleased(GLFW.GLFW_KEY_R)) {
@@ -162,17 +291,116 @@ public class Landscapes implements Game {
         }
 
         if (this.dirtyMesh) {
+            if (this.streaming) {
+                this.streamingTerrain.setParameters(this.mapParameters);
+            } else {
+                this.rebuilder.request(this.mapParameters);
+            }
+            this.dirtyMesh = false;
+        }
+        if (this.streaming) {
+            this.streamingTerrain.update(this.camera.getPosition());
+        } else {
             this.refresh();
         }
+        this.profiler.end(ProfilerPhase.UPDATE);
+    }
+
+    /**
+     * Move the camera up if it went below the terrain
+     * <p>
+     * The infinite terrain has no height pyramid so the camera is free there,
+     * as it is beyond the borders of the map
+     */
+    private void keepCameraAboveGround() {
+        if (this.streaming || this.pyramid == null) {
+            return;
+        }
+        final var position = this.camera.getPosition();
+        if (!this.pyramid.contains(position.x(), position.z())) {
+            return;
+        }
+        final float minHeight = this.pyramid.getHeight(position.x(), position.z()) + CAMERA_CLEARANCE;
+        if (position.y() < minHeight) {
+            this.camera.setPosition(new Vector3f(position.x(), minHeight, position.z()));
+        }
+    }
+
+    /**
+     * Intersect the terrain with the ray going from the camera through the mouse cursor
+     * <p>
+     * The picked point is shown in the mode label, it is cleared when the ray misses the terrain
+     */
+    private void pickTerrain() {
+        if (this.streaming || this.pyramid == null) {
+            return;
+        }
+        final var origin = new Vector3f();
+        final var direction = new Vector3f();
+        this.camera.getViewProj().unprojectRay(Input.getMousePosition(), this.viewport, origin, direction);
+        final float distance = this.pyramid.intersect(origin, direction, 1f);
+        this.pickedPoint = distance < 0 ? null : direction.mul(distance).add(origin);
+    }
+
+    /**
+     * Write the profiler samples in a timestamped CSV file of the working directory
+     * <p>
+     * The outcome is reported in the status line of the profiler overlay which is shown if it was hidden
+     */
+    private void dumpProfile() {
+        final var file = PROFILE_DIRECTORY.resolve("profile-" + System.currentTimeMillis() + ".csv");
+        try {
+            this.profiler.dump(file);
+            this.profilerOverlay.setStatus("profile written to " + file.getFileName());
+        } catch (final IOException exception) {
+            this.profilerOverlay.setStatus("failed to write " + file.getFileName() + ": " + exception.getMessage());
+        }
+        this.showProfiler = true;
     }
 
     /**
      * Refresh the mesh
+     * <p>
+     * If the rebuilder published a new terrain, uploads its mesh data into
+     * the current mesh when their layouts match, only its dirty region if it
+     * has one, or swaps it with a new mesh otherwise. Otherwise the current
+     * mesh is kept
+     * <p>
+     * Height maps generated for gpu displacement are uploaded into the displaced terrain. The
+     * height pyramid and the baked lighting of the terrain replace the current ones, terrains
+     * published without lighting are rendered without until their lighting is published
      */
     private void refresh() {
-        this.mesh.destroy();
-        this.mesh = new TerrainMesh(new HeightMap(this.mapParameters));
-        this.dirtyMesh = false;
+        final var update = this.rebuilder.poll();
+        if (update == null) {
+            return;
+        }
+        this.profiler.begin(ProfilerPhase.GPU_UPLOAD);
+        if (update.hasTerrain()) {
+            this.pyramid = update.getPyramid();
+        }
+        if (update.getMap() != null) {
+            this.displacedTerrain.update(update.getMap());
+        }
+        if (this.bakedLighting && update.getLighting() != null) {
+            this.terrainRenderer.setLighting(update.getLighting());
+        } else if (update.hasTerrain()) {
+            this.terrainRenderer.setLighting(null);
+        }
+        final var meshData = update.getMeshData();
+        if (meshData != null) {
+            if (this.mesh != null && meshData.isPartiallyDirty() && this.mesh.isCompatible(meshData)) {
+                this.mesh.updateRegion(meshData, meshData.getDirtyFromX(), meshData.getDirtyFromZ(), meshData.getDirtyToX(),
+                        meshData.getDirtyToZ());
+            } else if (this.mesh == null || !this.mesh.update(meshData)) {
+                if (this.mesh != null) {
+                    this.mesh.destroy();
+                }
+                this.mesh = new TerrainMesh(meshData);
+            }
+        }
+        this.profiler.end(ProfilerPhase.GPU_UPLOAD);
+        update.destroy();
     }
 
     /**
@@ -182,15 +410,55 @@ public class Landscapes implements Game {
      */
     @Override
     public void render() {
-        this.terrainRenderer.render(this.mesh, this.camera, this.ambient, this.sun);
+        this.profiler.begin(ProfilerPhase.TERRAIN_RENDER);
+        if (this.streaming) {
+            this.terrainRenderer.render(this.streamingTerrain.getVisibleTiles(), this.camera, this.ambient, this.sun);
+        } else if (this.displaced) {
+            this.terrainRenderer.render(this.displacedTerrain, this.camera, this.ambient, this.sun);
+        } else if (this.mesh != null) {
+            this.terrainRenderer.render(this.mesh, this.camera, this.ambient, this.sun);
+        }
+        this.profiler.end(ProfilerPhase.TERRAIN_RENDER);
         if (this.renderWater) {
+            this.profiler.begin(ProfilerPhase.WATER_RENDER);
             this.waterRenderer.render(this.waterMesh, TERRAIN_SIZE, TERRAIN_SIZE, 46f, this.camera, this.ambient, this.sun);
+            this.profiler.end(ProfilerPhase.WATER_RENDER);
         }
-        final var text = Text.create(this.state.toString() + " MODE", this.font, 0.0f, 0.9f, 0.1f, Color.WHITE);
-        this.textRenderer.render(text);
-        this.uiRenderer.start();
+        this.profiler.begin(ProfilerPhase.UI_RENDER);
+        this.updateModeLabel();
         this.ui.render();
-        this.uiRenderer.end();
+        if (this.showProfiler) {
+            this.profilerOverlay.render(this.textRenderer);
+        }
+        this.profiler.end(ProfilerPhase.UI_RENDER);
+    }
+
+    /**
+     * Update the label showing the mode, the size of the terrain and the picked point
+     * <p>
+     * The label is only rebuilt when one of the displayed values changed
+     */
+    private void updateModeLabel() {
+        final int triangles = this.terrainRenderer.getTrianglesDrawn();
+        final int indices = this.streaming || this.displaced || this.mesh == null ? -1 : this.mesh.getIndexCount();
+        if (this.state == this.modeState && triangles == this.modeTriangles && indices == this.modeIndices
+                && this.pickedPoint == this.modePickedPoint) {
+            return;
+        }
+        this.modeState = this.state;
+        this.modeTriangles = triangles;
+        this.modeIndices = indices;
+        this.modePickedPoint = this.pickedPoint;
+        this.modeBuilder.setLength(0);
+        this.modeBuilder.append(this.state).append(" MODE - ").append(triangles).append(" triangles");
+        if (indices >= 0) {
+            this.modeBuilder.append(" / ").append(indices).append(" indices");
+        }
+        if (this.pickedPoint != null) {
+            this.modeBuilder.append(" - picked ").append(Math.round(this.pickedPoint.x)).append(", ")
+                    .append(Math.round(this.pickedPoint.y)).append(", ").append(Math.round(this.pickedPoint.z));
+        }
+        this.modeLabel.setLabel(this.modeBuilder.toString());
     }
 
     /**
@@ -200,13 +468,19 @@ public class Landscapes implements Game {
      */
     @Override
     public void destroy() {
-        this.mesh.destroy();
+        this.rebuilder.destroy();
+        this.streamingTerrain.destroy();
+        this.displacedTerrain.destroy();
+        if (this.mesh != null) {
+            this.mesh.destroy();
+        }
+        this.profiler.destroy();
         this.terrainRenderer.destroy();
         this.waterRenderer.destroy();
         this.waterMesh.destroy();
         this.font.destroy();
+        this.ui.destroy();
         this.textRenderer.destroy();
-        this.uiRenderer.destroy();
     }
 
     public static void main(final String[] args) {
@@ -0,0 +1,256 @@
+package com.adrien.games.landscapes.batch;
+
+import com.adrien.games.landscapes.rendering.terrain.TerrainMeshBuilder;
+import com.adrien.games.landscapes.rendering.terrain.TerrainVertexFormat;
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightMapCache;
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.HeightMapPipeline;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless batch generation of terrains
+ * <p>
+ * Generates every combination of a {@link ParameterSweep} in parallel, one
+ * terrain per worker thread, and streams the results to an output directory.
+ * Height maps are written in the format of the {@link HeightMapCache} under
+ * their cache file name, so the output directory can directly be used as a
+ * cache. Mesh data can optionally be built and written as well, see
+ * {@link MeshDataFile}. A manifest.csv file lists the parameters of each
+ * written terrain.
+ * <p>
+ * At most a fixed number of terrains are in flight at once, the sweep is
+ * only advanced when one of them is written and released, so memory usage
+ * does not depend on the size of the sweep. Throughput is reported
+ * periodically on the standard output.
+ * <p>
+ * Nothing here touches GLFW or OpenGL so the generator runs on machines
+ * without a display.
+ *
+ * @author adrien
+ */
+public class BatchGenerator {
+
+    private static final long REPORT_INTERVAL_NS = TimeUnit.SECONDS.toNanos(5);
+    private static final String MANIFEST = "manifest.csv";
+    private static final float BYTES_PER_MEGABYTE = 1024f * 1024f;
+    private static final float NANOS_PER_SECOND = 1_000_000_000f;
+
+    private final ParameterSweep sweep;
+    private final Path output;
+    private final int jobs;
+    private final int inFlight;
+    private final TerrainVertexFormat meshFormat;
+    private final AtomicLong completed;
+    private final AtomicLong failed;
+    private final AtomicLong samples;
+    private final AtomicLong bytes;
+    private long start;
+    private long lastReport;
+
+    /**
+     * Construct a generator
+     *
+     * @param sweep      The combinations of parameters to generate
+     * @param output     The directory in which to write the terrains. Created if missing
+     * @param jobs       The number of terrains generated concurrently
+     * @param inFlight   The maximum number of terrains held in memory at once. At least jobs
+     * @param meshFormat The vertex format of the meshes to write or null to only write height maps
+     */
+    public BatchGenerator(final ParameterSweep sweep, final Path output, final int jobs, final int inFlight,
+                          final TerrainVertexFormat meshFormat) {
+        this.sweep = sweep;
+        this.output = output;
+        this.jobs = jobs;
+        this.inFlight = Math.max(jobs, inFlight);
+        this.meshFormat = meshFormat;
+        this.completed = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.samples = new AtomicLong();
+        this.bytes = new AtomicLong();
+    }
+
+    /**
+     * Generate all terrains of the sweep
+     *
+     * @return The number of terrains that could not be generated
+     * @throws IOException          If the output directory or the manifest cannot be created
+     * @throws InterruptedException If the calling thread is interrupted while waiting for terrains
+     */
+    public long run() throws IOException, InterruptedException {
+        Files.createDirectories(this.output);
+        final long total = this.sweep.size();
+        final var permits = new Semaphore(this.inFlight);
+        final ExecutorService executor = Executors.newFixedThreadPool(this.jobs, runnable -> {
+            final var thread = new Thread(runnable, "batch-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.printf(Locale.ROOT, "Generating %d terrains with %d jobs into %s%n", total, this.jobs, this.output.toAbsolutePath());
+        try (final var manifest = Files.newBufferedWriter(this.output.resolve(MANIFEST))) {
+            writeManifestHeader(manifest);
+            this.start = System.nanoTime();
+            this.lastReport = this.start;
+            for (long index = 0; index < total; index++) {
+                permits.acquire();
+                final long terrain = index;
+                executor.execute(() -> {
+                    try {
+                        this.generate(terrain, manifest);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            permits.acquire(this.inFlight);
+        } finally {
+            executor.shutdownNow();
+        }
+        this.report(true);
+        return this.failed.get();
+    }
+
+    /**
+     * Generate and write one terrain
+     * <p>
+     * Failures are reported and counted but do not stop the batch
+     *
+     * @param index    The index of the terrain in the sweep
+     * @param manifest The writer of the manifest
+     */
+    private void generate(final long index, final BufferedWriter manifest) {
+        final var parameters = this.sweep.get(index).threads(1);
+        final long pipelineHash = HeightMapPipeline.getDefaultConfigurationHash();
+        final var fileName = HeightMapCache.getFileName(parameters, pipelineHash);
+        HeightMap map = null;
+        try {
+            map = new HeightMap(parameters);
+            HeightMapCache.write(this.output.resolve(fileName), parameters, pipelineHash, map);
+            long written = Files.size(this.output.resolve(fileName));
+            if (this.meshFormat != null) {
+                final var data = TerrainMeshBuilder.build(map, 1, this.meshFormat);
+                try {
+                    written += MeshDataFile.write(this.output.resolve(fileName + MeshDataFile.EXTENSION), data);
+                } finally {
+                    data.destroy();
+                }
+            }
+            synchronized (manifest) {
+                writeManifestLine(manifest, index, fileName, parameters);
+            }
+            this.samples.addAndGet((long) map.getWidth() * map.getDepth());
+            this.bytes.addAndGet(written);
+            this.completed.incrementAndGet();
+        } catch (final IOException | RuntimeException exception) {
+            this.failed.incrementAndGet();
+            System.err.println("Failed to generate terrain " + index + ": " + exception);
+        } finally {
+            if (map != null) {
+                map.destroy();
+            }
+        }
+        this.report(false);
+    }
+
+    /**
+     * Print the throughput since the start of the batch
+     *
+     * @param force true to report even if the last report is recent
+     */
+    private synchronized void report(final boolean force) {
+        final long now = System.nanoTime();
+        if (!force && now - this.lastReport < REPORT_INTERVAL_NS) {
+            return;
+        }
+        this.lastReport = now;
+        final float seconds = Math.max(now - this.start, 1) / NANOS_PER_SECOND;
+        final long done = this.completed.get();
+        System.out.printf(Locale.ROOT, "%d/%d terrains (%d failed) in %.1fs - %.2f terrains/s, %.2f Msamples/s, %.1f MB/s%n",
+                done, this.sweep.size(), this.failed.get(), seconds, done / seconds, this.samples.get() / seconds / 1_000_000f,
+                this.bytes.get() / BYTES_PER_MEGABYTE / seconds);
+    }
+
+    private static void writeManifestHeader(final BufferedWriter manifest) throws IOException {
+        manifest.write("index,file");
+        for (final var axis : SweepAxis.values()) {
+            manifest.write(',');
+            manifest.write(axis.getOption());
+        }
+        manifest.newLine();
+    }
+
+    private static void writeManifestLine(final BufferedWriter manifest, final long index, final String fileName,
+                                          final HeightMapParameters parameters) throws IOException {
+        manifest.write(index + "," + fileName);
+        for (final var axis : SweepAxis.values()) {
+            manifest.write(',');
+            manifest.write(axis == SweepAxis.NOISE ? parameters.getNoise().name() : formatValue(axis.get(parameters)));
+        }
+        manifest.newLine();
+    }
+
+    private static String formatValue(final double value) {
+        return value == (long) value ? Long.toString((long) value) : Float.toString((float) value);
+    }
+
+    /**
+     * Parse the command line and run the batch
+     * <p>
+     * Usage: BatchGenerator [--output dir] [--jobs n] [--in-flight n] [--mesh none|standard|compact] [--&lt;parameter&gt; values]...
+     * <p>
+     * Parameters are the options of {@link SweepAxis}, unswept parameters keep
+     * the defaults of the interactive application
+     *
+     * @param args The command line arguments
+     * @throws Exception If the batch cannot be run
+     */
+    public static void main(final String[] args) throws Exception {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final var sweep = new ParameterSweep(HeightMapParameters.create().width(800).depth(800).scale(128).frequency(0.012f)
+                .octaves(6).persistence(0.4f).exponent(1.16f).noise(NoiseType.FBM_2D));
+        Path output = Paths.get("terrains");
+        int jobs = processors;
+        int inFlight = -1;
+        TerrainVertexFormat meshFormat = null;
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected '--option value' pairs, got: " + args[i]);
+            }
+            final var option = args[i].substring(2);
+            final var value = args[i + 1];
+            switch (option) {
+                case "output":
+                    output = Paths.get(value);
+                    break;
+                case "jobs":
+                    jobs = Integer.parseInt(value);
+                    break;
+                case "in-flight":
+                    inFlight = Integer.parseInt(value);
+                    break;
+                case "mesh":
+                    meshFormat = "none".equals(value) ? null : TerrainVertexFormat.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                default:
+                    sweep.sweep(SweepAxis.fromOption(option), value);
+            }
+        }
+        final long failures = new BatchGenerator(sweep, output, jobs, inFlight, meshFormat).run();
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+}
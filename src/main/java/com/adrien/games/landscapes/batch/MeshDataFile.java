@@ -0,0 +1,72 @@
+package com.adrien.games.landscapes.batch;
+
+import com.adrien.games.landscapes.rendering.terrain.TerrainMeshData;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes {@link TerrainMeshData} to files
+ * <p>
+ * A file starts with a little endian header holding the vertex format, the
+ * layout of the grid the mesh was built from and the sizes of the buffers,
+ * followed by the vertex data and the indices exactly as they would be
+ * uploaded to the gpu, in the native byte order recorded in the header.
+ *
+ * @author adrien
+ */
+public final class MeshDataFile {
+
+    public static final String EXTENSION = ".mesh";
+
+    private static final int MAGIC = 0x544d5348;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+
+    private MeshDataFile() {
+    }
+
+    /**
+     * Write mesh data
+     *
+     * @param file The file to write. Created if missing
+     * @param data The data to write
+     * @return The number of bytes written
+     * @throws IOException If the file cannot be written
+     */
+    public static long write(final Path file, final TerrainMeshData data) throws IOException {
+        final var vertices = data.getVertices().duplicate();
+        final var indexData = data.getIndices();
+        final var indices = MemoryUtil.memByteBuffer(MemoryUtil.memAddress(indexData), indexData.remaining() * Integer.BYTES);
+        final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(data.getFormat().ordinal())
+                .putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1)
+                .putInt(data.getDepth())
+                .putInt(data.getStep())
+                .putInt(data.getOriginX())
+                .putInt(data.getOriginZ())
+                .putInt(data.getScale())
+                .putInt(data.getPolygonCount())
+                .putInt(vertices.remaining())
+                .putInt(indices.remaining())
+                .flip();
+        final long size = (long) header.remaining() + vertices.remaining() + indices.remaining();
+        try (final var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final var buffers = new ByteBuffer[]{header, vertices, indices};
+            long written = 0;
+            while (written < size) {
+                written += channel.write(buffers);
+            }
+        }
+        return size;
+    }
+
+}
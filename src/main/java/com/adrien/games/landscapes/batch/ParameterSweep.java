@@ -0,0 +1,80 @@
+package com.adrien.games.landscapes.batch;
+
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+
+/**
+ * Cartesian product of values of {@link HeightMapParameters}
+ * <p>
+ * Each {@link SweepAxis} holds a list of values, by default the single
+ * value of the base parameters. The combinations are never materialized,
+ * {@link #get(long)} decodes the index of a combination into the index of
+ * the value of each axis so sweeps of any size can be iterated lazily.
+ *
+ * @author adrien
+ */
+public class ParameterSweep {
+
+    private static final SweepAxis[] AXES = SweepAxis.values();
+
+    private final HeightMapParameters base;
+    private final double[][] values;
+
+    /**
+     * Construct a sweep containing only the base parameters
+     *
+     * @param base The parameters used for the parameters that are not swept. Copied
+     */
+    public ParameterSweep(final HeightMapParameters base) {
+        this.base = base.copy();
+        this.values = new double[AXES.length][];
+        for (final var axis : AXES) {
+            this.values[axis.ordinal()] = new double[]{axis.get(this.base)};
+        }
+    }
+
+    /**
+     * Set the values of an axis
+     *
+     * @param axis          The axis to sweep
+     * @param specification The values of the axis, see {@link SweepAxis}
+     * @return This for chaining
+     * @throws IllegalArgumentException If the specification is malformed
+     */
+    public ParameterSweep sweep(final SweepAxis axis, final String specification) {
+        this.values[axis.ordinal()] = axis.parse(specification);
+        return this;
+    }
+
+    /**
+     * Get the number of combinations of the sweep
+     *
+     * @return The number of combinations
+     */
+    public long size() {
+        long size = 1;
+        for (final var axisValues : this.values) {
+            size = Math.multiplyExact(size, axisValues.length);
+        }
+        return size;
+    }
+
+    /**
+     * Get a combination of the sweep
+     * <p>
+     * The last axis varies fastest
+     *
+     * @param index The index of the combination in [0; size[
+     * @return New parameters for the combination
+     */
+    public HeightMapParameters get(final long index) {
+        final var parameters = this.base.copy();
+        long remainder = index;
+        for (int i = AXES.length - 1; i >= 0; i--) {
+            final var axisValues = this.values[i];
+            AXES[i].apply(parameters, axisValues[(int) (remainder % axisValues.length)]);
+            remainder /= axisValues.length;
+        }
+        return parameters;
+    }
+
+}
@@ -0,0 +1,265 @@
+package com.adrien.games.landscapes.batch;
+
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+
+import java.util.Arrays;
+
+/**
+ * Parameter of {@link HeightMapParameters} a {@link ParameterSweep} can vary
+ * <p>
+ * Values of an axis are given either as a range 'from:to:step' whose bounds
+ * are both included, as a comma separated list of values or as a single
+ * value. Values of the noise axis are names of {@link NoiseType}s. Values
+ * are held as doubles so seeds are limited to 53 bits.
+ * <p>
+ * Parsed values are converted to the type of their parameter, values of
+ * integer parameters being truncated, and values that end up equal are only
+ * kept once. Two combinations of a sweep never produce the same terrain, and
+ * so never the same output file.
+ *
+ * @author adrien
+ */
+public enum SweepAxis {
+
+    WIDTH("width") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.width((int) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getWidth();
+        }
+    },
+    DEPTH("depth") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.depth((int) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getDepth();
+        }
+    },
+    SCALE("scale") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.scale((int) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getScale();
+        }
+    },
+    FREQUENCY("frequency") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.frequency((float) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getFrequency();
+        }
+    },
+    OCTAVES("octaves") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.octaves((int) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getOctaves();
+        }
+    },
+    PERSISTENCE("persistence") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.persistence((float) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getPersistence();
+        }
+    },
+    EXPONENT("exponent") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.exponent((float) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getExponent();
+        }
+    },
+    NOISE("noise") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.noise(NoiseType.values()[(int) value]);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getNoise().ordinal();
+        }
+
+        @Override
+        double parseValue(final String value) {
+            return NoiseType.valueOf(value.trim()).ordinal();
+        }
+
+        @Override
+        double[] parse(final String specification) {
+            if (specification.contains(RANGE_SEPARATOR)) {
+                throw new IllegalArgumentException("Noise values cannot be given as a range: " + specification);
+            }
+            return super.parse(specification);
+        }
+    },
+    STEP("step") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.step((int) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getStep();
+        }
+    },
+    SEED("seed") {
+        @Override
+        void apply(final HeightMapParameters parameters, final double value) {
+            parameters.seed((long) value);
+        }
+
+        @Override
+        double get(final HeightMapParameters parameters) {
+            return parameters.getSeed();
+        }
+
+        @Override
+        double parseValue(final String value) {
+            final long seed = Long.parseLong(value.trim());
+            if (Math.abs(seed) > MAX_EXACT_SEED) {
+                throw new IllegalArgumentException("Seeds are limited to +/-" + MAX_EXACT_SEED + ": " + seed);
+            }
+            return seed;
+        }
+    };
+
+    static final String RANGE_SEPARATOR = ":";
+    private static final String LIST_SEPARATOR = ",";
+    private static final long MAX_EXACT_SEED = 1L << 53;
+
+    /**
+     * Tolerance on the upper bound of ranges so accumulated rounding errors do not drop the last value
+     */
+    private static final double RANGE_EPSILON = 1e-6;
+
+    private final String option;
+
+    SweepAxis(final String option) {
+        this.option = option;
+    }
+
+    /**
+     * Find an axis by option name
+     *
+     * @param option The option name of the axis
+     * @return The axis
+     * @throws IllegalArgumentException If no axis has this option name
+     */
+    public static SweepAxis fromOption(final String option) {
+        return Arrays.stream(values())
+                .filter(axis -> axis.option.equals(option))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown sweep parameter: " + option));
+    }
+
+    /**
+     * Set the value of this axis on parameters
+     *
+     * @param parameters The parameters to update
+     * @param value      The value to set
+     */
+    abstract void apply(HeightMapParameters parameters, double value);
+
+    /**
+     * Get the value of this axis from parameters
+     *
+     * @param parameters The parameters to read
+     * @return The value of the axis
+     */
+    abstract double get(HeightMapParameters parameters);
+
+    double parseValue(final String value) {
+        return Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Parse the values of the axis
+     *
+     * @param specification A range, a comma separated list or a single value
+     * @return The distinct values of the axis, as held by the parameters
+     * @throws IllegalArgumentException If the specification is malformed or describes no value
+     */
+    double[] parse(final String specification) {
+        final var parameters = HeightMapParameters.create();
+        return Arrays.stream(this.parseValues(specification))
+                .map(value -> this.convert(parameters, value))
+                .distinct()
+                .toArray();
+    }
+
+    /**
+     * Convert a value to the type of the parameter of this axis
+     *
+     * @param parameters Scratch parameters used for the conversion
+     * @param value      The value to convert
+     * @return The value as it would be held by the parameters
+     */
+    private double convert(final HeightMapParameters parameters, final double value) {
+        this.apply(parameters, value);
+        return this.get(parameters);
+    }
+
+    private double[] parseValues(final String specification) {
+        if (specification.contains(RANGE_SEPARATOR)) {
+            final var bounds = specification.split(RANGE_SEPARATOR);
+            if (bounds.length != 3) {
+                throw new IllegalArgumentException("Expected a range 'from:to:step' for " + this.option + ": " + specification);
+            }
+            final double from = this.parseValue(bounds[0]);
+            final double to = this.parseValue(bounds[1]);
+            final double step = this.parseValue(bounds[2]);
+            if (step <= 0 || to < from) {
+                throw new IllegalArgumentException("Empty range for " + this.option + ": " + specification);
+            }
+            final int count = (int) Math.floor((to - from) / step + RANGE_EPSILON) + 1;
+            final var values = new double[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = from + i * step;
+            }
+            return values;
+        }
+        final var values = specification.split(LIST_SEPARATOR);
+        final var result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = this.parseValue(values[i]);
+        }
+        return result;
+    }
+
+    public String getOption() {
+        return option;
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.adrien.games.landscapes.batch;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightMapCache;
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.HeightMapPipeline;
+import com.adrien.games.landscapes.terrain.HeightMapTiling;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Generates a large height map as independent tiles
+ * <p>
+ * The map is split by a {@link HeightMapTiling}. Each worker generates the
+ * tiles whose index modulo the number of workers is its own index, so workers
+ * can run on different machines sharing the output directory or be spawned
+ * locally as separate processes. Tiles are written in the format of the
+ * {@link HeightMapCache} under their cache file name, and tiles already
+ * present are skipped so an interrupted run can be resumed. Once all tiles
+ * exist, they can be assembled into the whole map.
+ * <p>
+ * Usage: TileRunner [--output dir] [--tile-size n] [--threads n] [--worker i/n | --processes n] [--assemble]
+ * [--&lt;parameter&gt; value]...
+ * <p>
+ * Parameters are the options of {@link SweepAxis} with single values.
+ * Without --worker nor --processes, all tiles are generated by the current process.
+ * With --processes the tiles are generated by that many child processes and
+ * then assembled.
+ *
+ * @author adrien
+ */
+public class TileRunner {
+
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+    private static final float NANOS_PER_SECOND = 1_000_000_000f;
+
+    private final HeightMapParameters parameters;
+    private final HeightMapTiling tiling;
+    private final Path output;
+
+    /**
+     * Construct a runner
+     *
+     * @param parameters The parameters of the whole map. Copied
+     * @param tileSize   The size of the tiles in world units
+     * @param output     The directory holding the tiles. Created if missing
+     */
+    public TileRunner(final HeightMapParameters parameters, final int tileSize, final Path output) {
+        this.parameters = parameters.copy();
+        this.tiling = new HeightMapTiling(parameters, tileSize);
+        this.output = output;
+    }
+
+    /**
+     * Generate the tiles of a worker
+     *
+     * @param worker  The index of the worker in [0; workers[
+     * @param workers The number of workers sharing the tiles
+     * @param threads The number of threads used to generate each tile
+     * @throws IOException If a tile cannot be written
+     */
+    public void generate(final int worker, final int workers, final int threads) throws IOException {
+        Files.createDirectories(this.output);
+        final long start = System.nanoTime();
+        final long pipelineHash = HeightMapPipeline.getDefaultConfigurationHash();
+        int generated = 0;
+        for (int index = worker; index < this.tiling.getTileCount(); index += workers) {
+            final var tileParameters = this.tiling.getTile(index).threads(threads);
+            final var file = this.output.resolve(HeightMapCache.getFileName(tileParameters, pipelineHash));
+            if (Files.exists(file)) {
+                continue;
+            }
+            final var tile = new HeightMap(tileParameters);
+            try {
+                final var temporary = file.resolveSibling(file.getFileName() + TEMPORARY_EXTENSION);
+                HeightMapCache.write(temporary, tileParameters, pipelineHash, tile);
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tile.destroy();
+            }
+            generated++;
+        }
+        final float seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+        System.out.printf(Locale.ROOT, "Worker %d/%d generated %d tiles in %.1fs%n", worker, workers, generated, seconds);
+    }
+
+    /**
+     * Assemble the tiles into the whole map and write it next to them under its cache file name
+     *
+     * @return The file of the assembled map
+     * @throws IOException           If the map cannot be written
+     * @throws IllegalStateException If a tile is missing
+     */
+    public Path assemble() throws IOException {
+        final long pipelineHash = HeightMapPipeline.getDefaultConfigurationHash();
+        final var cache = new HeightMapCache(this.output, Integer.MAX_VALUE);
+        final var map = this.tiling.assemble(tile -> cache.load(tile, pipelineHash));
+        try {
+            final var file = this.output.resolve(HeightMapCache.getFileName(this.parameters, pipelineHash));
+            HeightMapCache.write(file, this.parameters, pipelineHash, map);
+            return file;
+        } finally {
+            map.destroy();
+        }
+    }
+
+    /**
+     * Run the workers as child processes of the current JVM
+     * <p>
+     * Children get the same class path and arguments plus their worker index
+     *
+     * @param processes The number of processes to spawn
+     * @param arguments The arguments to pass to every child
+     * @throws IOException          If a process cannot be started or fails
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the processes
+     */
+    private static void runProcesses(final int processes, final List<String> arguments) throws IOException, InterruptedException {
+        final var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / processes);
+        final var children = new ArrayList<Process>();
+        for (int worker = 0; worker < processes; worker++) {
+            final var command = new ArrayList<String>();
+            command.add(java);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(TileRunner.class.getName());
+            command.addAll(arguments);
+            command.add("--threads");
+            command.add(Integer.toString(threads));
+            command.add("--worker");
+            command.add(worker + "/" + processes);
+            children.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        int failures = 0;
+        for (final var child : children) {
+            if (child.waitFor() != 0) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            throw new IOException(failures + " worker processes failed");
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final var sweep = new ParameterSweep(HeightMapParameters.create().width(800).depth(800).scale(128).frequency(0.012f)
+                .octaves(6).persistence(0.4f).exponent(1.16f).noise(NoiseType.FBM_2D));
+        final var childArguments = new ArrayList<String>();
+        Path output = Paths.get("tiles");
+        int tileSize = 256;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int worker = 0;
+        int workers = 1;
+        int processes = 0;
+        boolean assemble = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--assemble".equals(args[i])) {
+                assemble = true;
+                continue;
+            }
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected '--option value' pairs, got: " + args[i]);
+            }
+            final var option = args[i].substring(2);
+            final var value = args[++i];
+            switch (option) {
+                case "output":
+                    output = Paths.get(value);
+                    break;
+                case "tile-size":
+                    tileSize = Integer.parseInt(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "worker":
+                    final var shard = value.split("/");
+                    worker = Integer.parseInt(shard[0]);
+                    workers = Integer.parseInt(shard[1]);
+                    break;
+                case "processes":
+                    processes = Integer.parseInt(value);
+                    break;
+                default:
+                    sweep.sweep(SweepAxis.fromOption(option), value);
+            }
+            if (!"processes".equals(option) && !"threads".equals(option)) {
+                childArguments.add(args[i - 1]);
+                childArguments.add(value);
+            }
+        }
+        if (sweep.size() != 1) {
+            throw new IllegalArgumentException("The tile runner expects a single value per parameter");
+        }
+        final var runner = new TileRunner(sweep.get(0), tileSize, output);
+        System.out.printf(Locale.ROOT, "%d tiles of %d units%n", runner.tiling.getTileCount(), tileSize);
+        if (processes > 0) {
+            runProcesses(processes, childArguments);
+            assemble = true;
+        } else {
+            runner.generate(worker, workers, threads);
+        }
+        if (assemble) {
+            System.out.println("Assembled map written to " + runner.assemble().toAbsolutePath());
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.adrien.games.landscapes.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits row based work across a fork-join pool
+ * <p>
+ * Rows are divided into contiguous ranges which are processed by the
+ * workers of a pool. One pool is created per requested thread count and
+ * is then reused for every subsequent call. When one thread (or less) is
+ * requested the rows are processed on the calling thread.
+ *
+ * @author adrien
+ */
+public final class ParallelRows {
+
+    /**
+     * Number of ranges created per thread to balance the load between workers
+     */
+    private static final int RANGES_PER_THREAD = 4;
+
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private ParallelRows() {
+    }
+
+    /**
+     * Process rows in [0; rowCount[
+     *
+     * @param threads  The number of threads to use
+     * @param rowCount The number of rows to process
+     * @param action   The action to run for each range of rows
+     */
+    public static void forEach(final int threads, final int rowCount, final RowRangeAction action) {
+        if (threads <= 1 || rowCount <= 1) {
+            action.process(0, rowCount);
+            return;
+        }
+        final int grain = Math.max(1, rowCount / (threads * RANGES_PER_THREAD));
+        POOLS.computeIfAbsent(threads, ForkJoinPool::new).invoke(new RangeTask(action, 0, rowCount, grain));
+    }
+
+    /**
+     * Task recursively splitting a range of rows until it is small enough
+     */
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowRangeAction action;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        private RangeTask(final RowRangeAction action, final int from, final int to, final int grain) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.grain) {
+                this.action.process(this.from, this.to);
+                return;
+            }
+            final int middle = (this.from + this.to) >>> 1;
+            invokeAll(new RangeTask(this.action, this.from, middle, this.grain),
+                    new RangeTask(this.action, middle, this.to, this.grain));
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.adrien.games.landscapes.concurrent;
+
+/**
+ * Action processing a range of rows
+ *
+ * @author adrien
+ */
+@FunctionalInterface
+public interface RowRangeAction {
+
+    /**
+     * Process the rows in [from; to[
+     *
+     * @param from The first row to process (inclusive)
+     * @param to   The last row to process (exclusive)
+     */
+    void process(int from, int to);
+
+}
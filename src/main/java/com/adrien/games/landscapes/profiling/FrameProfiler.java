@@ -0,0 +1,191 @@
+package com.adrien.games.landscapes.profiling;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL33;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Lightweight frame profiler
+ * <p>
+ * Keeps the latest durations of each {@link ProfilerPhase} in preallocated
+ * {@link RollingSamples}. Phases running on the rendering thread are timed
+ * with {@link #begin(ProfilerPhase)} and {@link #end(ProfilerPhase)}. Phases
+ * issuing gpu commands are also timed on the gpu with timer queries when the
+ * context supports them. Query results are read a few frames later, when their
+ * query is about to be reused, so the cpu never waits for the gpu.
+ * <p>
+ * Phases running on background threads report their durations with
+ * {@link #record(ProfilerPhase, long)}.
+ *
+ * @author adrien
+ */
+public class FrameProfiler {
+
+    private static final int SAMPLE_COUNT = 300;
+    private static final int QUERY_FRAMES = 4;
+    private static final float NANOS_PER_MILLI = 1_000_000f;
+    private static final ProfilerPhase[] PHASES = ProfilerPhase.values();
+
+    private final RollingSamples[] cpuSamples;
+    private final RollingSamples[] gpuSamples;
+    private final long[] startTimes;
+    private final boolean timerQueries;
+    private final int[][] queries;
+    private final boolean[][] pendingQueries;
+    private int frame;
+
+    /**
+     * Construct the profiler
+     * <p>
+     * Must be called from the thread owning the OpenGL context
+     */
+    public FrameProfiler() {
+        final var capabilities = GL.getCapabilities();
+        this.timerQueries = capabilities.OpenGL33 || capabilities.GL_ARB_timer_query;
+        this.cpuSamples = new RollingSamples[PHASES.length];
+        this.gpuSamples = new RollingSamples[PHASES.length];
+        this.startTimes = new long[PHASES.length];
+        this.queries = new int[PHASES.length][];
+        this.pendingQueries = new boolean[PHASES.length][];
+        for (final var phase : PHASES) {
+            this.cpuSamples[phase.ordinal()] = new RollingSamples(SAMPLE_COUNT);
+            if (phase.isGpu() && this.timerQueries) {
+                this.gpuSamples[phase.ordinal()] = new RollingSamples(SAMPLE_COUNT);
+                this.queries[phase.ordinal()] = new int[QUERY_FRAMES];
+                this.pendingQueries[phase.ordinal()] = new boolean[QUERY_FRAMES];
+                GL15.glGenQueries(this.queries[phase.ordinal()]);
+            }
+        }
+    }
+
+    /**
+     * Mark the start of a new frame
+     */
+    public void startFrame() {
+        this.frame++;
+    }
+
+    /**
+     * Start timing a phase on the rendering thread
+     *
+     * @param phase The phase to time
+     */
+    public void begin(final ProfilerPhase phase) {
+        final int index = phase.ordinal();
+        if (this.gpuSamples[index] != null) {
+            final int slot = this.frame % QUERY_FRAMES;
+            this.collect(index, slot);
+            GL15.glBeginQuery(GL33.GL_TIME_ELAPSED, this.queries[index][slot]);
+        }
+        this.startTimes[index] = System.nanoTime();
+    }
+
+    /**
+     * Stop timing a phase on the rendering thread
+     *
+     * @param phase The phase to time
+     */
+    public void end(final ProfilerPhase phase) {
+        final int index = phase.ordinal();
+        this.record(phase, System.nanoTime() - this.startTimes[index]);
+        if (this.gpuSamples[index] != null) {
+            GL15.glEndQuery(GL33.GL_TIME_ELAPSED);
+            this.pendingQueries[index][this.frame % QUERY_FRAMES] = true;
+        }
+    }
+
+    /**
+     * Record the cpu duration of a phase
+     * <p>
+     * Can be called from any thread
+     *
+     * @param phase The timed phase
+     * @param nanos The duration of the phase in nanoseconds
+     */
+    public void record(final ProfilerPhase phase, final long nanos) {
+        this.cpuSamples[phase.ordinal()].add(nanos / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Read the result of a timer query issued several frames ago
+     *
+     * @param index The index of the phase
+     * @param slot  The slot of the query
+     */
+    private void collect(final int index, final int slot) {
+        if (this.pendingQueries[index][slot]) {
+            final long nanos = GL33.glGetQueryObjecti64(this.queries[index][slot], GL15.GL_QUERY_RESULT);
+            this.gpuSamples[index].add(nanos / NANOS_PER_MILLI);
+            this.pendingQueries[index][slot] = false;
+        }
+    }
+
+    /**
+     * Write all samples to a CSV file
+     * <p>
+     * The file has one line per sample with the phase, the timer (cpu or gpu),
+     * the index of the sample from the oldest and its duration in milliseconds
+     *
+     * @param file The file to write
+     * @throws IOException If the file cannot be written
+     */
+    public void dump(final Path file) throws IOException {
+        final var samples = new float[SAMPLE_COUNT];
+        try (final var writer = Files.newBufferedWriter(file)) {
+            writer.write("phase,timer,sample,milliseconds");
+            writer.newLine();
+            for (final var phase : PHASES) {
+                writeSamples(writer, phase, "cpu", this.cpuSamples[phase.ordinal()], samples);
+                if (this.gpuSamples[phase.ordinal()] != null) {
+                    writeSamples(writer, phase, "gpu", this.gpuSamples[phase.ordinal()], samples);
+                }
+            }
+        }
+    }
+
+    private static void writeSamples(final BufferedWriter writer, final ProfilerPhase phase, final String timer,
+                                     final RollingSamples rollingSamples, final float[] samples) throws IOException {
+        final int count = rollingSamples.copySamples(samples);
+        for (int i = 0; i < count; i++) {
+            writer.write(phase.name() + "," + timer + "," + i + "," + samples[i]);
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Delete the timer queries
+     */
+    public void destroy() {
+        for (final int[] phaseQueries : this.queries) {
+            if (phaseQueries != null) {
+                GL15.glDeleteQueries(phaseQueries);
+            }
+        }
+    }
+
+    /**
+     * Get the cpu samples of a phase
+     *
+     * @param phase The phase
+     * @return The samples in milliseconds
+     */
+    public RollingSamples getCpuSamples(final ProfilerPhase phase) {
+        return this.cpuSamples[phase.ordinal()];
+    }
+
+    /**
+     * Get the gpu samples of a phase
+     *
+     * @param phase The phase
+     * @return The samples in milliseconds or null if the phase is not timed on the gpu
+     */
+    public RollingSamples getGpuSamples(final ProfilerPhase phase) {
+        return this.gpuSamples[phase.ordinal()];
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.adrien.games.landscapes.profiling;
+
+import com.adrienben.games.bagl.core.Color;
+import com.adrienben.games.bagl.engine.rendering.text.Font;
+import com.adrienben.games.bagl.engine.rendering.text.Text;
+import com.adrienben.games.bagl.engine.rendering.text.TextRenderer;
+
+/**
+ * On screen display of the timings of a {@link FrameProfiler}
+ * <p>
+ * Shows the 50th, 95th and 99th percentiles of each phase in milliseconds.
+ * Percentiles are computed and the texts rebuilt a few times per second
+ * only, in between the same texts are rendered again. A status line can be
+ * shown below the timings to report the outcome of profiler commands.
+ *
+ * @author adrien
+ */
+public class ProfilerOverlay {
+
+    private static final long REFRESH_INTERVAL_NS = 250_000_000L;
+    private static final float[] PERCENTILES = {50f, 95f, 99f};
+    private static final ProfilerPhase[] PHASES = ProfilerPhase.values();
+    private static final float X = 0.55f;
+    private static final float TOP = 0.85f;
+    private static final float LINE_HEIGHT = 0.035f;
+    private static final float TEXT_SIZE = 0.035f;
+
+    private final FrameProfiler profiler;
+    private final Font font;
+    private final Text[] lines;
+    private final float[] values;
+    private final StringBuilder builder;
+    private long lastRefresh;
+    private Text statusLine;
+
+    /**
+     * Construct an overlay
+     *
+     * @param profiler The profiler whose timings to display
+     * @param font     The font of the texts
+     */
+    public ProfilerOverlay(final FrameProfiler profiler, final Font font) {
+        this.profiler = profiler;
+        this.font = font;
+        this.lines = new Text[PHASES.length + 1];
+        this.values = new float[PERCENTILES.length];
+        this.builder = new StringBuilder();
+        this.lastRefresh = System.nanoTime() - REFRESH_INTERVAL_NS;
+    }
+
+    /**
+     * Render the overlay, rebuilding its texts if they are outdated
+     *
+     * @param renderer The renderer to use
+     */
+    public void render(final TextRenderer renderer) {
+        final long now = System.nanoTime();
+        if (now - this.lastRefresh >= REFRESH_INTERVAL_NS) {
+            this.refresh();
+            this.lastRefresh = now;
+        }
+        for (final var line : this.lines) {
+            renderer.render(line);
+        }
+        if (this.statusLine != null) {
+            renderer.render(this.statusLine);
+        }
+    }
+
+    /**
+     * Set the status line shown below the timings
+     *
+     * @param status The status to show or null to hide the status line
+     */
+    public void setStatus(final String status) {
+        this.statusLine = status == null ? null : Text.create(status, this.font, X, TOP - this.lines.length * LINE_HEIGHT,
+                TEXT_SIZE, Color.WHITE);
+    }
+
+    private void refresh() {
+        this.lines[0] = Text.create("phase - p50 / p95 / p99 ms", this.font, X, TOP, TEXT_SIZE, Color.WHITE);
+        for (int i = 0; i < PHASES.length; i++) {
+            final var phase = PHASES[i];
+            this.builder.setLength(0);
+            this.builder.append(phase.getLabel()).append(" - cpu ");
+            this.appendPercentiles(this.profiler.getCpuSamples(phase));
+            final var gpuSamples = this.profiler.getGpuSamples(phase);
+            if (gpuSamples != null) {
+                this.builder.append(" - gpu ");
+                this.appendPercentiles(gpuSamples);
+            }
+            this.lines[i + 1] = Text.create(this.builder.toString(), this.font, X, TOP - (i + 1) * LINE_HEIGHT, TEXT_SIZE,
+                    Color.WHITE);
+        }
+    }
+
+    private void appendPercentiles(final RollingSamples samples) {
+        if (!samples.computePercentiles(PERCENTILES, this.values)) {
+            this.builder.append('-');
+            return;
+        }
+        for (int i = 0; i < this.values.length; i++) {
+            if (i > 0) {
+                this.builder.append(" / ");
+            }
+            appendMilliseconds(this.builder, this.values[i]);
+        }
+    }
+
+    /**
+     * Append a duration with two decimals without going through String.format
+     *
+     * @param builder      The builder to append to
+     * @param milliseconds The duration to append
+     */
+    private static void appendMilliseconds(final StringBuilder builder, final float milliseconds) {
+        final int hundredths = Math.round(milliseconds * 100);
+        final int fraction = hundredths % 100;
+        builder.append(hundredths / 100).append('.');
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+    }
+
+}
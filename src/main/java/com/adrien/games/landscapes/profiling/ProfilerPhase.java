@@ -0,0 +1,43 @@
+package com.adrien.games.landscapes.profiling;
+
+/**
+ * Phases timed by the {@link FrameProfiler}
+ *
+ * @author adrien
+ */
+public enum ProfilerPhase {
+
+    UPDATE("update", false),
+    UI_UPDATE("ui update", false),
+    HEIGHT_MAP_GENERATION("height map", false),
+    MESH_BUILD("mesh build", false),
+    EROSION("erosion", false),
+    LIGHTING_BAKE("lighting bake", false),
+    PYRAMID_BUILD("height pyramid", false),
+    GPU_UPLOAD("gpu upload", false),
+    TERRAIN_RENDER("terrain render", true),
+    WATER_RENDER("water render", true),
+    UI_RENDER("ui render", true);
+
+    private final String label;
+    private final boolean gpu;
+
+    ProfilerPhase(final String label, final boolean gpu) {
+        this.label = label;
+        this.gpu = gpu;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Check whether the phase issues gpu commands and should also be timed on the gpu
+     *
+     * @return true if the phase is timed on the gpu
+     */
+    public boolean isGpu() {
+        return gpu;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.adrien.games.landscapes.profiling;
+
+import java.util.Arrays;
+
+/**
+ * Ring buffer of the latest samples of a measure
+ * <p>
+ * All storage is allocated up front so adding samples and computing
+ * percentiles does not allocate. Samples can be added from any thread
+ *
+ * @author adrien
+ */
+public class RollingSamples {
+
+    private final float[] samples;
+    private final float[] sorted;
+    private int next;
+    private int count;
+
+    /**
+     * Construct an empty buffer
+     *
+     * @param capacity The number of samples to keep
+     */
+    public RollingSamples(final int capacity) {
+        this.samples = new float[capacity];
+        this.sorted = new float[capacity];
+    }
+
+    /**
+     * Add a sample, replacing the oldest one if the buffer is full
+     *
+     * @param sample The sample to add
+     */
+    public synchronized void add(final float sample) {
+        this.samples[this.next] = sample;
+        this.next = (this.next + 1) % this.samples.length;
+        this.count = Math.min(this.count + 1, this.samples.length);
+    }
+
+    /**
+     * Compute percentiles of the samples using the nearest rank method
+     *
+     * @param percentiles The percentiles to compute, in [0; 100]
+     * @param dst         The array in which to write the results. Left untouched if there is no sample
+     * @return false if there is no sample
+     */
+    public synchronized boolean computePercentiles(final float[] percentiles, final float[] dst) {
+        if (this.count == 0) {
+            return false;
+        }
+        System.arraycopy(this.samples, 0, this.sorted, 0, this.count);
+        Arrays.sort(this.sorted, 0, this.count);
+        for (int i = 0; i < percentiles.length; i++) {
+            final int rank = (int) Math.ceil(percentiles[i] / 100f * this.count);
+            dst[i] = this.sorted[Math.max(0, Math.min(this.count, rank) - 1)];
+        }
+        return true;
+    }
+
+    /**
+     * Copy the samples from the oldest to the newest
+     *
+     * @param dst The array in which to copy the samples. Must be at least as large as the capacity
+     * @return The number of copied samples
+     */
+    public synchronized int copySamples(final float[] dst) {
+        final int oldest = (this.next - this.count + this.samples.length) % this.samples.length;
+        for (int i = 0; i < this.count; i++) {
+            dst[i] = this.samples[(oldest + i) % this.samples.length];
+        }
+        return this.count;
+    }
+
+    public int getCapacity() {
+        return this.samples.length;
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrienben.games.bagl.core.Color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Colors of the terrain depending on its elevation and its slope
+ * <p>
+ * Usage example : BiomePalette palette = BiomePalette.create().band(SAND, 0.35f, 0.08f).band(SNOW, 1f, 0f);
+ * <p>
+ * The palette is made of bands ordered by elevation. A band has a color, an
+ * upper limit and a transition width, both expressed as a fraction of the height
+ * scale of the terrain. Below its limit the color of a band is used as is, then
+ * it is blended into the color of the next band over the transition width.
+ * <p>
+ * Terrain steeper than the steep range is colored with the steep color. The
+ * slope is measured as 1 minus the y component of the normal. A palette has
+ * no steep color unless one is set by {@link #steep(Color, float, float)},
+ * the renderer then skips the slope blend entirely.
+ * <p>
+ * Bands are baked into a lookup table indexed by elevation by {@link #bake(int)}.
+ *
+ * @author adrien
+ */
+public class BiomePalette {
+
+    private static final Color SAND = new Color(0.93f, 0.79f, 0.69f);
+    private static final Color GRASS = new Color(0.2f, 0.5f, 0.0f);
+    private static final Color DIRT = new Color(0.61f, 0.46f, 0.32f);
+    private static final Color SNOW = new Color(1.0f, 1.0f, 1.0f);
+
+    public static final int ELEMENTS_PER_COLOR = 3;
+
+    private final List<Band> bands = new ArrayList<>();
+    private Color steepColor;
+    private float steepStart;
+    private float steepEnd;
+
+    private BiomePalette() {
+    }
+
+    /**
+     * Create an empty palette
+     *
+     * @return A new palette
+     */
+    public static BiomePalette create() {
+        return new BiomePalette();
+    }
+
+    /**
+     * Create the default palette going from sand to snow
+     *
+     * @return A new palette
+     */
+    public static BiomePalette createDefault() {
+        return create()
+                .band(SAND, 0.35f, 0.08f)
+                .band(GRASS, 0.44f, 0.08f)
+                .band(DIRT, 0.65f, 0.08f)
+                .band(SNOW, 1f, 0f);
+    }
+
+    /**
+     * Add a band above the previously added ones
+     *
+     * @param color      The color of the band
+     * @param limit      The elevation ratio below which the color is used unblended
+     * @param transition The elevation ratio over which the color blends into the next band
+     * @return This for chaining
+     */
+    public BiomePalette band(final Color color, final float limit, final float transition) {
+        this.bands.add(new Band(color, limit, transition));
+        return this;
+    }
+
+    /**
+     * Set the color of steep terrain
+     *
+     * @param color The color of steep terrain or null to color terrain by elevation only
+     * @param start The slope from which the steep color starts to be blended in
+     * @param end   The slope from which the steep color is used unblended
+     * @return This for chaining
+     */
+    public BiomePalette steep(final Color color, final float start, final float end) {
+        this.steepColor = color;
+        this.steepStart = start;
+        this.steepEnd = end;
+        return this;
+    }
+
+    /**
+     * Bake the bands into a lookup table
+     * <p>
+     * The table contains resolution rgb colors. Entry i is the color at the
+     * elevation ratio i / (resolution - 1)
+     *
+     * @param resolution The number of entries in the table
+     * @return The rgb components of each entry
+     */
+    public float[] bake(final int resolution) {
+        final var table = new float[resolution * ELEMENTS_PER_COLOR];
+        for (int i = 0; i < resolution; i++) {
+            this.computeColor((float) i / (resolution - 1), table, i * ELEMENTS_PER_COLOR);
+        }
+        return table;
+    }
+
+    /**
+     * Compute the color of an elevation ratio
+     *
+     * @param ratio  The elevation divided by the height scale of the terrain
+     * @param dst    The array in which to write the rgb components
+     * @param offset The position of the red component in the array
+     */
+    private void computeColor(final float ratio, final float[] dst, final int offset) {
+        for (int i = 0; i < this.bands.size(); i++) {
+            final var band = this.bands.get(i);
+            final boolean last = i == this.bands.size() - 1;
+            if (last || ratio < band.limit) {
+                write(band.color, band.color, 0f, dst, offset);
+                return;
+            }
+            if (ratio < band.limit + band.transition) {
+                write(band.color, this.bands.get(i + 1).color, (ratio - band.limit) / band.transition, dst, offset);
+                return;
+            }
+        }
+    }
+
+    private static void write(final Color from, final Color to, final float factor, final float[] dst, final int offset) {
+        dst[offset] = from.getRed() + (to.getRed() - from.getRed()) * factor;
+        dst[offset + 1] = from.getGreen() + (to.getGreen() - from.getGreen()) * factor;
+        dst[offset + 2] = from.getBlue() + (to.getBlue() - from.getBlue()) * factor;
+    }
+
+    /**
+     * Get the color of steep terrain
+     *
+     * @return The steep color or null if the palette has none
+     */
+    public Color getSteepColor() {
+        return steepColor;
+    }
+
+    public float getSteepStart() {
+        return steepStart;
+    }
+
+    public float getSteepEnd() {
+        return steepEnd;
+    }
+
+    private static class Band {
+
+        private final Color color;
+        private final float limit;
+        private final float transition;
+
+        private Band(final Color color, final float limit, final float transition) {
+            this.color = color;
+            this.limit = limit;
+            this.transition = transition;
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrienben.games.bagl.opengl.DataType;
+import com.adrienben.games.bagl.opengl.buffer.BufferUsage;
+import com.adrienben.games.bagl.opengl.vertex.*;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Terrain displaced on the gpu
+ * <p>
+ * Instead of one vertex per sample, the terrain is made of {@link TerrainPatch}es
+ * all drawing the same flat grid of {@link #PATCH_SIZE} by {@link #PATCH_SIZE}
+ * cells. The heights are uploaded into a {@link HeightTexture} and the vertex
+ * shader displaces the grid and derives the normals from the texture, so an
+ * update only uploads 4 bytes per sample and no vertex data is built at all.
+ * <p>
+ * Vertices of patches overlapping the far edges of the map are clamped on
+ * the edges, producing degenerate triangles.
+ *
+ * @author adrien
+ */
+public class DisplacedTerrain {
+
+    public static final int PATCH_SIZE = 64;
+    private static final int GRID_ELEMENTS_INDEX = 0;
+    private static final int ELEMENTS_PER_CELL = 2;
+
+    private final VertexArray vArray;
+    private final VertexBuffer vBuffer;
+    private final IndexBuffer iBuffer;
+    private final HeightTexture heights;
+    private final int indexCount;
+    private List<TerrainPatch> patches;
+    private int width;
+    private int depth;
+    private int step;
+    private int originX;
+    private int originZ;
+    private int scale;
+
+    /**
+     * Construct an empty terrain and upload the shared grid
+     */
+    public DisplacedTerrain() {
+        final int verticesPerSide = PATCH_SIZE + 1;
+        this.indexCount = PATCH_SIZE * PATCH_SIZE * 2 * TerrainMeshBuilder.INDICES_PER_POLYGON;
+        final var cells = MemoryUtil.memAlloc(verticesPerSide * verticesPerSide * ELEMENTS_PER_CELL);
+        final var indices = MemoryUtil.memAllocInt(this.indexCount);
+        try {
+            for (int x = 0; x < verticesPerSide; x++) {
+                for (int z = 0; z < verticesPerSide; z++) {
+                    cells.put((byte) x).put((byte) z);
+                }
+            }
+            cells.flip();
+            // cell indices are raw unsigned bytes read as integers by the shader, see UnsignedByteAttributes
+            this.vBuffer = new VertexBuffer(cells, VertexBufferParams.builder()
+                    .dataType(DataType.UNSIGNED_BYTE)
+                    .element(new VertexElement(GRID_ELEMENTS_INDEX, ELEMENTS_PER_CELL)).build());
+
+            for (int x = 0; x < PATCH_SIZE; x++) {
+                for (int z = 0; z < PATCH_SIZE; z++) {
+                    final int index0 = x * verticesPerSide + z;
+                    final int index1 = (x + 1) * verticesPerSide + z;
+                    final int index2 = x * verticesPerSide + z + 1;
+                    final int index3 = (x + 1) * verticesPerSide + z + 1;
+                    indices.put(index0).put(index2).put(index1).put(index1).put(index2).put(index3);
+                }
+            }
+            indices.flip();
+            this.iBuffer = new IndexBuffer(indices, BufferUsage.STATIC_DRAW);
+        } finally {
+            MemoryUtil.memFree(cells);
+            MemoryUtil.memFree(indices);
+        }
+
+        this.vArray = new VertexArray();
+        UnsignedByteAttributes.attach(this.vArray, this.vBuffer, ELEMENTS_PER_CELL);
+
+        this.heights = new HeightTexture();
+        this.patches = List.of();
+    }
+
+    /**
+     * Upload the heights of a map and update the bounds of the patches
+     * <p>
+     * The map is not released by the terrain
+     *
+     * @param map The map to display
+     */
+    public void update(final HeightMap map) {
+        this.heights.update(map);
+        this.width = map.getWidth();
+        this.depth = map.getDepth();
+        this.step = map.getStep();
+        this.originX = map.getOriginX();
+        this.originZ = map.getOriginZ();
+        this.scale = map.getScale();
+
+        final var newPatches = new ArrayList<TerrainPatch>();
+        for (int cellX = 0; cellX < this.width - 1; cellX += PATCH_SIZE) {
+            final int toX = Math.min(cellX + PATCH_SIZE, this.width - 1);
+            for (int cellZ = 0; cellZ < this.depth - 1; cellZ += PATCH_SIZE) {
+                final int toZ = Math.min(cellZ + PATCH_SIZE, this.depth - 1);
+                float minHeight = Float.POSITIVE_INFINITY;
+                float maxHeight = Float.NEGATIVE_INFINITY;
+                for (int x = cellX; x <= toX; x++) {
+                    for (int z = cellZ; z <= toZ; z++) {
+                        final float height = map.getHeight(x, z);
+                        minHeight = Math.min(minHeight, height);
+                        maxHeight = Math.max(maxHeight, height);
+                    }
+                }
+                newPatches.add(new TerrainPatch(this.indexCount, cellX, cellZ, this.originX + cellX * this.step, minHeight,
+                        this.originZ + cellZ * this.step, this.originX + toX * this.step, maxHeight, this.originZ + toZ * this.step));
+            }
+        }
+        this.patches = newPatches;
+    }
+
+    /**
+     * Bind the shared grid and the height texture
+     *
+     * @param heightsUnit The texture unit to which to bind the height texture
+     */
+    public void bind(final int heightsUnit) {
+        this.heights.bind(heightsUnit);
+        this.vArray.bind();
+        this.iBuffer.bind();
+    }
+
+    /**
+     * Unbind the shared grid and the height texture
+     *
+     * @param heightsUnit The texture unit the height texture is bound to
+     */
+    public void unbind(final int heightsUnit) {
+        this.iBuffer.unbind();
+        this.vArray.unbind();
+        this.heights.unbind(heightsUnit);
+    }
+
+    /**
+     * Destroy the grid and the height texture
+     */
+    public void destroy() {
+        this.iBuffer.destroy();
+        this.vBuffer.destroy();
+        this.vArray.destroy();
+        this.heights.destroy();
+    }
+
+    public List<TerrainPatch> getPatches() {
+        return patches;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+}
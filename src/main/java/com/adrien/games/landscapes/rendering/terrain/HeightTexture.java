@@ -0,0 +1,83 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Single channel float texture holding the heights of a {@link HeightMap}
+ * <p>
+ * Texel (z, x) holds the height of sample (x, z) so each row of the map is
+ * a row of the texture. Heights are uploaded straight from the pages of the
+ * map without any intermediate copy
+ *
+ * @author adrien
+ */
+public class HeightTexture {
+
+    private final int handle;
+    private int width;
+    private int depth;
+
+    /**
+     * Construct an empty texture
+     */
+    public HeightTexture() {
+        this.handle = GL11.glGenTextures();
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.handle);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Upload the heights of a map
+     * <p>
+     * The storage of the texture is only reallocated when the dimensions of the map change
+     *
+     * @param map The map to upload
+     */
+    public void update(final HeightMap map) {
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.handle);
+        if (map.getWidth() != this.width || map.getDepth() != this.depth) {
+            this.width = map.getWidth();
+            this.depth = map.getDepth();
+            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_R32F, this.depth, this.width, 0, GL11.GL_RED, GL11.GL_FLOAT, 0L);
+        }
+        for (int page = 0; page < map.getPageCount(); page++) {
+            final int firstRow = page * map.getRowsPerPage();
+            final int rows = Math.min(map.getRowsPerPage(), map.getWidth() - firstRow);
+            GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, firstRow, this.depth, rows, GL11.GL_RED, GL11.GL_FLOAT, map.getPage(page));
+        }
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Bind the texture to a texture unit
+     *
+     * @param unit The index of the texture unit
+     */
+    public void bind(final int unit) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.handle);
+    }
+
+    /**
+     * Unbind the texture from a texture unit
+     *
+     * @param unit The index of the texture unit
+     */
+    public void unbind(final int unit) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Delete the texture
+     */
+    public void destroy() {
+        GL11.glDeleteTextures(this.handle);
+    }
+
+}
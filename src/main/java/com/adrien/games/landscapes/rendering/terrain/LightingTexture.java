@@ -0,0 +1,113 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.terrain.HorizonLighting;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Two channel texture holding baked {@link HorizonLighting}
+ * <p>
+ * Texel (z, x) holds the sun visibility in its red channel and the ambient
+ * visibility in its green channel for sample (x, z), like {@link HeightTexture}.
+ * The texture is filtered linearly so lighting is smooth between samples.
+ * It also remembers where the baked map lies in the world so the shaders
+ * can look terrain fragments up by their world position
+ *
+ * @author adrien
+ */
+public class LightingTexture {
+
+    private final int handle;
+    private int width;
+    private int depth;
+    private int step;
+    private int originX;
+    private int originZ;
+
+    /**
+     * Construct an empty texture
+     */
+    public LightingTexture() {
+        this.handle = GL11.glGenTextures();
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.handle);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_2D, GL11.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Upload baked lighting
+     * <p>
+     * The storage of the texture is only reallocated when the dimensions of the lighting change
+     *
+     * @param lighting The lighting to upload
+     */
+    public void update(final HorizonLighting lighting) {
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.handle);
+        GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+        if (lighting.getWidth() != this.width || lighting.getDepth() != this.depth) {
+            this.width = lighting.getWidth();
+            this.depth = lighting.getDepth();
+            GL11.glTexImage2D(GL11.GL_TEXTURE_2D, 0, GL30.GL_RG8, this.depth, this.width, 0, GL30.GL_RG, GL11.GL_UNSIGNED_BYTE, 0L);
+        }
+        GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, this.depth, this.width, GL30.GL_RG, GL11.GL_UNSIGNED_BYTE,
+                lighting.getTexels());
+        GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 4);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+        this.step = lighting.getStep();
+        this.originX = lighting.getOriginX();
+        this.originZ = lighting.getOriginZ();
+    }
+
+    /**
+     * Bind the texture to a texture unit
+     *
+     * @param unit The index of the texture unit
+     */
+    public void bind(final int unit) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, this.handle);
+    }
+
+    /**
+     * Unbind the texture from a texture unit
+     *
+     * @param unit The index of the texture unit
+     */
+    public void unbind(final int unit) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Delete the texture
+     */
+    public void destroy() {
+        GL11.glDeleteTextures(this.handle);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.system.MemoryStack;
+
+/**
+ * 1D texture holding the lookup table of a {@link BiomePalette}
+ * <p>
+ * The texture is sampled by the terrain fragment shader with the elevation
+ * ratio of each fragment so palette changes do not require rebuilding meshes
+ *
+ * @author adrien
+ */
+public class PaletteTexture {
+
+    public static final int RESOLUTION = 256;
+
+    private final int handle;
+
+    /**
+     * Construct the texture and upload a palette
+     *
+     * @param palette The palette to upload
+     */
+    public PaletteTexture(final BiomePalette palette) {
+        this.handle = GL11.glGenTextures();
+        GL11.glBindTexture(GL11.GL_TEXTURE_1D, this.handle);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_1D, GL11.GL_TEXTURE_MIN_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_1D, GL11.GL_TEXTURE_MAG_FILTER, GL11.GL_LINEAR);
+        GL11.glTexParameteri(GL11.GL_TEXTURE_1D, GL11.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GL11.glBindTexture(GL11.GL_TEXTURE_1D, 0);
+        this.update(palette);
+    }
+
+    /**
+     * Bake a palette and upload it into the texture
+     *
+     * @param palette The palette to upload
+     */
+    public void update(final BiomePalette palette) {
+        final float[] table = palette.bake(RESOLUTION);
+        try (final MemoryStack stack = MemoryStack.stackPush()) {
+            GL11.glBindTexture(GL11.GL_TEXTURE_1D, this.handle);
+            GL11.glTexImage1D(GL11.GL_TEXTURE_1D, 0, GL11.GL_RGB8, RESOLUTION, 0, GL11.GL_RGB, GL11.GL_FLOAT, stack.floats(table));
+            GL11.glBindTexture(GL11.GL_TEXTURE_1D, 0);
+        }
+    }
+
+    /**
+     * Bind the texture to a texture unit
+     *
+     * @param unit The index of the texture unit
+     */
+    public void bind(final int unit) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_1D, this.handle);
+    }
+
+    /**
+     * Unbind the texture from a texture unit
+     *
+     * @param unit The index of the texture unit
+     */
+    public void unbind(final int unit) {
+        GL13.glActiveTexture(GL13.GL_TEXTURE0 + unit);
+        GL11.glBindTexture(GL11.GL_TEXTURE_1D, 0);
+    }
+
+    /**
+     * Delete the texture
+     */
+    public void destroy() {
+        GL11.glDeleteTextures(this.handle);
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import org.joml.Vector3fc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Terrain streamed around the camera
+ * <p>
+ * The world is divided into square tiles. Each tile is a height map
+ * generated at its world space origin so neighbouring tiles share the
+ * samples of their common edge. Tiles are generated with one more sample on
+ * each side so the normals of their edges match those of their neighbours. Tiles within a given radius around the
+ * camera are generated on worker threads and uploaded to the gpu on the
+ * rendering thread, a few per frame. Tiles whose generation fails are logged
+ * and not requested again until the parameters change.
+ * <p>
+ * Uploaded tiles are kept in a least recently used cache of bounded size.
+ * When the cache is full, the tile that was used the longest time ago is
+ * evicted and its gpu buffers are destroyed.
+ *
+ * @author adrien
+ */
+public class StreamingTerrain {
+
+    /**
+     * Maximum number of tiles uploaded per frame
+     */
+    private static final int MAX_UPLOADS_PER_FRAME = 2;
+
+    private static final System.Logger LOGGER = System.getLogger(StreamingTerrain.class.getName());
+
+    private final int tileSize;
+    private final int radius;
+    private final int capacity;
+    private final ExecutorService workers;
+    private final Map<Long, TerrainMesh> cache;
+    private final Set<Long> pending;
+    private final Set<Long> failed;
+    private final ConcurrentLinkedQueue<TileResult> results;
+    private final List<TerrainMesh> visibleTiles;
+    private HeightMapParameters parameters;
+    private volatile int generation;
+    private volatile int centerX;
+    private volatile int centerZ;
+
+    /**
+     * Construct the streaming terrain
+     *
+     * @param parameters The parameters of the terrain. Dimensions and origin are ignored
+     * @param tileSize   The number of cells along each side of a tile
+     * @param radius     The number of tiles to keep around the tile containing the camera
+     * @param capacity   The maximum number of tiles to keep on the gpu
+     * @throws IllegalArgumentException if the capacity cannot hold all tiles in range
+     */
+    public StreamingTerrain(final HeightMapParameters parameters, final int tileSize, final int radius, final int capacity) {
+        final int tilesInRange = (2 * radius + 1) * (2 * radius + 1);
+        if (capacity < tilesInRange) {
+            throw new IllegalArgumentException("Capacity " + capacity + " cannot hold the " + tilesInRange + " tiles in range");
+        }
+        this.tileSize = tileSize;
+        this.radius = radius;
+        this.capacity = capacity;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, parameters.getThreads()), runnable -> {
+            final var thread = new Thread(runnable, "terrain-streaming");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.cache = new LinkedHashMap<>(capacity, 0.75f, true);
+        this.pending = new HashSet<>();
+        this.failed = new HashSet<>();
+        this.results = new ConcurrentLinkedQueue<>();
+        this.visibleTiles = new ArrayList<>(tilesInRange);
+        this.parameters = parameters.copy();
+    }
+
+    /**
+     * Change the parameters of the terrain
+     * <p>
+     * All tiles are discarded and will be regenerated, including those that failed
+     *
+     * @param parameters The new parameters. Dimensions and origin are ignored
+     */
+    public void setParameters(final HeightMapParameters parameters) {
+        this.parameters = parameters.copy();
+        this.generation++;
+        this.pending.clear();
+        this.failed.clear();
+        this.cache.values().forEach(TerrainMesh::destroy);
+        this.cache.clear();
+    }
+
+    /**
+     * Update the streamed tiles
+     * <p>
+     * Uploads finished tiles, requests the missing tiles around the camera
+     * and refreshes the list of tiles to render. Must be called from the
+     * rendering thread
+     *
+     * @param eye The position of the camera
+     */
+    public void update(final Vector3fc eye) {
+        this.centerX = Math.floorDiv((int) Math.floor(eye.x()), this.tileSize);
+        this.centerZ = Math.floorDiv((int) Math.floor(eye.z()), this.tileSize);
+
+        this.uploadResults();
+
+        this.visibleTiles.clear();
+        for (int tileX = this.centerX - this.radius; tileX <= this.centerX + this.radius; tileX++) {
+            for (int tileZ = this.centerZ - this.radius; tileZ <= this.centerZ + this.radius; tileZ++) {
+                final long key = getKey(tileX, tileZ);
+                final var mesh = this.cache.get(key);
+                if (mesh != null) {
+                    this.visibleTiles.add(mesh);
+                } else if (!this.failed.contains(key) && this.pending.add(key)) {
+                    this.submit(tileX, tileZ, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Upload a few generated tiles and evict the least recently used ones
+     */
+    private void uploadResults() {
+        int uploads = 0;
+        TileResult result;
+        while (uploads < MAX_UPLOADS_PER_FRAME && (result = this.results.poll()) != null) {
+            if (result.generation != this.generation) {
+                if (result.data != null) {
+                    result.data.destroy();
+                }
+                continue;
+            }
+            this.pending.remove(result.key);
+            if (result.failed) {
+                this.failed.add(result.key);
+            }
+            if (result.data == null) {
+                continue;
+            }
+            this.cache.put(result.key, new TerrainMesh(result.data));
+            result.data.destroy();
+            uploads++;
+        }
+
+        final var iterator = this.cache.values().iterator();
+        while (this.cache.size() > this.capacity && iterator.hasNext()) {
+            iterator.next().destroy();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Generate a tile on a worker thread
+     * <p>
+     * The tile is skipped if the camera moved away before generation started,
+     * no data is then posted so it is requested again when back in range.
+     * If the generation fails, the failure is logged and the tile is marked as
+     * failed so it is not requested again with the same parameters
+     *
+     * @param tileX The x index of the tile
+     * @param tileZ The z index of the tile
+     * @param key   The key of the tile
+     */
+    private void submit(final int tileX, final int tileZ, final long key) {
+        final int requestGeneration = this.generation;
+        final var tileParameters = this.parameters.copy().width(this.tileSize + 3).depth(this.tileSize + 3).step(1).threads(1)
+                .originX(tileX * this.tileSize - 1).originZ(tileZ * this.tileSize - 1);
+        this.workers.execute(() -> {
+            if (requestGeneration != this.generation || !this.isInRange(tileX, tileZ)) {
+                this.results.add(new TileResult(key, requestGeneration, null, false));
+                return;
+            }
+            final TerrainMeshData data;
+            try {
+                final var map = new HeightMap(tileParameters);
+                try {
+                    data = TerrainMeshBuilder.buildWithApron(map, 1);
+                } finally {
+                    map.destroy();
+                }
+            } catch (final RuntimeException exception) {
+                LOGGER.log(System.Logger.Level.WARNING, "Failed to generate tile " + tileX + ", " + tileZ, exception);
+                this.results.add(new TileResult(key, requestGeneration, null, true));
+                return;
+            }
+            this.results.add(new TileResult(key, requestGeneration, data, false));
+        });
+    }
+
+    private boolean isInRange(final int tileX, final int tileZ) {
+        return Math.abs(tileX - this.centerX) <= this.radius && Math.abs(tileZ - this.centerZ) <= this.radius;
+    }
+
+    private static long getKey(final int tileX, final int tileZ) {
+        return ((long) tileX << 32) | (tileZ & 0xffffffffL);
+    }
+
+    /**
+     * Stop the workers and destroy all tiles
+     */
+    public void destroy() {
+        this.generation++;
+        this.workers.shutdownNow();
+        try {
+            this.workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        TileResult result;
+        while ((result = this.results.poll()) != null) {
+            if (result.data != null) {
+                result.data.destroy();
+            }
+        }
+        this.cache.values().forEach(TerrainMesh::destroy);
+        this.cache.clear();
+    }
+
+    /**
+     * Get the uploaded tiles around the camera as of the last update
+     *
+     * @return The tiles to render
+     */
+    public List<TerrainMesh> getVisibleTiles() {
+        return visibleTiles;
+    }
+
+    public int getCachedTileCount() {
+        return this.cache.size();
+    }
+
+    /**
+     * Result of the generation of a tile
+     */
+    private static class TileResult {
+
+        private final long key;
+        private final int generation;
+        private final TerrainMeshData data;
+        private final boolean failed;
+
+        private TileResult(final long key, final int generation, final TerrainMeshData data, final boolean failed) {
+            this.key = key;
+            this.generation = generation;
+            this.data = data;
+            this.failed = failed;
+        }
+
+    }
+
+}
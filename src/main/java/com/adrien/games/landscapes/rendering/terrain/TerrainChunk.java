@@ -0,0 +1,79 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+/**
+ * Chunk of a {@link TerrainMesh}
+ * <p>
+ * A chunk is a contiguous range of the index buffer of the mesh covering a
+ * square area of the terrain. It stores the axis aligned bounding box of
+ * this area so it can be culled when out of view.
+ *
+ * @author adrien
+ */
+public class TerrainChunk {
+
+    private final int firstIndex;
+    private final int indexCount;
+    private final float minX;
+    private final float minY;
+    private final float minZ;
+    private final float maxX;
+    private final float maxY;
+    private final float maxZ;
+
+    /**
+     * Construct a chunk
+     *
+     * @param firstIndex The position of the first index of the chunk in the index buffer
+     * @param indexCount The number of indices of the chunk
+     * @param minX       The minimum x coordinate of the bounding box
+     * @param minY       The minimum y coordinate of the bounding box
+     * @param minZ       The minimum z coordinate of the bounding box
+     * @param maxX       The maximum x coordinate of the bounding box
+     * @param maxY       The maximum y coordinate of the bounding box
+     * @param maxZ       The maximum z coordinate of the bounding box
+     */
+    public TerrainChunk(final int firstIndex, final int indexCount, final float minX, final float minY, final float minZ,
+                        final float maxX, final float maxY, final float maxZ) {
+        this.firstIndex = firstIndex;
+        this.indexCount = indexCount;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    public int getFirstIndex() {
+        return firstIndex;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public float getMinX() {
+        return minX;
+    }
+
+    public float getMinY() {
+        return minY;
+    }
+
+    public float getMinZ() {
+        return minZ;
+    }
+
+    public float getMaxX() {
+        return maxX;
+    }
+
+    public float getMaxY() {
+        return maxY;
+    }
+
+    public float getMaxZ() {
+        return maxZ;
+    }
+
+}
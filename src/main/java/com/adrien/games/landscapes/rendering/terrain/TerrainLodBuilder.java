@@ -0,0 +1,399 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+import com.adrien.games.landscapes.terrain.HeightMap;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Builds level of detail terrain meshes
+ * <p>
+ * The terrain is covered by a quadtree of {@link TerrainLodNode}s. Leaves
+ * cover {@link #LEAF_SIZE} by {@link #LEAF_SIZE} cells at full resolution and
+ * each level up doubles both the covered area and the sampling stride, so
+ * every node has about the same number of triangles. All nodes share the
+ * same vertex buffer and own a range of the index buffer.
+ * <p>
+ * Adjacent nodes of different levels do not share the same vertices along
+ * their common edge. To hide the resulting cracks, each node is surrounded
+ * by vertical skirts hanging below the terrain surface by more than the
+ * largest geometric error of the tree.
+ * <p>
+ * The resulting mesh data also exposes the leaves as chunks so it can be
+ * rendered at full resolution for comparison. Meshes are always built with
+ * the {@link TerrainVertexFormat#STANDARD} layout since skirt vertices do not
+ * lie on the regular grid the compact layout relies on.
+ *
+ * @author adrien
+ */
+public final class TerrainLodBuilder {
+
+    public static final int LEAF_SIZE = 32;
+
+    private static final int HEIGHT_ELEMENT_OFFSET = 1;
+    private static final int INDICES_PER_CELL = 2 * TerrainMeshBuilder.INDICES_PER_POLYGON;
+    private static final int INDICES_PER_SKIRT_SEGMENT = 4 * TerrainMeshBuilder.INDICES_PER_POLYGON;
+
+    private TerrainLodBuilder() {
+    }
+
+    /**
+     * Build the level of detail mesh of a height map
+     *
+     * @param map     The height map from which to generate the mesh
+     * @param threads The number of threads to use
+     * @return The generated data. Its root node is not null
+     */
+    public static TerrainMeshData build(final HeightMap map, final int threads) {
+        int levels = 0;
+        while ((LEAF_SIZE << levels) < Math.max(map.getWidth() - 1, map.getDepth() - 1)) {
+            levels++;
+        }
+
+        final var nodes = new ArrayList<NodeBuild>();
+        final var root = createNode(map, 0, 0, levels, nodes);
+
+        ParallelRows.forEach(threads, nodes.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                nodes.get(i).measure(map);
+            }
+        });
+
+        // nodes are listed parent first so iterating backwards visits children before their parent
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            final var node = nodes.get(i);
+            for (final var child : node.children) {
+                node.error = Math.max(node.error, child.error);
+            }
+        }
+        final float skirtDepth = root.error + 1f;
+
+        int indexCount = 0;
+        for (final var node : nodes) {
+            node.firstIndex = indexCount;
+            indexCount += node.getIndexCount();
+        }
+
+        final var skirts = new SkirtLayout(map);
+        final var vertexBytes = MemoryUtil.memAlloc((map.getWidth() * map.getDepth() + skirts.getVertexCount())
+                * TerrainVertexFormat.STANDARD.getBytesPerVertex());
+        final var vertexData = vertexBytes.asFloatBuffer();
+        TerrainMeshBuilder.fillVertexData(map, threads, vertexData);
+        skirts.fillVertexData(vertexData, skirtDepth);
+
+        final var indexData = MemoryUtil.memAllocInt(indexCount);
+        ParallelRows.forEach(threads, nodes.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                nodes.get(i).writeIndices(map, skirts, indexData);
+            }
+        });
+
+        final var rootNode = root.toNode(map, skirtDepth);
+        final var leaves = new ArrayList<TerrainChunk>();
+        collectLeaves(rootNode, leaves);
+        final int polygonCount = indexCount / TerrainMeshBuilder.INDICES_PER_POLYGON;
+        return new TerrainMeshData(TerrainVertexFormat.STANDARD, vertexBytes, indexData, polygonCount, leaves, rootNode, map);
+    }
+
+    /**
+     * Recursively create a node and its children
+     *
+     * @param map   The height map
+     * @param fromX The x index of the first sample of the node
+     * @param fromZ The z index of the first sample of the node
+     * @param level The level of the node
+     * @param nodes The list in which to add all created nodes
+     * @return The created node or null if it is out of the map
+     */
+    private static NodeBuild createNode(final HeightMap map, final int fromX, final int fromZ, final int level,
+                                        final List<NodeBuild> nodes) {
+        if (fromX >= map.getWidth() - 1 || fromZ >= map.getDepth() - 1) {
+            return null;
+        }
+        final int size = LEAF_SIZE << level;
+        final var node = new NodeBuild(fromX, fromZ, Math.min(fromX + size, map.getWidth() - 1),
+                Math.min(fromZ + size, map.getDepth() - 1), level);
+        nodes.add(node);
+        if (level > 0) {
+            final int half = size / 2;
+            final int[][] origins = {{fromX, fromZ}, {fromX + half, fromZ}, {fromX, fromZ + half}, {fromX + half, fromZ + half}};
+            for (final var origin : origins) {
+                final var child = createNode(map, origin[0], origin[1], level - 1, nodes);
+                if (child != null) {
+                    node.children.add(child);
+                }
+            }
+        }
+        return node;
+    }
+
+    private static void collectLeaves(final TerrainLodNode node, final List<TerrainChunk> leaves) {
+        if (node.isLeaf()) {
+            leaves.add(node);
+            return;
+        }
+        node.getChildren().forEach(child -> collectLeaves(child, leaves));
+    }
+
+    /**
+     * Node being built
+     */
+    private static class NodeBuild {
+
+        private final int fromX;
+        private final int fromZ;
+        private final int toX;
+        private final int toZ;
+        private final int level;
+        private final int stride;
+        private final List<NodeBuild> children = new ArrayList<>(4);
+        private float error;
+        private float minHeight;
+        private float maxHeight;
+        private int firstIndex;
+
+        private NodeBuild(final int fromX, final int fromZ, final int toX, final int toZ, final int level) {
+            this.fromX = fromX;
+            this.fromZ = fromZ;
+            this.toX = toX;
+            this.toZ = toZ;
+            this.level = level;
+            this.stride = 1 << level;
+        }
+
+        /**
+         * Get the number of samples of the node along an axis
+         * <p>
+         * The last sample is always on the edge of the node even when the
+         * stride does not divide the size of the node
+         */
+        private int getSampleCount(final int from, final int to) {
+            return (to - from + this.stride - 1) / this.stride + 1;
+        }
+
+        private int getSample(final int from, final int to, final int index) {
+            return Math.min(from + index * this.stride, to);
+        }
+
+        private int getIndexCount() {
+            final int cellsX = this.getSampleCount(this.fromX, this.toX) - 1;
+            final int cellsZ = this.getSampleCount(this.fromZ, this.toZ) - 1;
+            return cellsX * cellsZ * INDICES_PER_CELL + 2 * (cellsX + cellsZ) * INDICES_PER_SKIRT_SEGMENT;
+        }
+
+        /**
+         * Compute the height range of the node and the largest distance
+         * between its surface and the full resolution height map
+         *
+         * @param map The height map
+         */
+        private void measure(final HeightMap map) {
+            this.minHeight = Float.POSITIVE_INFINITY;
+            this.maxHeight = Float.NEGATIVE_INFINITY;
+            final int samplesX = this.getSampleCount(this.fromX, this.toX);
+            final int samplesZ = this.getSampleCount(this.fromZ, this.toZ);
+            for (int i = 0; i < samplesX - 1; i++) {
+                final int x0 = this.getSample(this.fromX, this.toX, i);
+                final int x1 = this.getSample(this.fromX, this.toX, i + 1);
+                for (int j = 0; j < samplesZ - 1; j++) {
+                    final int z0 = this.getSample(this.fromZ, this.toZ, j);
+                    final int z1 = this.getSample(this.fromZ, this.toZ, j + 1);
+                    final float h00 = map.getHeight(x0, z0);
+                    final float h10 = map.getHeight(x1, z0);
+                    final float h01 = map.getHeight(x0, z1);
+                    final float h11 = map.getHeight(x1, z1);
+                    for (int x = x0; x <= x1; x++) {
+                        final float u = (float) (x - x0) / (x1 - x0);
+                        for (int z = z0; z <= z1; z++) {
+                            final float v = (float) (z - z0) / (z1 - z0);
+                            // cells are split along the diagonal going from (x1, z0) to (x0, z1)
+                            final float interpolated = u + v <= 1
+                                    ? h00 + u * (h10 - h00) + v * (h01 - h00)
+                                    : h11 + (1 - u) * (h01 - h11) + (1 - v) * (h10 - h11);
+                            final float height = map.getHeight(x, z);
+                            this.error = Math.max(this.error, Math.abs(height - interpolated));
+                            this.minHeight = Math.min(this.minHeight, height);
+                            this.maxHeight = Math.max(this.maxHeight, height);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Write the indices of the node's surface and skirts
+         *
+         * @param map       The height map
+         * @param skirts    The layout of skirt vertices
+         * @param indexData The buffer to write into
+         */
+        private void writeIndices(final HeightMap map, final SkirtLayout skirts, final IntBuffer indexData) {
+            final int depth = map.getDepth();
+            final int samplesX = this.getSampleCount(this.fromX, this.toX);
+            final int samplesZ = this.getSampleCount(this.fromZ, this.toZ);
+            int nextIndex = this.firstIndex;
+            for (int i = 0; i < samplesX - 1; i++) {
+                final int x0 = this.getSample(this.fromX, this.toX, i);
+                final int x1 = this.getSample(this.fromX, this.toX, i + 1);
+                for (int j = 0; j < samplesZ - 1; j++) {
+                    final int z0 = this.getSample(this.fromZ, this.toZ, j);
+                    final int z1 = this.getSample(this.fromZ, this.toZ, j + 1);
+                    final int index0 = x0 * depth + z0;
+                    final int index1 = x1 * depth + z0;
+                    final int index2 = x0 * depth + z1;
+                    final int index3 = x1 * depth + z1;
+                    indexData.put(nextIndex++, index0);
+                    indexData.put(nextIndex++, index2);
+                    indexData.put(nextIndex++, index1);
+                    indexData.put(nextIndex++, index1);
+                    indexData.put(nextIndex++, index2);
+                    indexData.put(nextIndex++, index3);
+                }
+            }
+
+            for (int i = 0; i < samplesX - 1; i++) {
+                final int x0 = this.getSample(this.fromX, this.toX, i);
+                final int x1 = this.getSample(this.fromX, this.toX, i + 1);
+                nextIndex = writeSkirtSegment(indexData, nextIndex, x0 * depth + this.fromZ, x1 * depth + this.fromZ,
+                        skirts.getColumnSkirt(x0, this.fromZ), skirts.getColumnSkirt(x1, this.fromZ));
+                nextIndex = writeSkirtSegment(indexData, nextIndex, x0 * depth + this.toZ, x1 * depth + this.toZ,
+                        skirts.getColumnSkirt(x0, this.toZ), skirts.getColumnSkirt(x1, this.toZ));
+            }
+            for (int j = 0; j < samplesZ - 1; j++) {
+                final int z0 = this.getSample(this.fromZ, this.toZ, j);
+                final int z1 = this.getSample(this.fromZ, this.toZ, j + 1);
+                nextIndex = writeSkirtSegment(indexData, nextIndex, this.fromX * depth + z0, this.fromX * depth + z1,
+                        skirts.getRowSkirt(this.fromX, z0), skirts.getRowSkirt(this.fromX, z1));
+                nextIndex = writeSkirtSegment(indexData, nextIndex, this.toX * depth + z0, this.toX * depth + z1,
+                        skirts.getRowSkirt(this.toX, z0), skirts.getRowSkirt(this.toX, z1));
+            }
+        }
+
+        /**
+         * Write a double sided quad between two surface vertices and their skirt vertices
+         *
+         * @return The position of the next index to write
+         */
+        private static int writeSkirtSegment(final IntBuffer indexData, final int position, final int top0, final int top1,
+                                             final int bottom0, final int bottom1) {
+            int nextIndex = position;
+            indexData.put(nextIndex++, top0);
+            indexData.put(nextIndex++, top1);
+            indexData.put(nextIndex++, bottom1);
+            indexData.put(nextIndex++, top0);
+            indexData.put(nextIndex++, bottom1);
+            indexData.put(nextIndex++, bottom0);
+            indexData.put(nextIndex++, top0);
+            indexData.put(nextIndex++, bottom1);
+            indexData.put(nextIndex++, top1);
+            indexData.put(nextIndex++, top0);
+            indexData.put(nextIndex++, bottom0);
+            indexData.put(nextIndex++, bottom1);
+            return nextIndex;
+        }
+
+        /**
+         * Create the immutable node and its descendants
+         *
+         * @param map        The height map
+         * @param skirtDepth The depth of the skirts
+         * @return The created node
+         */
+        private TerrainLodNode toNode(final HeightMap map, final float skirtDepth) {
+            final int step = map.getStep();
+            final int originX = map.getOriginX();
+            final int originZ = map.getOriginZ();
+            final var childNodes = this.children.stream().map(child -> child.toNode(map, skirtDepth)).collect(Collectors.toList());
+            return new TerrainLodNode(this.firstIndex, this.getIndexCount(), originX + this.fromX * step, this.minHeight - skirtDepth,
+                    originZ + this.fromZ * step, originX + this.toX * step, this.maxHeight, originZ + this.toZ * step, this.level,
+                    this.error, childNodes);
+        }
+
+    }
+
+    /**
+     * Layout of the skirt vertices
+     * <p>
+     * Node edges always lie on rows and columns of samples whose index is a
+     * multiple of {@link #LEAF_SIZE} or which are the last ones of the map.
+     * Skirt vertices are duplicated from these rows and columns and are stored
+     * after the surface vertices: rows first, then columns
+     */
+    private static class SkirtLayout {
+
+        private final int width;
+        private final int depth;
+        private final int rowCount;
+        private final int columnCount;
+
+        private SkirtLayout(final HeightMap map) {
+            this.width = map.getWidth();
+            this.depth = map.getDepth();
+            this.rowCount = getLineCount(this.width);
+            this.columnCount = getLineCount(this.depth);
+        }
+
+        private static int getLineCount(final int vertexCount) {
+            final int last = vertexCount - 1;
+            return last / LEAF_SIZE + (last % LEAF_SIZE == 0 ? 1 : 2);
+        }
+
+        private static int getLine(final int index, final int vertexCount) {
+            final int last = vertexCount - 1;
+            return index == last && last % LEAF_SIZE != 0 ? last / LEAF_SIZE + 1 : index / LEAF_SIZE;
+        }
+
+        private static int getIndex(final int line, final int vertexCount) {
+            return Math.min(line * LEAF_SIZE, vertexCount - 1);
+        }
+
+        private int getVertexCount() {
+            return this.rowCount * this.depth + this.columnCount * this.width;
+        }
+
+        private int getRowSkirt(final int x, final int z) {
+            return this.width * this.depth + getLine(x, this.width) * this.depth + z;
+        }
+
+        private int getColumnSkirt(final int x, final int z) {
+            return this.width * this.depth + this.rowCount * this.depth + getLine(z, this.depth) * this.width + x;
+        }
+
+        /**
+         * Copy the surface vertices of skirt rows and columns and lower them
+         *
+         * @param vertexData The vertex buffer whose surface vertices are already written
+         * @param skirtDepth The distance by which to lower skirt vertices
+         */
+        private void fillVertexData(final FloatBuffer vertexData, final float skirtDepth) {
+            for (int row = 0; row < this.rowCount; row++) {
+                final int x = getIndex(row, this.width);
+                for (int z = 0; z < this.depth; z++) {
+                    this.copyVertex(vertexData, x * this.depth + z, this.getRowSkirt(x, z), skirtDepth);
+                }
+            }
+            for (int column = 0; column < this.columnCount; column++) {
+                final int z = getIndex(column, this.depth);
+                for (int x = 0; x < this.width; x++) {
+                    this.copyVertex(vertexData, x * this.depth + z, this.getColumnSkirt(x, z), skirtDepth);
+                }
+            }
+        }
+
+        private void copyVertex(final FloatBuffer vertexData, final int source, final int destination, final float skirtDepth) {
+            final int sourceOffset = source * TerrainMeshBuilder.ELEMENTS_PER_VERTEX;
+            final int destinationOffset = destination * TerrainMeshBuilder.ELEMENTS_PER_VERTEX;
+            for (int i = 0; i < TerrainMeshBuilder.ELEMENTS_PER_VERTEX; i++) {
+                vertexData.put(destinationOffset + i, vertexData.get(sourceOffset + i));
+            }
+            vertexData.put(destinationOffset + HEIGHT_ELEMENT_OFFSET, vertexData.get(sourceOffset + HEIGHT_ELEMENT_OFFSET) - skirtDepth);
+        }
+
+    }
+
+}
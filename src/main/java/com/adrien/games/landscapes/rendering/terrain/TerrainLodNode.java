@@ -0,0 +1,62 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import java.util.List;
+
+/**
+ * Node of the level of detail quadtree of a terrain
+ * <p>
+ * A node is a chunk of the mesh covering a square area of the terrain with
+ * a given sampling stride. The stride doubles at each level of the tree so
+ * the leaves use every sample of the height map. The geometric error is the
+ * largest vertical distance between the node's surface and the full
+ * resolution terrain (or any of its descendants' errors).
+ *
+ * @author adrien
+ */
+public class TerrainLodNode extends TerrainChunk {
+
+    private final int level;
+    private final float geometricError;
+    private final List<TerrainLodNode> children;
+
+    /**
+     * Construct a node
+     *
+     * @param firstIndex     The position of the first index of the node in the index buffer
+     * @param indexCount     The number of indices of the node
+     * @param minX           The minimum x coordinate of the bounding box
+     * @param minY           The minimum y coordinate of the bounding box
+     * @param minZ           The minimum z coordinate of the bounding box
+     * @param maxX           The maximum x coordinate of the bounding box
+     * @param maxY           The maximum y coordinate of the bounding box
+     * @param maxZ           The maximum z coordinate of the bounding box
+     * @param level          The level of the node, 0 being the leaves
+     * @param geometricError The geometric error of the node in world units
+     * @param children       The children of the node. Empty for leaves
+     */
+    public TerrainLodNode(final int firstIndex, final int indexCount, final float minX, final float minY, final float minZ,
+                          final float maxX, final float maxY, final float maxZ, final int level, final float geometricError,
+                          final List<TerrainLodNode> children) {
+        super(firstIndex, indexCount, minX, minY, minZ, maxX, maxY, maxZ);
+        this.level = level;
+        this.geometricError = geometricError;
+        this.children = children;
+    }
+
+    public boolean isLeaf() {
+        return this.children.isEmpty();
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public float getGeometricError() {
+        return geometricError;
+    }
+
+    public List<TerrainLodNode> getChildren() {
+        return children;
+    }
+
+}
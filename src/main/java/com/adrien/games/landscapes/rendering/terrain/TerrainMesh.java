@@ -2,43 +2,59 @@ package com.adrien.games.landscapes.rendering.terrain;
 
 
 import com.adrien.games.landscapes.terrain.HeightMap;
-import com.adrienben.games.bagl.core.Color;
+import com.adrienben.games.bagl.opengl.DataType;
 import com.adrienben.games.bagl.opengl.buffer.BufferUsage;
 import com.adrienben.games.bagl.opengl.vertex.*;
-import org.joml.Vector3f;
-import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.opengl.GL15;
 
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 /**
  * 3D mesh of a terrain
  * <p>
  * The mesh is generated from a {@link HeightMap}. It generates one vertex per
- * point in the height map
+ * point in the height map. The CPU side data is built by {@link TerrainMeshBuilder}
+ * so it can be prepared off the rendering thread and then uploaded by
+ * {@link #TerrainMesh(TerrainMeshData)}
+ * <p>
+ * The index buffer is split into {@link TerrainChunk}s which can be drawn separately.
+ * Meshes built by {@link TerrainLodBuilder} also hold a level of detail quadtree
+ * <p>
+ * Meshes using the {@link TerrainVertexFormat#COMPACT} layout keep the layout
+ * of the grid they were built from so the renderer can rebuild vertex positions
+ * <p>
+ * A mesh can be updated in place with data sharing its layout. The index buffer
+ * is then kept and only vertices are uploaded again, either all of them by
+ * {@link #update(TerrainMeshData)} or those of a rectangle of the grid by
+ * {@link #updateRegion(TerrainMeshData, int, int, int, int)}
  *
  * @author adrien
  */
 public class TerrainMesh {
 
-    private static final int ELEMENTS_PER_VERTEX = 9;
-    private static final int ELEMENTS_PER_POSITION = 3;
-    private static final int ELEMENTS_PER_NORMAL = 3;
-    private static final int ELEMENTS_PER_COLOR = 3;
     private static final int POSITION_ELEMENTS_INDEX = 0;
     private static final int NORMAL_ELEMENTS_INDEX = 1;
-    private static final int COLOR_ELEMENTS_INDEX = 2;
-    public static final int INDICES_PER_POLYGON = 3;
-
-    private static final Color SAND = new Color(0.93f, 0.79f, 0.69f);
-    private static final Color GRASS = new Color(0.2f, 0.5f, 0.0f);
-    private static final Color DIRT = new Color(0.61f, 0.46f, 0.32f);
-    private static final Color SNOW = new Color(1.0f, 1.0f, 1.0f);
+    private static final int COMPACT_HEIGHT_BYTES = 2;
+    private static final int COMPACT_NORMAL_BYTES = 2;
+    public static final int INDICES_PER_POLYGON = TerrainMeshBuilder.INDICES_PER_POLYGON;
 
     private final VertexArray vArray;
     private final VertexBuffer vBuffer;
     private final IndexBuffer iBuffer;
     private final int polygonCount;
+    private final TerrainVertexFormat format;
+    private final int vertexBytes;
+    private final int indexCount;
+    private final int width;
+    private final int depth;
+    private final boolean adaptive;
+    private List<TerrainChunk> chunks;
+    private TerrainLodNode lodRoot;
+    private int step;
+    private int originX;
+    private int originZ;
+    private int scale;
 
     /**
      * Generate a new mesh
@@ -46,169 +62,157 @@ public class TerrainMesh {
      * @param map The height map from which to generate the mesh
      */
     public TerrainMesh(final HeightMap map) {
-        this.polygonCount = (map.getWidth() - 1) * (map.getDepth() - 1) * 2;
+        this(TerrainMeshBuilder.build(map, 1), true);
+    }
+
+    /**
+     * Upload a mesh from already built data
+     * <p>
+     * The data is not released by the mesh
+     *
+     * @param data The data to upload
+     */
+    public TerrainMesh(final TerrainMeshData data) {
+        this(data, false);
+    }
 
-        final var vertexData = this.generateVertexData(map);
-        this.vBuffer = new VertexBuffer(vertexData, VertexBufferParams.builder()
-                .element(new VertexElement(POSITION_ELEMENTS_INDEX, ELEMENTS_PER_POSITION))
-                .element(new VertexElement(NORMAL_ELEMENTS_INDEX, ELEMENTS_PER_NORMAL))
-                .element(new VertexElement(COLOR_ELEMENTS_INDEX, ELEMENTS_PER_COLOR)).build());
-        MemoryUtil.memFree(vertexData);
+    private TerrainMesh(final TerrainMeshData data, final boolean ownsData) {
+        this.polygonCount = data.getPolygonCount();
+        this.chunks = data.getChunks();
+        this.lodRoot = data.getLodRoot();
+        this.format = data.getFormat();
+        this.vertexBytes = data.getVertices().remaining();
+        this.indexCount = data.getIndices().remaining();
+        this.width = data.getWidth();
+        this.depth = data.getDepth();
+        this.adaptive = data.isAdaptive();
+        this.step = data.getStep();
+        this.originX = data.getOriginX();
+        this.originZ = data.getOriginZ();
+        this.scale = data.getScale();
 
         this.vArray = new VertexArray();
-        this.vArray.bind();
-        this.vArray.attachVertexBuffer(this.vBuffer);
-        this.vArray.unbind();
+        if (this.format == TerrainVertexFormat.COMPACT) {
+            // compact attributes are raw unsigned bytes decoded by the shader, see UnsignedByteAttributes
+            this.vBuffer = new VertexBuffer(data.getVertices(), VertexBufferParams.builder()
+                    .dataType(DataType.UNSIGNED_BYTE)
+                    .element(new VertexElement(POSITION_ELEMENTS_INDEX, COMPACT_HEIGHT_BYTES))
+                    .element(new VertexElement(NORMAL_ELEMENTS_INDEX, COMPACT_NORMAL_BYTES)).build());
+            UnsignedByteAttributes.attach(this.vArray, this.vBuffer, COMPACT_HEIGHT_BYTES, COMPACT_NORMAL_BYTES);
+        } else {
+            this.vBuffer = new VertexBuffer(data.getVertices().asFloatBuffer(), VertexBufferParams.builder()
+                    .element(new VertexElement(POSITION_ELEMENTS_INDEX, TerrainMeshBuilder.ELEMENTS_PER_POSITION))
+                    .element(new VertexElement(NORMAL_ELEMENTS_INDEX, TerrainMeshBuilder.ELEMENTS_PER_NORMAL)).build());
+            this.vArray.bind();
+            this.vArray.attachVertexBuffer(this.vBuffer);
+            this.vArray.unbind();
+        }
 
-        final var indexData = this.generateIndexData(map);
-        this.iBuffer = new IndexBuffer(indexData, BufferUsage.STATIC_DRAW);
-        MemoryUtil.memFree(indexData);
+        this.iBuffer = new IndexBuffer(data.getIndices(), BufferUsage.STATIC_DRAW);
+
+        if (ownsData) {
+            data.destroy();
+        }
     }
 
     /**
-     * Generate the float buffer containing vertex data to send to the gpu
+     * Check whether data can be uploaded in place into this mesh
+     * <p>
+     * It is the case when the data was built by the same builder, with the
+     * same vertex format, from a map of the same dimensions. Adaptive meshes
+     * are never compatible since their indices depend on the heights and
+     * in place updates keep the index buffer
      *
-     * @param map The height map containing terrain data
-     * @return The generated buffer
+     * @param data The data to check
+     * @return true if the data has the same layout as the mesh
      */
-    private FloatBuffer generateVertexData(final HeightMap map) {
-        final int vertexCount = map.getWidth() * map.getDepth();
-        final var vertexData = MemoryUtil.memAllocFloat(vertexCount * ELEMENTS_PER_VERTEX);
-        for (int i = 0; i < vertexCount; i++) {
-            final int x = i / map.getDepth();
-            final int z = i % map.getDepth();
-            final float height = map.getHeight(x, z);
-            vertexData.put(i * ELEMENTS_PER_VERTEX, x);
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 1, height);
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 2, z);
-
-            final var normal = this.computeVertexNormal(map, x, z);
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 3, normal.x());
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 4, normal.y());
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 5, normal.z());
-
-            final var color = this.computeColor(height, map.getScale());
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 6, color.getRed());
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 7, color.getGreen());
-            vertexData.put(i * ELEMENTS_PER_VERTEX + 8, color.getBlue());
-        }
-        return vertexData;
+    public boolean isCompatible(final TerrainMeshData data) {
+        return !data.isAdaptive() && !this.adaptive
+                && data.getFormat() == this.format
+                && data.getVertices().remaining() == this.vertexBytes
+                && data.getIndices().remaining() == this.indexCount
+                && data.getDepth() == this.depth
+                && (data.getLodRoot() == null) == (this.lodRoot == null);
     }
 
     /**
-     * Generate vertex index data
+     * Upload new vertex data into the mesh
+     * <p>
+     * The storage of the vertex buffer is orphaned before the upload so
+     * the driver does not have to wait for pending draws using the previous
+     * vertices. The index buffer is kept as is. The data is not released by the mesh
      *
-     * @param map The height map containing terrain data
-     * @return he generated buffer
+     * @param data The data to upload
+     * @return false if the data is not compatible with the mesh, in which case nothing is uploaded
      */
-    private IntBuffer generateIndexData(final HeightMap map) {
-        final var indexData = MemoryUtil.memAllocInt(this.polygonCount * INDICES_PER_POLYGON);
-        int nextIndex = 0;
-        for (int x = 0; x < map.getWidth() - 1; x++) {
-            for (int z = 0; z < map.getDepth() - 1; z++) {
-                final int index0 = x * map.getDepth() + z;
-                final int index1 = (x + 1) * map.getDepth() + z;
-                final int index2 = x * map.getDepth() + z + 1;
-                final int index3 = (x + 1) * map.getDepth() + z + 1;
-                indexData.put(nextIndex++, index0);
-                indexData.put(nextIndex++, index2);
-                indexData.put(nextIndex++, index1);
-                indexData.put(nextIndex++, index1);
-                indexData.put(nextIndex++, index2);
-                indexData.put(nextIndex++, index3);
-            }
+    public boolean update(final TerrainMeshData data) {
+        if (!this.isCompatible(data)) {
+            return false;
         }
-        return indexData;
+        this.vBuffer.bind();
+        GL15.glBufferData(GL15.GL_ARRAY_BUFFER, this.vertexBytes, GL15.GL_STATIC_DRAW);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, data.getVertices());
+        this.vBuffer.unbind();
+        this.updateLayout(data);
+        return true;
     }
 
     /**
-     * Compute the normal of a vertex by averaging the normals of the surrounding faces
+     * Upload the vertices of a rectangle of the grid
+     * <p>
+     * Only the vertices whose x index is in [fromX; toX[ and z index in [fromZ; toZ[
+     * are uploaded. Since vertices are laid out row by row, each row of the
+     * rectangle is uploaded as a contiguous range, or the whole rectangle at
+     * once when it spans complete rows. Chunk bounds are taken from the data.
+     * Level of detail meshes cannot be partially updated since their skirts
+     * would not follow, nor adaptive meshes since their indices would not.
+     * The data is not released by the mesh
      *
-     * @param map The height map
-     * @param x   The x index of the vertex
-     * @param z   The z index of the vertex
-     * @return The averaged normal of the vertex
+     * @param data  The data containing the vertices of the whole grid
+     * @param fromX The first x index of the rectangle
+     * @param fromZ The first z index of the rectangle
+     * @param toX   The x index after the last row of the rectangle
+     * @param toZ   The z index after the last column of the rectangle
+     * @throws IllegalStateException    If the mesh has a level of detail quadtree or is adaptive
+     * @throws IllegalArgumentException If the data is not compatible with the mesh or the rectangle is not within the grid
      */
-    private Vector3f computeVertexNormal(final HeightMap map, final int x, final int z) {
-        final var normal = new Vector3f();
-        if (x > 0 && z > 0) {
-            normal.add(this.computeFaceNormal(map, x, z, -1));
+    public void updateRegion(final TerrainMeshData data, final int fromX, final int fromZ, final int toX, final int toZ) {
+        if (this.lodRoot != null || this.adaptive) {
+            throw new IllegalStateException("Level of detail and adaptive meshes cannot be partially updated");
         }
-        if (x < map.getWidth() - 1 && z > 0) {
-            normal.add(this.computeFaceNormal(map, x, z - 1, 1));
-            normal.add(this.computeFaceNormal(map, x + 1, z, -1));
+        if (!this.isCompatible(data)) {
+            throw new IllegalArgumentException("Mesh data is not compatible with the mesh to update");
         }
-        if (x < map.getWidth() - 1 && x < map.getDepth() - 1) {
-            normal.add(this.computeFaceNormal(map, x, z, 1));
+        if (fromX < 0 || fromX >= toX || toX > this.width || fromZ < 0 || fromZ >= toZ || toZ > this.depth) {
+            throw new IllegalArgumentException("Region [" + fromX + "; " + toX + "[x[" + fromZ + "; " + toZ
+                    + "[ is not a rectangle of the " + this.width + "x" + this.depth + " grid");
         }
-        if (x > 0 && z < map.getDepth() - 1) {
-            normal.add(this.computeFaceNormal(map, x, z + 1, -1));
-            normal.add(this.computeFaceNormal(map, x - 1, z, 1));
+        final int bytesPerVertex = this.format.getBytesPerVertex();
+        final var vertices = data.getVertices().duplicate();
+        this.vBuffer.bind();
+        if (fromZ == 0 && toZ == this.depth) {
+            this.uploadVertices(vertices, fromX * this.depth * bytesPerVertex, toX * this.depth * bytesPerVertex);
+        } else {
+            for (int x = fromX; x < toX; x++) {
+                this.uploadVertices(vertices, (x * this.depth + fromZ) * bytesPerVertex, (x * this.depth + toZ) * bytesPerVertex);
+            }
         }
-        return normal.normalize();
+        this.vBuffer.unbind();
+        this.updateLayout(data);
     }
 
-    /**
-     * Compute the orientation of a face from the elevation delta with its neighbors
-     *
-     * @param map    The height map
-     * @param x      The x index of the vertex
-     * @param z      The y index of the vertex
-     * @param offset Amount to offset the current vertex index to create the face
-     * @return The computed normal vector
-     */
-    private Vector3f computeFaceNormal(final HeightMap map, final int x, final int z, final int offset) {
-        final float height = map.getHeight(x, z);
-        final int adjacentX = x + offset;
-        final int adjacentZ = z + offset;
-        final float adjacentHeightX = map.getHeight(adjacentX, z);
-        final float adjacentHeightZ = map.getHeight(x, adjacentZ);
-
-        final var xVector = new Vector3f(offset, adjacentHeightX - height, 0f).normalize();
-        final var zVector = new Vector3f(0f, adjacentHeightZ - height, offset).normalize();
-        return new Vector3f(zVector).cross(xVector).normalize();
+    private void uploadVertices(final ByteBuffer vertices, final int from, final int to) {
+        vertices.limit(to).position(from);
+        GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, from, vertices);
     }
 
-    /**
-     * Generate the color of a vertex from its elevate and its orientation
-     *
-     * @param height The height of the vertex
-     * @return The computed color
-     */
-    private Color computeColor(final float height, final int scale) {
-        final float sandLimit = 0.35f * scale;
-        final float grassLimit = 0.44f * scale;
-        final float dirtLimit = 0.65f * scale;
-        final float transitionHeight = 0.08f * scale;
-
-        if (height < sandLimit) {
-            return SAND;
-        }
-        if (height < sandLimit + transitionHeight) {
-            final float blendFactor = (height - sandLimit) / transitionHeight;
-            final var blended = new Color(0f, 0f, 0f);
-            Color.blend(GRASS, SAND, blendFactor, blended);
-            return blended;
-        }
-        if (height < grassLimit) {
-            return GRASS;
-        }
-        if (height < grassLimit + transitionHeight) {
-            final float blendFactor = (height - grassLimit) / transitionHeight;
-            final var blended = new Color(0f, 0f, 0f);
-            Color.blend(DIRT, GRASS, blendFactor, blended);
-            return blended;
-        }
-        if (height < dirtLimit) {
-            return DIRT;
-        }
-        if (height < dirtLimit + transitionHeight) {
-            final float blendFactor = (height - dirtLimit) / transitionHeight;
-            final var blended = new Color(0f, 0f, 0f);
-            Color.blend(SNOW, DIRT, blendFactor, blended);
-            return blended;
-        }
-        return SNOW;
+    private void updateLayout(final TerrainMeshData data) {
+        this.chunks = data.getChunks();
+        this.lodRoot = data.getLodRoot();
+        this.step = data.getStep();
+        this.originX = data.getOriginX();
+        this.originZ = data.getOriginZ();
+        this.scale = data.getScale();
     }
 
     /**
@@ -242,4 +246,40 @@ public class TerrainMesh {
         return polygonCount;
     }
 
+    public List<TerrainChunk> getChunks() {
+        return chunks;
+    }
+
+    public TerrainLodNode getLodRoot() {
+        return lodRoot;
+    }
+
+    public TerrainVertexFormat getFormat() {
+        return format;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
 }
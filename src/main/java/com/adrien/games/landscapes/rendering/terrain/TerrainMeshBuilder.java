@@ -0,0 +1,350 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+import com.adrien.games.landscapes.terrain.HeightMap;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the CPU side data of {@link TerrainMesh}
+ * <p>
+ * This class does not require an OpenGL context so meshes can be built from
+ * worker threads. Rows of the height map are processed concurrently when more
+ * than one thread is requested. Vertex normals are computed from the slopes
+ * of the terrain, estimated by central differences of the heights, so no
+ * object is allocated per vertex.
+ * <p>
+ * Indices are grouped by chunks of {@link #CHUNK_SIZE} by {@link #CHUNK_SIZE}
+ * cells so each chunk can be drawn or culled independently.
+ * <p>
+ * Vertices are written either in the {@link TerrainVertexFormat#STANDARD} or
+ * the {@link TerrainVertexFormat#COMPACT} layout. The compact layout only
+ * stores what cannot be derived from the grid: the height quantized on 16 bits
+ * and an octahedral encoded normal on 2 bytes. Vertices hold no color, the
+ * terrain is colored by the renderer from a {@link BiomePalette}.
+ *
+ * @author adrien
+ */
+public final class TerrainMeshBuilder {
+
+    public static final int ELEMENTS_PER_VERTEX = 6;
+    public static final int ELEMENTS_PER_POSITION = 3;
+    public static final int ELEMENTS_PER_NORMAL = 3;
+    public static final int INDICES_PER_POLYGON = 3;
+    public static final int CHUNK_SIZE = 64;
+    private static final int INDICES_PER_CELL = 2 * INDICES_PER_POLYGON;
+    private static final int MAX_QUANTIZED_HEIGHT = 0xFFFF;
+    private static final int MAX_QUANTIZED_BYTE = 0xFF;
+
+    private TerrainMeshBuilder() {
+    }
+
+    /**
+     * Build the vertex and index data of a height map using the standard vertex format
+     *
+     * @param map     The height map from which to generate the mesh
+     * @param threads The number of threads to use
+     * @return The generated data
+     */
+    public static TerrainMeshData build(final HeightMap map, final int threads) {
+        return build(map, threads, TerrainVertexFormat.STANDARD);
+    }
+
+    /**
+     * Build the vertex and index data of a height map
+     *
+     * @param map     The height map from which to generate the mesh
+     * @param threads The number of threads to use
+     * @param format  The layout of the vertices
+     * @return The generated data
+     */
+    public static TerrainMeshData build(final HeightMap map, final int threads, final TerrainVertexFormat format) {
+        final int polygonCount = (map.getWidth() - 1) * (map.getDepth() - 1) * 2;
+        final var vertexData = generateVertexData(map, threads, format);
+        final var indexData = generateIndexData(map, threads);
+        final var chunks = generateChunks(map, threads);
+        return new TerrainMeshData(format, vertexData, indexData, polygonCount, chunks, null, map);
+    }
+
+    /**
+     * Build the mesh of a height map surrounded by an apron, using the standard vertex format
+     * <p>
+     * The outermost samples of the map are not meshed, they are only used to
+     * compute the normals of the border vertices by central differences.
+     * Neighbouring maps sharing their edge then get the same normals along it
+     * and are lit without seams
+     *
+     * @param map     The height map, including a one sample apron on each side
+     * @param threads The number of threads to use
+     * @return The generated data, covering the map without its apron
+     */
+    public static TerrainMeshData buildWithApron(final HeightMap map, final int threads) {
+        final var inner = map.copy(1, 1, map.getWidth() - 2, map.getDepth() - 2);
+        try {
+            final int polygonCount = (inner.getWidth() - 1) * (inner.getDepth() - 1) * 2;
+            final var vertexData = MemoryUtil.memAlloc(inner.getWidth() * inner.getDepth()
+                    * TerrainVertexFormat.STANDARD.getBytesPerVertex());
+            fillVertexData(map, 1, threads, vertexData.asFloatBuffer());
+            final var indexData = generateIndexData(inner, threads);
+            final var chunks = generateChunks(inner, threads);
+            return new TerrainMeshData(TerrainVertexFormat.STANDARD, vertexData, indexData, polygonCount, chunks, null, inner);
+        } finally {
+            inner.destroy();
+        }
+    }
+
+    /**
+     * Generate the buffer containing vertex data to send to the gpu
+     *
+     * @param map     The height map containing terrain data
+     * @param threads The number of threads to use
+     * @param format  The layout of the vertices
+     * @return The generated buffer
+     */
+    public static ByteBuffer generateVertexData(final HeightMap map, final int threads, final TerrainVertexFormat format) {
+        final var vertexData = MemoryUtil.memAlloc(map.getWidth() * map.getDepth() * format.getBytesPerVertex());
+        if (format == TerrainVertexFormat.COMPACT) {
+            fillCompactVertexData(map, threads, vertexData);
+        } else {
+            fillVertexData(map, threads, vertexData.asFloatBuffer());
+        }
+        return vertexData;
+    }
+
+    /**
+     * Write the data of one vertex per sample of the height map at the beginning of a buffer
+     *
+     * @param map        The height map containing terrain data
+     * @param threads    The number of threads to use
+     * @param vertexData The buffer to fill
+     */
+    static void fillVertexData(final HeightMap map, final int threads, final FloatBuffer vertexData) {
+        fillVertexData(map, 0, threads, vertexData);
+    }
+
+    /**
+     * Write the data of one vertex per sample of the height map, except for an apron around it, at the beginning of a buffer
+     *
+     * @param map        The height map containing terrain data
+     * @param apron      The number of samples on each side of the map for which no vertex is written
+     * @param threads    The number of threads to use
+     * @param vertexData The buffer to fill
+     */
+    private static void fillVertexData(final HeightMap map, final int apron, final int threads, final FloatBuffer vertexData) {
+        final int depth = map.getDepth() - 2 * apron;
+        ParallelRows.forEach(threads, map.getWidth() - 2 * apron, (from, to) -> {
+            for (int i = from * depth; i < to * depth; i++) {
+                final int x = i / depth + apron;
+                final int z = i % depth + apron;
+                final float height = map.getHeight(x, z);
+                vertexData.put(i * ELEMENTS_PER_VERTEX, map.getOriginX() + x * map.getStep());
+                vertexData.put(i * ELEMENTS_PER_VERTEX + 1, height);
+                vertexData.put(i * ELEMENTS_PER_VERTEX + 2, map.getOriginZ() + z * map.getStep());
+
+                final float slopeX = computeSlopeX(map, x, z);
+                final float slopeZ = computeSlopeZ(map, x, z);
+                final float inverseLength = 1f / (float) Math.sqrt(slopeX * slopeX + 1f + slopeZ * slopeZ);
+                vertexData.put(i * ELEMENTS_PER_VERTEX + 3, -slopeX * inverseLength);
+                vertexData.put(i * ELEMENTS_PER_VERTEX + 4, inverseLength);
+                vertexData.put(i * ELEMENTS_PER_VERTEX + 5, -slopeZ * inverseLength);
+            }
+        });
+    }
+
+    /**
+     * Write the data of one compact vertex per sample of the height map at the beginning of a buffer
+     *
+     * @param map        The height map containing terrain data
+     * @param threads    The number of threads to use
+     * @param vertexData The buffer to fill
+     */
+    static void fillCompactVertexData(final HeightMap map, final int threads, final ByteBuffer vertexData) {
+        final int depth = map.getDepth();
+        final int bytesPerVertex = TerrainVertexFormat.COMPACT.getBytesPerVertex();
+        ParallelRows.forEach(threads, map.getWidth(), (from, to) -> {
+            for (int i = from * depth; i < to * depth; i++) {
+                final int x = i / depth;
+                final int z = i % depth;
+                final int offset = i * bytesPerVertex;
+                final float height = map.getHeight(x, z);
+                final int quantizedHeight = quantize(height / map.getScale(), MAX_QUANTIZED_HEIGHT);
+                vertexData.put(offset, (byte) (quantizedHeight >> 8));
+                vertexData.put(offset + 1, (byte) quantizedHeight);
+
+                final float slopeX = computeSlopeX(map, x, z);
+                final float slopeZ = computeSlopeZ(map, x, z);
+                // The normal of a height field always points up so it lies on the upper half of the octahedron
+                final float l1Norm = Math.abs(slopeX) + 1f + Math.abs(slopeZ);
+                final float octX = -slopeX / l1Norm;
+                final float octZ = -slopeZ / l1Norm;
+                vertexData.put(offset + 2, (byte) quantize(octX * 0.5f + 0.5f, MAX_QUANTIZED_BYTE));
+                vertexData.put(offset + 3, (byte) quantize(octZ * 0.5f + 0.5f, MAX_QUANTIZED_BYTE));
+            }
+        });
+    }
+
+    /**
+     * Map a value in [0, 1] to an integer in [0, max]
+     *
+     * @param value The value to quantize, clamped to [0, 1]
+     * @param max   The value to which 1 is mapped
+     * @return The quantized value
+     */
+    private static int quantize(final float value, final int max) {
+        return Math.round(Math.max(0f, Math.min(1f, value)) * max);
+    }
+
+    /**
+     * Generate vertex index data
+     * <p>
+     * Indices are laid out chunk by chunk as described by {@link #generateChunks(HeightMap, int)}
+     *
+     * @param map     The height map containing terrain data
+     * @param threads The number of threads to use
+     * @return The generated buffer
+     */
+    public static IntBuffer generateIndexData(final HeightMap map, final int threads) {
+        final int cellsPerRow = map.getDepth() - 1;
+        final var indexData = MemoryUtil.memAllocInt((map.getWidth() - 1) * cellsPerRow * INDICES_PER_CELL);
+        ParallelRows.forEach(threads, getChunkCount(map.getWidth()), (from, to) -> {
+            for (int chunkX = from; chunkX < to; chunkX++) {
+                int nextIndex = getChunkRowOffset(map, chunkX);
+                final int fromX = chunkX * CHUNK_SIZE;
+                final int toX = Math.min(fromX + CHUNK_SIZE, map.getWidth() - 1);
+                for (int fromZ = 0; fromZ < cellsPerRow; fromZ += CHUNK_SIZE) {
+                    final int toZ = Math.min(fromZ + CHUNK_SIZE, cellsPerRow);
+                    for (int x = fromX; x < toX; x++) {
+                        for (int z = fromZ; z < toZ; z++) {
+                            final int index0 = x * map.getDepth() + z;
+                            final int index1 = (x + 1) * map.getDepth() + z;
+                            final int index2 = x * map.getDepth() + z + 1;
+                            final int index3 = (x + 1) * map.getDepth() + z + 1;
+                            indexData.put(nextIndex++, index0);
+                            indexData.put(nextIndex++, index2);
+                            indexData.put(nextIndex++, index1);
+                            indexData.put(nextIndex++, index1);
+                            indexData.put(nextIndex++, index2);
+                            indexData.put(nextIndex++, index3);
+                        }
+                    }
+                }
+            }
+        });
+        return indexData;
+    }
+
+    /**
+     * Generate the chunks of the mesh
+     * <p>
+     * Chunks are ordered along the z axis first then along the x axis. The
+     * bounding box of each chunk spans the minimum and maximum heights of
+     * its vertices
+     *
+     * @param map     The height map containing terrain data
+     * @param threads The number of threads to use
+     * @return The chunks of the mesh
+     */
+    public static List<TerrainChunk> generateChunks(final HeightMap map, final int threads) {
+        final int cellsPerRow = map.getDepth() - 1;
+        final int chunksPerRow = getChunkCount(map.getDepth());
+        final var chunks = new TerrainChunk[getChunkCount(map.getWidth()) * chunksPerRow];
+        final int step = map.getStep();
+        final int originX = map.getOriginX();
+        final int originZ = map.getOriginZ();
+        ParallelRows.forEach(threads, getChunkCount(map.getWidth()), (from, to) -> {
+            for (int chunkX = from; chunkX < to; chunkX++) {
+                int nextIndex = getChunkRowOffset(map, chunkX);
+                final int fromX = chunkX * CHUNK_SIZE;
+                final int toX = Math.min(fromX + CHUNK_SIZE, map.getWidth() - 1);
+                for (int chunkZ = 0; chunkZ < chunksPerRow; chunkZ++) {
+                    final int fromZ = chunkZ * CHUNK_SIZE;
+                    final int toZ = Math.min(fromZ + CHUNK_SIZE, cellsPerRow);
+                    float minHeight = Float.POSITIVE_INFINITY;
+                    float maxHeight = Float.NEGATIVE_INFINITY;
+                    for (int x = fromX; x <= toX; x++) {
+                        for (int z = fromZ; z <= toZ; z++) {
+                            final float height = map.getHeight(x, z);
+                            minHeight = Math.min(minHeight, height);
+                            maxHeight = Math.max(maxHeight, height);
+                        }
+                    }
+                    final int indexCount = (toX - fromX) * (toZ - fromZ) * INDICES_PER_CELL;
+                    chunks[chunkX * chunksPerRow + chunkZ] = new TerrainChunk(nextIndex, indexCount, originX + fromX * step, minHeight,
+                            originZ + fromZ * step, originX + toX * step, maxHeight, originZ + toZ * step);
+                    nextIndex += indexCount;
+                }
+            }
+        });
+        return Arrays.asList(chunks);
+    }
+
+    /**
+     * Get the number of chunks along an axis
+     *
+     * @param vertexCount The number of vertices along the axis
+     * @return The number of chunks
+     */
+    private static int getChunkCount(final int vertexCount) {
+        return (vertexCount - 1 + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /**
+     * Get the position of the first index of a row of chunks
+     * <p>
+     * All previous rows of chunks are full so they contain {@link #CHUNK_SIZE}
+     * rows of cells each
+     *
+     * @param map    The height map
+     * @param chunkX The x index of the row of chunks
+     * @return The position of the first index of the row
+     */
+    private static int getChunkRowOffset(final HeightMap map, final int chunkX) {
+        return chunkX * CHUNK_SIZE * (map.getDepth() - 1) * INDICES_PER_CELL;
+    }
+
+    /**
+     * Compute the slope of the terrain along the x axis at a vertex
+     * <p>
+     * Uses central differences inside the map and one sided differences on its borders.
+     * Maps with a single sample along x are flat along that axis
+     *
+     * @param map The height map
+     * @param x   The x index of the vertex
+     * @param z   The z index of the vertex
+     * @return The height delta per world unit along x
+     */
+    public static float computeSlopeX(final HeightMap map, final int x, final int z) {
+        final int previous = Math.max(x - 1, 0);
+        final int next = Math.min(x + 1, map.getWidth() - 1);
+        if (next == previous) {
+            return 0;
+        }
+        return (map.getHeight(next, z) - map.getHeight(previous, z)) / ((next - previous) * map.getStep());
+    }
+
+    /**
+     * Compute the slope of the terrain along the z axis at a vertex
+     * <p>
+     * Uses central differences inside the map and one sided differences on its borders.
+     * Maps with a single sample along z are flat along that axis
+     *
+     * @param map The height map
+     * @param x   The x index of the vertex
+     * @param z   The z index of the vertex
+     * @return The height delta per world unit along z
+     */
+    public static float computeSlopeZ(final HeightMap map, final int x, final int z) {
+        final int previous = Math.max(z - 1, 0);
+        final int next = Math.min(z + 1, map.getDepth() - 1);
+        if (next == previous) {
+            return 0;
+        }
+        return (map.getHeight(x, next) - map.getHeight(x, previous)) / ((next - previous) * map.getStep());
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * CPU side data of a {@link TerrainMesh}
+ * <p>
+ * Holds the vertex and index data ready to be uploaded to the gpu along with
+ * the layout of the grid of samples the vertices come from. The buffers are
+ * allocated off heap and must be released by calling {@link #destroy()}
+ * <p>
+ * Indices are either fully determined by the layout of the grid or, for
+ * adaptive meshes, depend on the heights the mesh was built from
+ * <p>
+ * The data can mark a rectangle of the grid as dirty when only the vertices
+ * in it changed since the previous data, so a mesh can upload only them with
+ * {@link TerrainMesh#updateRegion(TerrainMeshData, int, int, int, int)}.
+ * The whole grid is dirty by default
+ *
+ * @author adrien
+ */
+public class TerrainMeshData {
+
+    private final TerrainVertexFormat format;
+    private final ByteBuffer vertices;
+    private final IntBuffer indices;
+    private final int polygonCount;
+    private final List<TerrainChunk> chunks;
+    private final TerrainLodNode lodRoot;
+    private final int width;
+    private final int depth;
+    private final int step;
+    private final int originX;
+    private final int originZ;
+    private final int scale;
+    private final boolean adaptive;
+    private int dirtyFromX;
+    private int dirtyFromZ;
+    private int dirtyToX;
+    private int dirtyToZ;
+
+    /**
+     * Construct the data of a mesh whose indices only depend on the layout of the grid
+     *
+     * @param format       The layout of the vertices
+     * @param vertices     The vertex data
+     * @param indices      The index data
+     * @param polygonCount The number of polygons described by the indices
+     * @param chunks       The chunks splitting the index data
+     * @param lodRoot      The root of the level of detail quadtree. Can be null
+     * @param map          The height map the vertices were generated from
+     */
+    public TerrainMeshData(final TerrainVertexFormat format, final ByteBuffer vertices, final IntBuffer indices, final int polygonCount,
+                           final List<TerrainChunk> chunks, final TerrainLodNode lodRoot, final HeightMap map) {
+        this(format, vertices, indices, polygonCount, chunks, lodRoot, map, false);
+    }
+
+    /**
+     * Construct mesh data
+     *
+     * @param format       The layout of the vertices
+     * @param vertices     The vertex data
+     * @param indices      The index data
+     * @param polygonCount The number of polygons described by the indices
+     * @param chunks       The chunks splitting the index data
+     * @param lodRoot      The root of the level of detail quadtree. Can be null
+     * @param map          The height map the vertices were generated from
+     * @param adaptive     true if the indices depend on the heights of the map
+     */
+    public TerrainMeshData(final TerrainVertexFormat format, final ByteBuffer vertices, final IntBuffer indices, final int polygonCount,
+                           final List<TerrainChunk> chunks, final TerrainLodNode lodRoot, final HeightMap map, final boolean adaptive) {
+        this.format = format;
+        this.vertices = vertices;
+        this.indices = indices;
+        this.polygonCount = polygonCount;
+        this.chunks = chunks;
+        this.lodRoot = lodRoot;
+        this.width = map.getWidth();
+        this.depth = map.getDepth();
+        this.step = map.getStep();
+        this.originX = map.getOriginX();
+        this.originZ = map.getOriginZ();
+        this.scale = map.getScale();
+        this.adaptive = adaptive;
+        this.dirtyToX = this.width;
+        this.dirtyToZ = this.depth;
+    }
+
+    /**
+     * Mark a rectangle of the grid as the only one whose vertices changed
+     *
+     * @param fromX The first x index of the rectangle
+     * @param fromZ The first z index of the rectangle
+     * @param toX   The x index after the last row of the rectangle
+     * @param toZ   The z index after the last column of the rectangle
+     * @throws IllegalArgumentException If the rectangle is empty or not within the grid
+     */
+    public void setDirtyRegion(final int fromX, final int fromZ, final int toX, final int toZ) {
+        if (fromX < 0 || fromX >= toX || toX > this.width || fromZ < 0 || fromZ >= toZ || toZ > this.depth) {
+            throw new IllegalArgumentException("Dirty region [" + fromX + "; " + toX + "[x[" + fromZ + "; " + toZ
+                    + "[ is not a rectangle of the " + this.width + "x" + this.depth + " grid");
+        }
+        this.dirtyFromX = fromX;
+        this.dirtyFromZ = fromZ;
+        this.dirtyToX = toX;
+        this.dirtyToZ = toZ;
+    }
+
+    /**
+     * Grow the dirty region to also cover the dirty region of older data that was never uploaded
+     *
+     * @param older The data replaced by this one
+     */
+    void mergeDirtyRegion(final TerrainMeshData older) {
+        if (older.width != this.width || older.depth != this.depth) {
+            this.setDirtyRegion(0, 0, this.width, this.depth);
+            return;
+        }
+        this.setDirtyRegion(Math.min(this.dirtyFromX, older.dirtyFromX), Math.min(this.dirtyFromZ, older.dirtyFromZ),
+                Math.max(this.dirtyToX, older.dirtyToX), Math.max(this.dirtyToZ, older.dirtyToZ));
+    }
+
+    /**
+     * Check whether only part of the grid is dirty
+     *
+     * @return true if a dirty region smaller than the grid was set
+     */
+    public boolean isPartiallyDirty() {
+        return this.dirtyFromX > 0 || this.dirtyFromZ > 0 || this.dirtyToX < this.width || this.dirtyToZ < this.depth;
+    }
+
+    /**
+     * Free the vertex and index buffers
+     */
+    public void destroy() {
+        MemoryUtil.memFree(this.vertices);
+        MemoryUtil.memFree(this.indices);
+    }
+
+    public TerrainVertexFormat getFormat() {
+        return format;
+    }
+
+    public ByteBuffer getVertices() {
+        return vertices;
+    }
+
+    public IntBuffer getIndices() {
+        return indices;
+    }
+
+    public int getPolygonCount() {
+        return polygonCount;
+    }
+
+    public List<TerrainChunk> getChunks() {
+        return chunks;
+    }
+
+    public TerrainLodNode getLodRoot() {
+        return lodRoot;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getDirtyFromX() {
+        return dirtyFromX;
+    }
+
+    public int getDirtyFromZ() {
+        return dirtyFromZ;
+    }
+
+    public int getDirtyToX() {
+        return dirtyToX;
+    }
+
+    public int getDirtyToZ() {
+        return dirtyToZ;
+    }
+
+    public int getIndexCount() {
+        return indices.remaining();
+    }
+
+}
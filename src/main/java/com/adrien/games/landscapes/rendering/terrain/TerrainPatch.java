@@ -0,0 +1,45 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+/**
+ * Patch of a {@link DisplacedTerrain}
+ * <p>
+ * All patches share the same flat grid. A patch only knows which cells of
+ * the height map the grid is placed over and the bounds of the displaced
+ * surface, used for culling.
+ *
+ * @author adrien
+ */
+public class TerrainPatch extends TerrainChunk {
+
+    private final int cellX;
+    private final int cellZ;
+
+    /**
+     * Construct a patch
+     *
+     * @param indexCount The number of indices of the shared grid
+     * @param cellX      The x index of the first sample covered by the patch
+     * @param cellZ      The z index of the first sample covered by the patch
+     * @param minX       The minimum x coordinate of the bounding box
+     * @param minY       The minimum y coordinate of the bounding box
+     * @param minZ       The minimum z coordinate of the bounding box
+     * @param maxX       The maximum x coordinate of the bounding box
+     * @param maxY       The maximum y coordinate of the bounding box
+     * @param maxZ       The maximum z coordinate of the bounding box
+     */
+    public TerrainPatch(final int indexCount, final int cellX, final int cellZ, final float minX, final float minY, final float minZ,
+                        final float maxX, final float maxY, final float maxZ) {
+        super(0, indexCount, minX, minY, minZ, maxX, maxY, maxZ);
+        this.cellX = cellX;
+        this.cellZ = cellZ;
+    }
+
+    public int getCellX() {
+        return cellX;
+    }
+
+    public int getCellZ() {
+        return cellZ;
+    }
+
+}
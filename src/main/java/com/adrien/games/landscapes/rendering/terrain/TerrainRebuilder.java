@@ -0,0 +1,663 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.profiling.FrameProfiler;
+import com.adrien.games.landscapes.profiling.ProfilerPhase;
+import com.adrien.games.landscapes.terrain.CurveStage;
+import com.adrien.games.landscapes.terrain.ErosionParameters;
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightMapCache;
+import com.adrien.games.landscapes.terrain.HeightMapErosion;
+import com.adrien.games.landscapes.terrain.HeightMapGenerator;
+import com.adrien.games.landscapes.terrain.HeightMapParameters;
+import com.adrien.games.landscapes.terrain.HeightMapPipeline;
+import com.adrien.games.landscapes.terrain.HeightPyramid;
+import com.adrien.games.landscapes.terrain.HorizonLighting;
+import com.adrien.games.landscapes.terrain.NoiseStage;
+import com.adrien.games.landscapes.terrain.TerraceStage;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rebuilds terrain meshes in the background
+ * <p>
+ * Height maps and mesh data are generated on a worker thread (which itself
+ * spreads the work across the number of threads set in the parameters) so
+ * the current mesh can keep being rendered in the meantime. The rendering
+ * thread then polls the rebuilder and only has to upload the data to the
+ * gpu and swap the meshes.
+ * <p>
+ * Only the latest request matters. When new parameters are submitted, the
+ * builds of the previous ones are cancelled and their results are dropped.
+ * <p>
+ * The rebuilder can refine terrains progressively. Each request is then
+ * first built with a large sampling step to give a quick preview. If no
+ * other request comes in for a short time, the terrain is rebuilt with
+ * smaller and smaller steps until it reaches the last requested step.
+ * <p>
+ * Height maps are generated by a pipeline made of a noise, a curve and a
+ * terrace stage, see {@link #setTerraces(int, float)}. The settings of the
+ * terraces are part of each request and are applied to the pipeline on the
+ * worker thread before generating its maps.
+ * <p>
+ * Meshes are built either at full resolution or with a level of detail
+ * quadtree, see {@link #setLod(boolean)}, or as adaptive meshes, see
+ * {@link #setAdaptiveError(float)}. In displaced mode, see
+ * {@link #setDisplaced(boolean)}, no mesh is built and the height maps
+ * themselves are handed to the rendering thread.
+ * <p>
+ * When erosion is enabled, see {@link #setErosion(ErosionParameters)}, the
+ * last stage is first published as generated and then eroded a few
+ * iterations at a time, each batch being published in turn so the terrain
+ * erodes progressively on screen without holding the rendering thread.
+ * <p>
+ * When a sun direction is set, see {@link #setSunDirection(Vector3fc)},
+ * the lighting of the final terrain of each request, built at the last
+ * step or by the last erosion slice, is baked on the worker thread.
+ * Previews and intermediate erosion slices are published without lighting.
+ * A copy of the last lit map is kept so the lighting can be baked again
+ * when only the sun moves.
+ * <p>
+ * A {@link HeightPyramid} is also built from every published map so the
+ * rendering thread can intersect rays with the terrain currently displayed.
+ * The mesh data or the map, the pyramid and the lighting are handed over
+ * together as one {@link TerrainUpdate} through {@link #poll()}.
+ *
+ * @author adrien
+ */
+public class TerrainRebuilder {
+
+    /**
+     * Delay without new request after which a preview starts being refined
+     */
+    private static final long SETTLE_DELAY_MS = 150;
+
+    /**
+     * Number of erosion iterations run between two publications of the eroding terrain
+     */
+    private static final int EROSION_ITERATIONS_PER_SLICE = 4;
+
+    private static final System.Logger LOGGER = System.getLogger(TerrainRebuilder.class.getName());
+
+    private final int[] steps;
+    private final ScheduledExecutorService executor;
+    private final TerraceStage terraces;
+    private final HeightMapPipeline pipeline;
+    private final HeightMapGenerator generator;
+    private final AtomicLong latestRequest;
+    private final AtomicReference<TerrainUpdate> ready;
+    private volatile Future<?> inFlight;
+    private volatile boolean lod;
+    private volatile boolean displaced;
+    private volatile float adaptiveError;
+    private volatile TerrainVertexFormat format;
+    private volatile ErosionParameters erosion;
+    private volatile int terraceLevels;
+    private volatile float terraceSharpness;
+    private volatile HeightMapCache cache;
+    private volatile FrameProfiler profiler;
+    private volatile Vector3fc sunDirection;
+    private HeightMap lightingSource;
+    private int lightingThreads;
+    private boolean cacheFailureReported;
+
+    /**
+     * Construct a rebuilder that directly builds terrains at full resolution
+     */
+    public TerrainRebuilder() {
+        this(1);
+    }
+
+    /**
+     * Construct a progressive rebuilder and start its worker thread
+     * <p>
+     * The sampling step of the parameters is multiplied by each of the
+     * steps. For instance passing 8, 4, 2, 1 first builds a preview using
+     * one sample out of 8 and ends with the full resolution terrain
+     *
+     * @param steps The successive sampling steps
+     */
+    public TerrainRebuilder(final int... steps) {
+        this.steps = steps.clone();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "terrain-rebuilder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.terraces = new TerraceStage(0, 1);
+        this.pipeline = new HeightMapPipeline(new NoiseStage(), new CurveStage(), this.terraces);
+        this.generator = new HeightMapGenerator(this.pipeline);
+        this.latestRequest = new AtomicLong();
+        this.ready = new AtomicReference<>();
+        this.format = TerrainVertexFormat.STANDARD;
+        this.adaptiveError = -1;
+        this.terraceSharpness = 1;
+    }
+
+    /**
+     * Request a rebuild of the terrain
+     * <p>
+     * The parameters are copied so the caller can keep editing them
+     *
+     * @param parameters The parameters of the new terrain
+     */
+    public void request(final HeightMapParameters parameters) {
+        final var snapshot = parameters.copy();
+        final long id = this.latestRequest.incrementAndGet();
+        if (this.inFlight != null) {
+            this.inFlight.cancel(false);
+        }
+        final var request = new Request(id, snapshot, this.lod, this.format, this.displaced, this.adaptiveError,
+                this.erosion == null ? null : this.erosion.copy(), this.terraceLevels, this.terraceSharpness);
+        this.inFlight = this.executor.submit(() -> this.build(request, 0));
+    }
+
+    /**
+     * Set whether next requests should build level of detail meshes
+     *
+     * @param lod true to build meshes with a level of detail quadtree
+     */
+    public void setLod(final boolean lod) {
+        this.lod = lod;
+    }
+
+    /**
+     * Set whether next requests should only generate height maps for gpu displacement
+     *
+     * @param displaced true to publish height maps instead of meshes
+     */
+    public void setDisplaced(final boolean displaced) {
+        this.displaced = displaced;
+    }
+
+    /**
+     * Set whether next requests should build adaptive meshes, see {@link TerrainRtinBuilder}
+     * <p>
+     * Level of detail meshes take precedence over adaptive meshes
+     *
+     * @param maxError The maximum vertical error of the meshes in world units or a negative value to build regular grids
+     */
+    public void setAdaptiveError(final float maxError) {
+        this.adaptiveError = maxError;
+    }
+
+    /**
+     * Set whether next requests should erode the full resolution terrain
+     * <p>
+     * The number of threads used by the erosion is the one of the parameters of the request
+     *
+     * @param erosion The parameters of the erosion, copied on each request, or null to disable erosion
+     */
+    public void setErosion(final ErosionParameters erosion) {
+        this.erosion = erosion == null ? null : erosion.copy();
+    }
+
+    /**
+     * Set the terraces shaping the height maps of next requests, see {@link TerraceStage}
+     *
+     * @param levels    The number of terraces, 0 to disable terraces
+     * @param sharpness The exponent of the curve within each terrace
+     */
+    public void setTerraces(final int levels, final float sharpness) {
+        this.terraceLevels = levels;
+        this.terraceSharpness = sharpness;
+    }
+
+    /**
+     * Set the direction of the sun used to bake the lighting of the terrains
+     * <p>
+     * If the direction changed, the lighting of the last published terrain is baked again
+     *
+     * @param direction The direction in which the sun light travels, copied, or null to stop baking lighting
+     */
+    public void setSunDirection(final Vector3fc direction) {
+        final var previous = this.sunDirection;
+        if (direction == null ? previous == null : direction.equals(previous)) {
+            return;
+        }
+        this.sunDirection = direction == null ? null : new Vector3f(direction);
+        if (direction != null) {
+            this.executor.submit(this::rebakeLighting);
+        }
+    }
+
+    /**
+     * Set the vertex format of the meshes built by next requests
+     * <p>
+     * Level of detail meshes always use {@link TerrainVertexFormat#STANDARD}
+     *
+     * @param format The vertex format
+     */
+    public void setVertexFormat(final TerrainVertexFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Set the cache in which to look up full resolution maps before generating them
+     * <p>
+     * On a cache hit the coarse previews are skipped and the full resolution
+     * terrain is built directly. Generated full resolution maps are stored in the cache
+     *
+     * @param cache The cache to use or null to disable caching
+     */
+    public void setCache(final HeightMapCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Set the profiler to which to report height map generation and mesh build durations
+     *
+     * @param profiler The profiler or null to disable profiling
+     */
+    public void setProfiler(final FrameProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Build the terrain mesh data for one refinement stage
+     * <p>
+     * Checks between each phase whether a newer request was submitted and
+     * stops if so. Then schedules the next stage if any
+     *
+     * @param request The request to build
+     * @param stage   The index of the step to use
+     */
+    private void build(final Request request, final int stage) {
+        final long id = request.id;
+        final var snapshot = request.parameters;
+        if (this.isStale(id)) {
+            return;
+        }
+        final int lastStage = this.steps.length - 1;
+        this.configureTerraces(request);
+        final long pipelineHash = this.pipeline.getConfigurationHash();
+        final var heightMapCache = this.cache;
+        final long generationStart = System.nanoTime();
+        final var finalParameters = snapshot.copy().step(snapshot.getStep() * this.steps[lastStage]);
+        final var cached = heightMapCache == null || stage != 0 ? null : this.load(heightMapCache, finalParameters, pipelineHash);
+        final int currentStage = cached == null ? stage : lastStage;
+        final var parameters = snapshot.copy().step(snapshot.getStep() * this.steps[currentStage]);
+        final var map = cached == null ? this.generator.generate(parameters) : cached;
+        this.report(ProfilerPhase.HEIGHT_MAP_GENERATION, generationStart);
+        if (heightMapCache != null && cached == null && currentStage == lastStage) {
+            this.store(heightMapCache, parameters, pipelineHash, map);
+        }
+        if (request.erosion != null && currentStage == lastStage) {
+            // the published map is released once meshed so erosion works on a copy
+            final var eroded = map.copy();
+            if (this.publish(request, map, parameters.getThreads(), null, false)) {
+                this.erode(request, eroded, parameters.getThreads());
+            }
+            eroded.destroy();
+            return;
+        }
+        if (!this.publish(request, map, parameters.getThreads(), null, currentStage == lastStage)) {
+            return;
+        }
+
+        final int nextStage = currentStage + 1;
+        if (nextStage < this.steps.length) {
+            final Runnable refinement = () -> this.build(request, nextStage);
+            this.inFlight = currentStage == 0
+                    ? this.executor.schedule(refinement, SETTLE_DELAY_MS, TimeUnit.MILLISECONDS)
+                    : this.executor.submit(refinement);
+        }
+    }
+
+    /**
+     * Apply the terrace settings of a request to the pipeline
+     * <p>
+     * Settings are only set when they changed so the outputs of the terrace
+     * stage are not needlessly invalidated
+     *
+     * @param request The request being built
+     */
+    private void configureTerraces(final Request request) {
+        if (this.terraces.getLevels() != request.terraceLevels) {
+            this.terraces.setLevels(request.terraceLevels);
+        }
+        if (this.terraces.getSharpness() != request.terraceSharpness) {
+            this.terraces.setSharpness(request.terraceSharpness);
+        }
+    }
+
+    /**
+     * Hand a height map or the mesh built from it over to the rendering thread
+     * <p>
+     * The height pyramid of the map is built and, for lit terrains, its
+     * lighting is baked if a sun direction is set. They are published along
+     * with the mesh data or the map as a single {@link TerrainUpdate}. The map
+     * is released once published unless it is part of the update
+     * <p>
+     * When only a region of the map changed since the previous publication,
+     * the region is marked dirty in grid meshes so only its vertices are
+     * uploaded. If the previous update was not taken by the rendering thread
+     * yet, the dirty region of its mesh is merged into the new one
+     *
+     * @param request     The request being built
+     * @param map         The map to publish
+     * @param threads     The number of threads used to build the mesh and to bake the lighting
+     * @param dirtyRegion The region that changed as from x, from z, to x and to z indices, or null if the whole map did
+     * @param lit         true to bake the lighting of the terrain, false for previews and intermediate erosion slices
+     * @return false if a newer request was submitted in the meantime, in which case nothing was published
+     */
+    private boolean publish(final Request request, final HeightMap map, final int threads, final int[] dirtyRegion, final boolean lit) {
+        if (this.isStale(request.id)) {
+            map.destroy();
+            return false;
+        }
+        TerrainMeshData data = null;
+        if (!request.displaced) {
+            final long buildStart = System.nanoTime();
+            if (request.lod) {
+                data = TerrainLodBuilder.build(map, threads);
+            } else if (request.adaptiveError >= 0) {
+                data = TerrainRtinBuilder.build(map, threads, request.format, request.adaptiveError);
+            } else {
+                data = TerrainMeshBuilder.build(map, threads, request.format);
+            }
+            this.report(ProfilerPhase.MESH_BUILD, buildStart);
+            if (dirtyRegion != null && !request.lod && request.adaptiveError < 0) {
+                data.setDirtyRegion(dirtyRegion[0], dirtyRegion[1], dirtyRegion[2], dirtyRegion[3]);
+            }
+        }
+        final long pyramidStart = System.nanoTime();
+        final var pyramid = new HeightPyramid(map);
+        this.report(ProfilerPhase.PYRAMID_BUILD, pyramidStart);
+        final var lighting = this.updateLighting(lit ? map : null, threads);
+        final var update = new TerrainUpdate(data, request.displaced ? map : null, pyramid, lighting);
+        if (!request.displaced) {
+            map.destroy();
+        }
+        if (this.isStale(request.id)) {
+            update.destroy();
+            return false;
+        }
+        // only this thread publishes updates so nothing can be published in between
+        final var previous = this.ready.getAndSet(null);
+        if (previous != null) {
+            if (data != null && previous.getMeshData() != null) {
+                data.mergeDirtyRegion(previous.getMeshData());
+            }
+            previous.destroy();
+        }
+        this.ready.set(update);
+        return true;
+    }
+
+    /**
+     * Bake the lighting of a newly published map if a sun direction is set
+     * <p>
+     * A copy of the map is kept to bake its lighting again if the sun moves.
+     * The copy of the previously lit map is released, so terrains published
+     * without lighting are not lit when the sun moves
+     *
+     * @param map     The published map or null if it is not lit. It is not released
+     * @param threads The number of threads used to bake the lighting
+     * @return The baked lighting or null
+     */
+    private HorizonLighting updateLighting(final HeightMap map, final int threads) {
+        final var direction = this.sunDirection;
+        if (this.lightingSource != null) {
+            this.lightingSource.destroy();
+            this.lightingSource = null;
+        }
+        if (map == null || direction == null) {
+            return null;
+        }
+        this.lightingSource = map.copy();
+        this.lightingThreads = threads;
+        return this.bakeLighting(direction);
+    }
+
+    /**
+     * Bake the lighting of the last lit map again, after the sun moved
+     * <p>
+     * The lighting replaces the one of the update waiting for the rendering
+     * thread, or is published on its own if there is none
+     */
+    private void rebakeLighting() {
+        final var direction = this.sunDirection;
+        if (direction == null || this.lightingSource == null) {
+            return;
+        }
+        this.publishLighting(this.bakeLighting(direction));
+    }
+
+    /**
+     * Publish the lighting of the current terrain without a new terrain
+     *
+     * @param lighting The lighting to publish
+     */
+    private void publishLighting(final HorizonLighting lighting) {
+        final var previous = this.ready.getAndSet(null);
+        if (previous == null) {
+            this.ready.set(new TerrainUpdate(null, null, null, lighting));
+        } else {
+            previous.setLighting(lighting);
+            this.ready.set(previous);
+        }
+    }
+
+    private HorizonLighting bakeLighting(final Vector3fc direction) {
+        final long bakeStart = System.nanoTime();
+        final var lighting = HorizonLighting.bake(this.lightingSource, direction, this.lightingThreads);
+        this.report(ProfilerPhase.LIGHTING_BAKE, bakeStart);
+        return lighting;
+    }
+
+    /**
+     * Erode a map slice by slice, publishing a copy of it after each slice
+     * <p>
+     * A copy of the last published map is kept to find the region changed
+     * by each slice. Only the last slice is lit, if it does not change any
+     * height the lighting of the last published map is published on its own.
+     * Stops as soon as a newer request is submitted
+     *
+     * @param request The request being built
+     * @param map     The map to erode. It is not released
+     * @param threads The number of threads used by the erosion and to build the meshes
+     */
+    private void erode(final Request request, final HeightMap map, final int threads) {
+        final var erosion = new HeightMapErosion(map, request.erosion.copy().threads(threads));
+        var published = map.copy();
+        boolean lit = false;
+        try {
+            while (!erosion.isComplete() && !this.isStale(request.id)) {
+                final long erosionStart = System.nanoTime();
+                erosion.run(EROSION_ITERATIONS_PER_SLICE);
+                this.report(ProfilerPhase.EROSION, erosionStart);
+                final int[] dirtyRegion = findChangedRegion(published, map);
+                if (dirtyRegion == null) {
+                    continue;
+                }
+                published.destroy();
+                published = map.copy();
+                lit = erosion.isComplete();
+                if (!this.publish(request, map.copy(), threads, dirtyRegion, lit)) {
+                    return;
+                }
+            }
+            if (erosion.isComplete() && !lit && !this.isStale(request.id)) {
+                final var lighting = this.updateLighting(published, threads);
+                if (lighting != null) {
+                    this.publishLighting(lighting);
+                }
+            }
+        } finally {
+            published.destroy();
+            erosion.destroy();
+        }
+    }
+
+    /**
+     * Find the rectangle of samples whose vertices differ between two maps of the same dimensions
+     * <p>
+     * The rectangle of changed heights is grown by one sample on each side
+     * since the normals of the vertices around a sample depend on its height
+     *
+     * @param before The map before the change
+     * @param after  The map after the change
+     * @return The rectangle as from x, from z, to x and to z indices, or null if no height changed
+     */
+    private static int[] findChangedRegion(final HeightMap before, final HeightMap after) {
+        final int depth = after.getDepth();
+        final var beforeRow = new float[depth];
+        final var afterRow = new float[depth];
+        int fromX = Integer.MAX_VALUE;
+        int fromZ = Integer.MAX_VALUE;
+        int toX = Integer.MIN_VALUE;
+        int toZ = Integer.MIN_VALUE;
+        for (int x = 0; x < after.getWidth(); x++) {
+            before.getRow(x, beforeRow, 0);
+            after.getRow(x, afterRow, 0);
+            for (int z = 0; z < depth; z++) {
+                if (beforeRow[z] != afterRow[z]) {
+                    fromX = Math.min(fromX, x);
+                    toX = x + 1;
+                    fromZ = Math.min(fromZ, z);
+                    toZ = Math.max(toZ, z + 1);
+                }
+            }
+        }
+        if (toX < 0) {
+            return null;
+        }
+        return new int[]{Math.max(0, fromX - 1), Math.max(0, fromZ - 1), Math.min(after.getWidth(), toX + 1), Math.min(depth, toZ + 1)};
+    }
+
+    /**
+     * Load a map from the cache, treating read failures as misses
+     *
+     * @param cache        The cache to read from
+     * @param parameters   The parameters of the map
+     * @param pipelineHash The configuration hash of the pipeline generating the map
+     * @return The cached map or null
+     */
+    private HeightMap load(final HeightMapCache cache, final HeightMapParameters parameters, final long pipelineHash) {
+        try {
+            return cache.load(parameters, pipelineHash);
+        } catch (final UncheckedIOException exception) {
+            this.reportCacheFailure("read", exception);
+            return null;
+        }
+    }
+
+    /**
+     * Store a map in the cache, ignoring write failures since the map can always be generated again
+     *
+     * @param cache        The cache to write to
+     * @param parameters   The parameters of the map
+     * @param pipelineHash The configuration hash of the pipeline that generated the map
+     * @param map          The map to store
+     */
+    private void store(final HeightMapCache cache, final HeightMapParameters parameters, final long pipelineHash,
+                       final HeightMap map) {
+        try {
+            cache.store(parameters, pipelineHash, map);
+        } catch (final UncheckedIOException exception) {
+            this.reportCacheFailure("write", exception);
+        }
+    }
+
+    /**
+     * Log the first failure of the cache
+     * <p>
+     * A broken cache directory usually fails on every access so later
+     * failures are not logged again. Maps are generated as if the cache missed
+     *
+     * @param operation The failed operation
+     * @param exception The cause of the failure
+     */
+    private void reportCacheFailure(final String operation, final UncheckedIOException exception) {
+        if (!this.cacheFailureReported) {
+            this.cacheFailureReported = true;
+            LOGGER.log(System.Logger.Level.WARNING, "Failed to " + operation + " the height map cache, maps will be generated instead",
+                    exception);
+        }
+    }
+
+    private void report(final ProfilerPhase phase, final long start) {
+        final var frameProfiler = this.profiler;
+        if (frameProfiler != null) {
+            frameProfiler.record(phase, System.nanoTime() - start);
+        }
+    }
+
+    private boolean isStale(final long id) {
+        return id != this.latestRequest.get();
+    }
+
+    /**
+     * Get the latest terrain update if any
+     * <p>
+     * The caller becomes responsible of releasing the returned update
+     *
+     * @return The update or null if nothing new was published
+     */
+    public TerrainUpdate poll() {
+        return this.ready.getAndSet(null);
+    }
+
+    /**
+     * Stop the worker thread and release pending data
+     */
+    public void destroy() {
+        this.latestRequest.incrementAndGet();
+        this.executor.shutdownNow();
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.executor.isTerminated()) {
+            this.generator.destroy();
+            if (this.lightingSource != null) {
+                this.lightingSource.destroy();
+            }
+        }
+        final var pending = this.poll();
+        if (pending != null) {
+            pending.destroy();
+        }
+    }
+
+    /**
+     * Snapshot of a rebuild request and of the settings at the time it was made
+     */
+    private static class Request {
+
+        private final long id;
+        private final HeightMapParameters parameters;
+        private final boolean lod;
+        private final TerrainVertexFormat format;
+        private final boolean displaced;
+        private final float adaptiveError;
+        private final ErosionParameters erosion;
+        private final int terraceLevels;
+        private final float terraceSharpness;
+
+        private Request(final long id, final HeightMapParameters parameters, final boolean lod, final TerrainVertexFormat format,
+                        final boolean displaced, final float adaptiveError, final ErosionParameters erosion, final int terraceLevels,
+                        final float terraceSharpness) {
+            this.id = id;
+            this.parameters = parameters;
+            this.lod = lod;
+            this.format = format;
+            this.displaced = displaced;
+            this.adaptiveError = adaptiveError;
+            this.erosion = erosion;
+            this.terraceLevels = terraceLevels;
+            this.terraceSharpness = terraceSharpness;
+        }
+
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.adrien.games.landscapes.rendering.terrain;
 
+import com.adrien.games.landscapes.terrain.HorizonLighting;
 import com.adrienben.games.bagl.core.io.ResourcePath;
 import com.adrienben.games.bagl.engine.camera.Camera;
 import com.adrienben.games.bagl.engine.rendering.light.DirectionalLight;
@@ -7,18 +8,65 @@ import com.adrienben.games.bagl.engine.rendering.light.Light;
 import com.adrienben.games.bagl.opengl.BlendMode;
 import com.adrienben.games.bagl.opengl.OpenGL;
 import com.adrienben.games.bagl.opengl.shader.Shader;
+import org.joml.FrustumIntersection;
+import org.joml.Vector2f;
+import org.joml.Vector3fc;
 import org.lwjgl.opengl.GL11;
 
+import java.util.Collection;
+
 /**
  * Terrain mesh renderer
  * <p>
  * Renders {@link TerrainMesh}
+ * <p>
+ * Each chunk of the mesh is tested against the view frustum of the camera
+ * and only the visible ones are drawn. The number of drawn and culled chunks
+ * and of drawn triangles of the last rendered mesh is kept for diagnostics
+ * <p>
+ * When the mesh has a level of detail quadtree, the quadtree is traversed
+ * instead. A node is drawn when its geometric error projected on screen is
+ * below the maximum pixel error, otherwise its children are considered
+ * <p>
+ * Meshes using the {@link TerrainVertexFormat#COMPACT} layout are drawn with a
+ * dedicated shader decoding the packed vertices and rebuilding their position
+ * from the vertex index and the layout of the mesh's grid
+ * <p>
+ * {@link DisplacedTerrain}s are drawn patch by patch with a shader displacing
+ * their shared grid from the height texture of the terrain
+ * <p>
+ * The terrain is colored from a {@link BiomePalette} baked into a {@link PaletteTexture}
+ * so the palette can be changed without rebuilding meshes
+ * <p>
+ * Shadows and ambient occlusion come from a {@link HorizonLighting} baked on
+ * the cpu and uploaded into a {@link LightingTexture}, see
+ * {@link #setLighting(HorizonLighting)}, so they cost a single texture fetch
+ * per fragment. Fragments outside of the baked area are fully lit
  *
  * @author adrien
  */
 public class TerrainRenderer {
 
+    private static final int PALETTE_TEXTURE_UNIT = 0;
+    private static final int HEIGHTS_TEXTURE_UNIT = 1;
+    private static final int LIGHTING_TEXTURE_UNIT = 2;
+
     private final Shader shader;
+    private final Shader compactShader;
+    private final Shader displacedShader;
+    private final FrustumIntersection frustum;
+    private final Vector2f origin;
+    private final PaletteTexture paletteTexture;
+    private final LightingTexture lightingTexture;
+    private final Vector2f lightingOrigin;
+    private boolean lit;
+    private BiomePalette palette;
+    private Shader boundShader;
+    private float lodProjectionFactor;
+    private float maxPixelError;
+    private int chunksDrawn;
+    private int chunksCulled;
+    private int trianglesDrawn;
 
     /**
      * Construct the renderer
@@ -28,6 +76,65 @@ public class TerrainRenderer {
                 .vertexPath(ResourcePath.get("classpath:/shaders/terrain.vert"))
                 .fragmentPath(ResourcePath.get("classpath:/shaders/terrain.frag"))
                 .build();
+        this.compactShader = Shader.pipelineBuilder()
+                .vertexPath(ResourcePath.get("classpath:/shaders/terrain_compact.vert"))
+                .fragmentPath(ResourcePath.get("classpath:/shaders/terrain.frag"))
+                .build();
+        this.displacedShader = Shader.pipelineBuilder()
+                .vertexPath(ResourcePath.get("classpath:/shaders/terrain_displaced.vert"))
+                .fragmentPath(ResourcePath.get("classpath:/shaders/terrain.frag"))
+                .build();
+        this.frustum = new FrustumIntersection();
+        this.origin = new Vector2f();
+        this.palette = BiomePalette.createDefault();
+        this.paletteTexture = new PaletteTexture(this.palette);
+        this.lightingTexture = new LightingTexture();
+        this.lightingOrigin = new Vector2f();
+        this.setLodProjection((float) Math.toRadians(70f), 1080);
+        this.maxPixelError = 2f;
+    }
+
+    /**
+     * Set the projection used to compute the screen space error of level of detail nodes
+     *
+     * @param fieldOfView    The vertical field of view of the camera in radians
+     * @param viewportHeight The height of the viewport in pixels
+     */
+    public void setLodProjection(final float fieldOfView, final int viewportHeight) {
+        this.lodProjectionFactor = viewportHeight / (2f * (float) Math.tan(fieldOfView / 2f));
+    }
+
+    /**
+     * Set the maximum screen space error tolerated when selecting level of detail nodes
+     *
+     * @param maxPixelError The maximum error in pixels
+     */
+    public void setMaxPixelError(final float maxPixelError) {
+        this.maxPixelError = maxPixelError;
+    }
+
+    /**
+     * Set the palette used to color the terrain
+     *
+     * @param palette The new palette
+     */
+    public void setPalette(final BiomePalette palette) {
+        this.palette = palette;
+        this.paletteTexture.update(palette);
+    }
+
+    /**
+     * Set the baked lighting applied to the terrain
+     * <p>
+     * The lighting is uploaded to the gpu and is not released by the renderer
+     *
+     * @param lighting The lighting to apply or null to light the terrain without shadows nor ambient occlusion
+     */
+    public void setLighting(final HorizonLighting lighting) {
+        this.lit = lighting != null;
+        if (this.lit) {
+            this.lightingTexture.update(lighting);
+        }
     }
 
     /**
@@ -39,23 +146,215 @@ public class TerrainRenderer {
      * @param sun     The sun light of the scene
      */
     public void render(final TerrainMesh mesh, final Camera camera, final Light ambient, final DirectionalLight sun) {
+        this.start(camera, ambient, sun);
+        this.renderMesh(mesh, camera);
+        this.end();
+    }
+
+    /**
+     * Render several {@link TerrainMesh}es
+     * <p>
+     * The diagnostic counters are accumulated over all meshes
+     *
+     * @param meshes  The meshes to render
+     * @param camera  The camera used for rendering
+     * @param ambient The ambient light of the scene
+     * @param sun     The sun light of the scene
+     */
+    public void render(final Collection<TerrainMesh> meshes, final Camera camera, final Light ambient, final DirectionalLight sun) {
+        this.start(camera, ambient, sun);
+        for (final var mesh : meshes) {
+            this.renderMesh(mesh, camera);
+        }
+        this.end();
+    }
+
+    /**
+     * Render a {@link DisplacedTerrain}
+     *
+     * @param terrain The terrain to render
+     * @param camera  The camera used for rendering
+     * @param ambient The ambient light of the scene
+     * @param sun     The sun light of the scene
+     */
+    public void render(final DisplacedTerrain terrain, final Camera camera, final Light ambient, final DirectionalLight sun) {
+        this.start(camera, ambient, sun);
+        this.setSceneUniforms(this.displacedShader, camera, ambient, sun);
+        this.displacedShader.setUniform("uHeights", HEIGHTS_TEXTURE_UNIT);
+        this.displacedShader.setUniform("uHeightScale", (float) terrain.getScale());
+        this.displacedShader.setUniform("uWidth", terrain.getWidth());
+        this.displacedShader.setUniform("uDepth", terrain.getDepth());
+        this.displacedShader.setUniform("uStep", (float) terrain.getStep());
+        this.displacedShader.setUniform("uOrigin", this.origin.set(terrain.getOriginX(), terrain.getOriginZ()));
+        terrain.bind(HEIGHTS_TEXTURE_UNIT);
+        for (final var patch : terrain.getPatches()) {
+            if (this.isVisible(patch)) {
+                this.displacedShader.setUniform("uPatchX", patch.getCellX());
+                this.displacedShader.setUniform("uPatchZ", patch.getCellZ());
+                this.draw(patch);
+            } else {
+                this.chunksCulled++;
+            }
+        }
+        terrain.unbind(HEIGHTS_TEXTURE_UNIT);
+        this.end();
+    }
+
+    /**
+     * Set up the render states and the shaders and reset the counters
+     *
+     * @param camera  The camera used for rendering
+     * @param ambient The ambient light of the scene
+     * @param sun     The sun light of the scene
+     */
+    private void start(final Camera camera, final Light ambient, final DirectionalLight sun) {
         GL11.glEnable(GL11.GL_CULL_FACE);
         GL11.glEnable(GL11.GL_DEPTH_TEST);
         OpenGL.setBlendMode(BlendMode.DEFAULT);
 
-        this.shader.bind();
-        this.shader.setUniform("uVP", camera.getViewProj());
-        this.shader.setUniform("uAmbient.intensity", ambient.getIntensity());
-        this.shader.setUniform("uAmbient.color", ambient.getColor());
-        this.shader.setUniform("uSun.base.intensity", sun.getIntensity());
-        this.shader.setUniform("uSun.base.color", sun.getColor());
-        this.shader.setUniform("uSun.direction", sun.getDirection());
+        this.setSceneUniforms(this.compactShader, camera, ambient, sun);
+        this.setSceneUniforms(this.shader, camera, ambient, sun);
+        this.boundShader = this.shader;
+        this.paletteTexture.bind(PALETTE_TEXTURE_UNIT);
+        this.lightingTexture.bind(LIGHTING_TEXTURE_UNIT);
+
+        this.frustum.set(camera.getViewProj());
+        this.chunksDrawn = 0;
+        this.chunksCulled = 0;
+        this.trianglesDrawn = 0;
+    }
+
+    /**
+     * Unbind the textures and the shader
+     */
+    private void end() {
+        this.lightingTexture.unbind(LIGHTING_TEXTURE_UNIT);
+        this.paletteTexture.unbind(PALETTE_TEXTURE_UNIT);
+        Shader.unbind();
+    }
 
+    /**
+     * Bind a shader and set the uniforms shared by all meshes
+     *
+     * @param shader  The shader to set up
+     * @param camera  The camera used for rendering
+     * @param ambient The ambient light of the scene
+     * @param sun     The sun light of the scene
+     */
+    private void setSceneUniforms(final Shader shader, final Camera camera, final Light ambient, final DirectionalLight sun) {
+        shader.bind();
+        shader.setUniform("uVP", camera.getViewProj());
+        shader.setUniform("uAmbient.intensity", ambient.getIntensity());
+        shader.setUniform("uAmbient.color", ambient.getColor());
+        shader.setUniform("uSun.base.intensity", sun.getIntensity());
+        shader.setUniform("uSun.base.color", sun.getColor());
+        shader.setUniform("uSun.direction", sun.getDirection());
+        shader.setUniform("uPalette", PALETTE_TEXTURE_UNIT);
+        final var steepColor = this.palette.getSteepColor();
+        shader.setUniform("uSteep", steepColor != null ? 1 : 0);
+        if (steepColor != null) {
+            shader.setUniform("uSteepColor", steepColor);
+            shader.setUniform("uSteepStart", this.palette.getSteepStart());
+            shader.setUniform("uSteepEnd", this.palette.getSteepEnd());
+        }
+        shader.setUniform("uLighting", LIGHTING_TEXTURE_UNIT);
+        shader.setUniform("uLightingOrigin", this.lightingOrigin.set(this.lightingTexture.getOriginX(), this.lightingTexture.getOriginZ()));
+        shader.setUniform("uLightingStep", (float) this.lightingTexture.getStep());
+        shader.setUniform("uLightingWidth", this.lit ? this.lightingTexture.getWidth() : 0);
+        shader.setUniform("uLightingDepth", this.lit ? this.lightingTexture.getDepth() : 0);
+    }
+
+    /**
+     * Bind the shader matching the vertex format of a mesh and set its per mesh uniforms
+     *
+     * @param mesh The mesh about to be rendered
+     */
+    private void useShader(final TerrainMesh mesh) {
+        final var meshShader = mesh.getFormat() == TerrainVertexFormat.COMPACT ? this.compactShader : this.shader;
+        if (meshShader != this.boundShader) {
+            meshShader.bind();
+            this.boundShader = meshShader;
+        }
+        meshShader.setUniform("uHeightScale", (float) mesh.getScale());
+        if (mesh.getFormat() == TerrainVertexFormat.COMPACT) {
+            this.compactShader.setUniform("uDepth", mesh.getDepth());
+            this.compactShader.setUniform("uStep", (float) mesh.getStep());
+            this.compactShader.setUniform("uOrigin", this.origin.set(mesh.getOriginX(), mesh.getOriginZ()));
+        }
+    }
+
+    /**
+     * Draw the visible chunks of a mesh
+     *
+     * @param mesh   The mesh to render
+     * @param camera The camera used for rendering
+     */
+    private void renderMesh(final TerrainMesh mesh, final Camera camera) {
+        this.useShader(mesh);
         mesh.bind();
-        GL11.glDrawElements(GL11.GL_TRIANGLES, mesh.getPolygonCount() * TerrainMesh.INDICES_PER_POLYGON, GL11.GL_UNSIGNED_INT, 0);
+        if (mesh.getLodRoot() != null) {
+            this.renderLodNode(mesh.getLodRoot(), camera.getPosition());
+        } else {
+            for (final var chunk : mesh.getChunks()) {
+                if (this.isVisible(chunk)) {
+                    this.draw(chunk);
+                } else {
+                    this.chunksCulled++;
+                }
+            }
+        }
         mesh.unbind();
+    }
 
-        Shader.unbind();
+    /**
+     * Render a level of detail node or its children if it is too coarse
+     *
+     * @param node The node to render
+     * @param eye  The position of the camera
+     */
+    private void renderLodNode(final TerrainLodNode node, final Vector3fc eye) {
+        if (!this.isVisible(node)) {
+            this.chunksCulled++;
+            return;
+        }
+        if (node.isLeaf() || this.getScreenSpaceError(node, eye) <= this.maxPixelError) {
+            this.draw(node);
+            return;
+        }
+        final var children = node.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            this.renderLodNode(children.get(i), eye);
+        }
+    }
+
+    /**
+     * Compute the projected size in pixels of the geometric error of a node
+     * <p>
+     * The error is projected from the closest point of the node's bounding box
+     *
+     * @param node The node
+     * @param eye  The position of the camera
+     * @return The error in pixels
+     */
+    private float getScreenSpaceError(final TerrainLodNode node, final Vector3fc eye) {
+        final float dx = Math.max(0, Math.max(node.getMinX() - eye.x(), eye.x() - node.getMaxX()));
+        final float dy = Math.max(0, Math.max(node.getMinY() - eye.y(), eye.y() - node.getMaxY()));
+        final float dz = Math.max(0, Math.max(node.getMinZ() - eye.z(), eye.z() - node.getMaxZ()));
+        final float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance == 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return node.getGeometricError() * this.lodProjectionFactor / distance;
+    }
+
+    private boolean isVisible(final TerrainChunk chunk) {
+        return this.frustum.testAab(chunk.getMinX(), chunk.getMinY(), chunk.getMinZ(), chunk.getMaxX(), chunk.getMaxY(), chunk.getMaxZ());
+    }
+
+    private void draw(final TerrainChunk chunk) {
+        GL11.glDrawElements(GL11.GL_TRIANGLES, chunk.getIndexCount(), GL11.GL_UNSIGNED_INT, (long) chunk.getFirstIndex() * Integer.BYTES);
+        this.chunksDrawn++;
+        this.trianglesDrawn += chunk.getIndexCount() / TerrainMesh.INDICES_PER_POLYGON;
     }
 
     /**
@@ -63,6 +362,22 @@ public class TerrainRenderer {
      */
     public void destroy() {
         this.shader.destroy();
+        this.compactShader.destroy();
+        this.displacedShader.destroy();
+        this.paletteTexture.destroy();
+        this.lightingTexture.destroy();
+    }
+
+    public int getChunksDrawn() {
+        return chunksDrawn;
+    }
+
+    public int getChunksCulled() {
+        return chunksCulled;
+    }
+
+    public int getTrianglesDrawn() {
+        return trianglesDrawn;
     }
 
 }
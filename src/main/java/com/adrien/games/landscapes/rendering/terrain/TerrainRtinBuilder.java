@@ -0,0 +1,306 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds error bounded adaptive terrain meshes
+ * <p>
+ * The terrain is triangulated as a right triangulated irregular network
+ * (RTIN): starting from two right triangles covering a square grid of 2^n + 1
+ * samples, triangles are recursively split along their hypotenuse only where
+ * linearly interpolating the heights across the triangle would be off by more
+ * than the maximum error. Flat areas are then covered by a few large triangles
+ * while rough areas keep the full resolution.
+ * <p>
+ * The error of each split point is computed once per map, bottom up, and
+ * includes the errors of the split points below it, so whenever a triangle is
+ * split its neighbour across the hypotenuse is split as well and the mesh has
+ * no cracks.
+ * <p>
+ * Maps that are not 2^n + 1 samples wide are covered by the smallest such
+ * grid. Triangles crossing the border of the map are always split so that
+ * they end up either inside, and are kept, or outside, and are dropped. The
+ * borders of such maps are therefore meshed at full resolution.
+ * <p>
+ * Triangles reference the vertices of the regular grid so any
+ * {@link TerrainVertexFormat} can be used and normals keep the full resolution
+ * of the map. Indices are split into {@link TerrainChunk}s following the
+ * triangle hierarchy: each triangle whose legs span at most {@link #CHUNK_SPAN}
+ * samples starts a chunk holding everything it is split into, larger triangles
+ * that are not split each have their own chunk.
+ *
+ * @author adrien
+ */
+public final class TerrainRtinBuilder {
+
+    /**
+     * Maximum length of the legs of the triangles starting a chunk, in samples along both axes
+     */
+    public static final int CHUNK_SPAN = TerrainMeshBuilder.CHUNK_SIZE;
+
+    private static final int INITIAL_INDEX_CAPACITY = 1 << 16;
+
+    private TerrainRtinBuilder() {
+    }
+
+    /**
+     * Build the adaptive mesh of a height map
+     *
+     * @param map      The height map from which to generate the mesh
+     * @param threads  The number of threads used to generate the vertices
+     * @param format   The layout of the vertices
+     * @param maxError The maximum vertical error at the split points of the triangles, in world units. Samples
+     *                 in between are not checked individually and can deviate slightly more
+     * @return The generated data
+     * @throws IllegalArgumentException If the maximum error is negative or not finite
+     */
+    public static TerrainMeshData build(final HeightMap map, final int threads, final TerrainVertexFormat format, final float maxError) {
+        if (!(maxError >= 0) || Float.isInfinite(maxError)) {
+            throw new IllegalArgumentException("The maximum error must be positive and finite, got " + maxError);
+        }
+        final var vertexData = TerrainMeshBuilder.generateVertexData(map, threads, format);
+        final var triangulation = new Triangulation(map);
+        triangulation.computeErrors();
+        triangulation.triangulate(maxError);
+        final var indexData = triangulation.indices.flip();
+        return new TerrainMeshData(format, vertexData, indexData, indexData.remaining() / TerrainMeshBuilder.INDICES_PER_POLYGON,
+                triangulation.chunks, null, map, true);
+    }
+
+    /**
+     * State of the triangulation of a map
+     * <p>
+     * Grid coordinates are (x, z) sample indices. The last x and z indices of
+     * the map bound the area to mesh, the grid can extend past them
+     */
+    private static class Triangulation {
+
+        private final HeightMap map;
+        private final int size;
+        private final int lastX;
+        private final int lastZ;
+        private final float[] errors;
+        private final List<TerrainChunk> chunks;
+        private IntBuffer indices;
+        private int chunkStart;
+        private float minX;
+        private float minY;
+        private float minZ;
+        private float maxX;
+        private float maxY;
+        private float maxZ;
+
+        private Triangulation(final HeightMap map) {
+            this.map = map;
+            this.lastX = map.getWidth() - 1;
+            this.lastZ = map.getDepth() - 1;
+            int cells = 1;
+            while (cells < Math.max(this.lastX, this.lastZ)) {
+                cells <<= 1;
+            }
+            this.size = cells + 1;
+            this.errors = new float[this.size * this.size];
+            this.chunks = new ArrayList<>();
+            this.indices = MemoryUtil.memAllocInt(INITIAL_INDEX_CAPACITY);
+        }
+
+        /**
+         * Compute the error of every split point
+         * <p>
+         * Triangles are identified as in a binary tree: 2 and 3 are the two
+         * halves of the grid and the children of triangle i are 2i and 2i + 1.
+         * Visiting them by decreasing identifier processes each level entirely
+         * before the level above, so the errors of both triangles sharing a
+         * split point are known before being propagated to their parents.
+         * Split points of triangles crossing the border of the map get an
+         * infinite error so that they are always split
+         */
+        private void computeErrors() {
+            final int cells = this.size - 1;
+            final int triangleCount = cells * cells * 2 - 2;
+            final int parentCount = triangleCount - cells * cells;
+            for (int i = triangleCount - 1; i >= 0; i--) {
+                int id = i + 2;
+                int ax = 0;
+                int az = 0;
+                int bx = 0;
+                int bz = 0;
+                int cx = 0;
+                int cz = 0;
+                if ((id & 1) != 0) {
+                    bx = cells;
+                    bz = cells;
+                    cx = cells;
+                } else {
+                    ax = cells;
+                    az = cells;
+                    cz = cells;
+                }
+                while ((id >>= 1) > 1) {
+                    final int mx = (ax + bx) >> 1;
+                    final int mz = (az + bz) >> 1;
+                    if ((id & 1) != 0) {
+                        bx = ax;
+                        bz = az;
+                        ax = cx;
+                        az = cz;
+                    } else {
+                        ax = bx;
+                        az = bz;
+                        bx = cx;
+                        bz = cz;
+                    }
+                    cx = mx;
+                    cz = mz;
+                }
+                this.computeError(ax, az, bx, bz, i < parentCount);
+            }
+        }
+
+        /**
+         * Update the error of the split point of a triangle
+         *
+         * @param ax          The x index of the first end of the hypotenuse
+         * @param az          The z index of the first end of the hypotenuse
+         * @param bx          The x index of the second end of the hypotenuse
+         * @param bz          The z index of the second end of the hypotenuse
+         * @param hasChildren Whether the triangle can be split further
+         */
+        private void computeError(final int ax, final int az, final int bx, final int bz, final boolean hasChildren) {
+            final int mx = (ax + bx) >> 1;
+            final int mz = (az + bz) >> 1;
+            final int cx = mx + mz - az;
+            final int cz = mz + ax - mx;
+            if (this.isOutside(ax, az, bx, bz, cx, cz)) {
+                return;
+            }
+            final int middle = mx * this.size + mz;
+            if (!this.isInside(ax, az, bx, bz, cx, cz)) {
+                this.errors[middle] = Float.POSITIVE_INFINITY;
+                return;
+            }
+            final float interpolated = (this.map.getHeight(ax, az) + this.map.getHeight(bx, bz)) / 2;
+            float error = Math.max(this.errors[middle], Math.abs(interpolated - this.map.getHeight(mx, mz)));
+            if (hasChildren) {
+                error = Math.max(error, this.errors[((ax + cx) >> 1) * this.size + ((az + cz) >> 1)]);
+                error = Math.max(error, this.errors[((bx + cx) >> 1) * this.size + ((bz + cz) >> 1)]);
+            }
+            this.errors[middle] = error;
+        }
+
+        private boolean isInside(final int ax, final int az, final int bx, final int bz, final int cx, final int cz) {
+            return Math.max(ax, Math.max(bx, cx)) <= this.lastX && Math.max(az, Math.max(bz, cz)) <= this.lastZ;
+        }
+
+        private boolean isOutside(final int ax, final int az, final int bx, final int bz, final int cx, final int cz) {
+            return Math.min(ax, Math.min(bx, cx)) >= this.lastX || Math.min(az, Math.min(bz, cz)) >= this.lastZ;
+        }
+
+        /**
+         * Emit the triangles of the mesh
+         *
+         * @param maxError The maximum error
+         */
+        private void triangulate(final float maxError) {
+            final int cells = this.size - 1;
+            this.split(0, 0, cells, cells, cells, 0, maxError, false);
+            this.split(cells, cells, 0, 0, 0, cells, maxError, false);
+        }
+
+        /**
+         * Emit a triangle or split it if it is not accurate enough
+         *
+         * @param ax       The x index of the first end of the hypotenuse
+         * @param az       The z index of the first end of the hypotenuse
+         * @param bx       The x index of the second end of the hypotenuse
+         * @param bz       The z index of the second end of the hypotenuse
+         * @param cx       The x index of the right angle
+         * @param cz       The z index of the right angle
+         * @param maxError The maximum error
+         * @param inChunk  Whether a chunk was started by an ancestor of the triangle
+         */
+        private void split(final int ax, final int az, final int bx, final int bz, final int cx, final int cz, final float maxError,
+                           final boolean inChunk) {
+            if (this.isOutside(ax, az, bx, bz, cx, cz)) {
+                return;
+            }
+            final int mx = (ax + bx) >> 1;
+            final int mz = (az + bz) >> 1;
+            final boolean startsChunk = !inChunk && Math.abs(ax - cx) <= CHUNK_SPAN && Math.abs(az - cz) <= CHUNK_SPAN;
+            if (startsChunk) {
+                this.startChunk();
+            }
+            if (Math.abs(ax - cx) + Math.abs(az - cz) > 1 && this.errors[mx * this.size + mz] > maxError) {
+                this.split(cx, cz, ax, az, mx, mz, maxError, inChunk || startsChunk);
+                this.split(bx, bz, cx, cz, mx, mz, maxError, inChunk || startsChunk);
+            } else {
+                if (!inChunk && !startsChunk) {
+                    this.startChunk();
+                }
+                this.emit(ax, az, bx, bz, cx, cz);
+                if (!inChunk && !startsChunk) {
+                    this.endChunk();
+                }
+            }
+            if (startsChunk) {
+                this.endChunk();
+            }
+        }
+
+        /**
+         * Append a triangle, wound like the triangles of {@link TerrainMeshBuilder}
+         */
+        private void emit(final int ax, final int az, final int bx, final int bz, final int cx, final int cz) {
+            if (this.indices.remaining() < TerrainMeshBuilder.INDICES_PER_POLYGON) {
+                this.indices = MemoryUtil.memRealloc(this.indices, this.indices.capacity() * 2);
+            }
+            final boolean sameWinding = (bx - ax) * (cz - az) - (bz - az) * (cx - ax) < 0;
+            this.putVertex(ax, az);
+            if (sameWinding) {
+                this.putVertex(bx, bz);
+                this.putVertex(cx, cz);
+            } else {
+                this.putVertex(cx, cz);
+                this.putVertex(bx, bz);
+            }
+        }
+
+        private void putVertex(final int x, final int z) {
+            this.indices.put(x * this.map.getDepth() + z);
+            final float height = this.map.getHeight(x, z);
+            final float worldX = this.map.getOriginX() + x * this.map.getStep();
+            final float worldZ = this.map.getOriginZ() + z * this.map.getStep();
+            this.minX = Math.min(this.minX, worldX);
+            this.minY = Math.min(this.minY, height);
+            this.minZ = Math.min(this.minZ, worldZ);
+            this.maxX = Math.max(this.maxX, worldX);
+            this.maxY = Math.max(this.maxY, height);
+            this.maxZ = Math.max(this.maxZ, worldZ);
+        }
+
+        private void startChunk() {
+            this.chunkStart = this.indices.position();
+            this.minX = Float.POSITIVE_INFINITY;
+            this.minY = Float.POSITIVE_INFINITY;
+            this.minZ = Float.POSITIVE_INFINITY;
+            this.maxX = Float.NEGATIVE_INFINITY;
+            this.maxY = Float.NEGATIVE_INFINITY;
+            this.maxZ = Float.NEGATIVE_INFINITY;
+        }
+
+        private void endChunk() {
+            final int indexCount = this.indices.position() - this.chunkStart;
+            if (indexCount > 0) {
+                this.chunks.add(new TerrainChunk(this.chunkStart, indexCount, this.minX, this.minY, this.minZ, this.maxX, this.maxY,
+                        this.maxZ));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrien.games.landscapes.terrain.HeightMap;
+import com.adrien.games.landscapes.terrain.HeightPyramid;
+import com.adrien.games.landscapes.terrain.HorizonLighting;
+
+/**
+ * Update of the terrain published by a {@link TerrainRebuilder}
+ * <p>
+ * Holds together everything built from one height map: the mesh data, or
+ * the map itself in displaced mode, its height pyramid and its baked
+ * lighting if any, so the rendering thread never pairs the mesh of a
+ * terrain with the pyramid or the lighting of another.
+ * <p>
+ * An update can also only hold lighting, when the lighting of the current
+ * terrain was baked again after the sun moved. Updates holding a terrain
+ * but no lighting mean the terrain is not lit yet.
+ * <p>
+ * The off heap data of the update must be released by calling {@link #destroy()}
+ *
+ * @author adrien
+ */
+public class TerrainUpdate {
+
+    private final TerrainMeshData meshData;
+    private final HeightMap map;
+    private final HeightPyramid pyramid;
+    private HorizonLighting lighting;
+
+    /**
+     * Construct an update
+     *
+     * @param meshData The mesh data of the terrain or null
+     * @param map      The height map of the terrain in displaced mode or null
+     * @param pyramid  The height pyramid of the terrain or null if the update only holds lighting
+     * @param lighting The baked lighting of the terrain or null
+     */
+    TerrainUpdate(final TerrainMeshData meshData, final HeightMap map, final HeightPyramid pyramid, final HorizonLighting lighting) {
+        this.meshData = meshData;
+        this.map = map;
+        this.pyramid = pyramid;
+        this.lighting = lighting;
+    }
+
+    /**
+     * Replace the lighting of the update, releasing the previous one
+     *
+     * @param lighting The new lighting
+     */
+    void setLighting(final HorizonLighting lighting) {
+        if (this.lighting != null) {
+            this.lighting.destroy();
+        }
+        this.lighting = lighting;
+    }
+
+    /**
+     * Check whether the update holds a new terrain or only lighting
+     *
+     * @return true if the update holds a new terrain
+     */
+    public boolean hasTerrain() {
+        return this.pyramid != null;
+    }
+
+    /**
+     * Release the mesh data, the map and the lighting of the update
+     */
+    public void destroy() {
+        if (this.meshData != null) {
+            this.meshData.destroy();
+        }
+        if (this.map != null) {
+            this.map.destroy();
+        }
+        if (this.lighting != null) {
+            this.lighting.destroy();
+        }
+    }
+
+    public TerrainMeshData getMeshData() {
+        return meshData;
+    }
+
+    public HeightMap getMap() {
+        return map;
+    }
+
+    public HeightPyramid getPyramid() {
+        return pyramid;
+    }
+
+    public HorizonLighting getLighting() {
+        return lighting;
+    }
+
+}
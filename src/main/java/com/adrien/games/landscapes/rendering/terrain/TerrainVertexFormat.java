@@ -0,0 +1,32 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+/**
+ * Vertex layouts of {@link TerrainMesh}
+ *
+ * @author adrien
+ */
+public enum TerrainVertexFormat {
+
+    /**
+     * 6 floats per vertex: position xyz and normal xyz
+     */
+    STANDARD(24),
+
+    /**
+     * 4 bytes per vertex: height as an unsigned normalized short and octahedral
+     * encoded normal on 2 bytes. The x and z coordinates are derived from the
+     * index of the vertex in the shader
+     */
+    COMPACT(4);
+
+    private final int bytesPerVertex;
+
+    TerrainVertexFormat(final int bytesPerVertex) {
+        this.bytesPerVertex = bytesPerVertex;
+    }
+
+    public int getBytesPerVertex() {
+        return bytesPerVertex;
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.adrien.games.landscapes.rendering.terrain;
+
+import com.adrienben.games.bagl.opengl.vertex.VertexArray;
+import com.adrienben.games.bagl.opengl.vertex.VertexBuffer;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+
+/**
+ * Binds vertex buffers of interleaved unsigned bytes as integer attributes
+ * <p>
+ * The attributes are declared with glVertexAttribIPointer so shaders read
+ * them as uvec inputs holding the raw values in [0; 255], without any
+ * conversion to floats nor normalization.
+ *
+ * @author adrien
+ */
+final class UnsignedByteAttributes {
+
+    private UnsignedByteAttributes() {
+    }
+
+    /**
+     * Attach a vertex buffer to a vertex array
+     * <p>
+     * Attribute i is bound to location i and takes the given number of
+     * bytes, right after those of attribute i - 1
+     *
+     * @param vArray  The vertex array to attach the buffer to
+     * @param vBuffer The buffer holding the interleaved attributes
+     * @param sizes   The number of bytes of each attribute, in [1; 4]
+     */
+    static void attach(final VertexArray vArray, final VertexBuffer vBuffer, final int... sizes) {
+        int stride = 0;
+        for (final int size : sizes) {
+            stride += size;
+        }
+        vArray.bind();
+        vBuffer.bind();
+        int offset = 0;
+        for (int location = 0; location < sizes.length; location++) {
+            GL20.glEnableVertexAttribArray(location);
+            GL30.glVertexAttribIPointer(location, sizes[location], GL11.GL_UNSIGNED_BYTE, stride, offset);
+            offset += sizes[location];
+        }
+        vBuffer.unbind();
+        vArray.unbind();
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.adrien.games.landscapes.rendering.ui;
+
+import com.adrien.games.landscapes.ui.UIControl;
+
+/**
+ * Retained renderer of a ui control
+ * <p>
+ * Each renderer is bound to one control and reserves its boxes and texts in
+ * a {@link UIBatch} when constructed. Refreshing it rebuilds them only if the
+ * revision of the control changed since the last refresh.
+ *
+ * @param <T> The type of control
+ * @author adrien
+ */
+public abstract class ControlRenderer<T extends UIControl> {
+
+    protected final T control;
+    protected final UIBatch batch;
+    private int revision;
+
+    protected ControlRenderer(final T control, final UIBatch batch) {
+        this.control = control;
+        this.batch = batch;
+        this.revision = control.getRevision() - 1;
+    }
+
+    /**
+     * Rebuild the boxes and texts of the control if it changed
+     */
+    public void refresh() {
+        if (this.control.getRevision() != this.revision) {
+            this.revision = this.control.getRevision();
+            this.rebuild();
+        }
+    }
+
+    /**
+     * Overwrite the boxes and texts of the control in the batch
+     */
+    protected abstract void rebuild();
+
+}
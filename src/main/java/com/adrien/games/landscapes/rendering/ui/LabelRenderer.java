@@ -0,0 +1,37 @@
+package com.adrien.games.landscapes.rendering.ui;
+
+import com.adrien.games.landscapes.ui.controls.Label;
+import com.adrienben.games.bagl.core.Color;
+import com.adrienben.games.bagl.engine.rendering.text.Font;
+import com.adrienben.games.bagl.engine.rendering.text.Text;
+
+/**
+ * Renders labels
+ *
+ * @author adrien
+ */
+public class LabelRenderer extends ControlRenderer<Label> {
+
+    private final Font font;
+    private final int text;
+
+    /**
+     * Construct the renderer of a label
+     *
+     * @param label The label to render
+     * @param font  The font to use to render text
+     * @param batch The batch in which to render the label
+     */
+    public LabelRenderer(final Label label, final Font font, final UIBatch batch) {
+        super(label, batch);
+        this.font = font;
+        this.text = batch.reserveText();
+    }
+
+    @Override
+    protected void rebuild() {
+        this.batch.setText(this.text, Text.create(this.control.getLabel(), this.font, this.control.getX(), this.control.getY(),
+                this.control.getHeight(), Color.WHITE));
+    }
+
+}
@@ -2,49 +2,54 @@ package com.adrien.games.landscapes.rendering.ui;
 
 import com.adrien.games.landscapes.ui.controls.Slider;
 import com.adrienben.games.bagl.core.Color;
-import com.adrienben.games.bagl.engine.rendering.shape.UIRenderer;
 import com.adrienben.games.bagl.engine.rendering.text.Font;
 import com.adrienben.games.bagl.engine.rendering.text.Text;
-import com.adrienben.games.bagl.engine.rendering.text.TextRenderer;
-import com.adrienben.games.bagl.opengl.BlendMode;
-import com.adrienben.games.bagl.opengl.OpenGL;
-import org.lwjgl.opengl.GL11;
 
 /**
  * Renders sliders
  *
  * @author adrien
  */
-public class SliderRenderer {
+public class SliderRenderer extends ControlRenderer<Slider> {
 
     private static final Color BACK_COLOR = new Color(1.0f, 1.0f, 1.0f, 0.3f);
     private static final Color FILL_COLOR = new Color(1.0f, 0.0f, 0.0f, 0.5f);
 
-    private final UIRenderer uiRenderer;
-    private final TextRenderer textRenderer;
-
-    public SliderRenderer(final UIRenderer uiRenderer, final TextRenderer textRenderer) {
-        this.uiRenderer = uiRenderer;
-        this.textRenderer = textRenderer;
-    }
+    private final Font font;
+    private final StringBuilder builder;
+    private final int backBox;
+    private final int fillBox;
+    private final int text;
 
     /**
-     * Render a slider
+     * Construct the renderer of a slider
      *
      * @param slider The slider to render
      * @param font   The font to use to render text
+     * @param batch  The batch in which to render the slider
      */
-    public void render(final Slider slider, final Font font) {
-        final var textContent = slider.getLabel() + " : " + slider.getValue() + " [" + slider.getMin() + "; " + slider.getMax() + "]";
-        final var text = Text.create(textContent, font, slider.getX(), slider.getY() + slider.getHeight(), slider.getHeight() * 1.6f, Color.WHITE);
-        this.textRenderer.render(text);
-        GL11.glDisable(GL11.GL_DEPTH_TEST);
-        OpenGL.setBlendMode(BlendMode.TRANSPARENCY);
-        this.uiRenderer.renderBox(slider.getX(), slider.getY(), slider.getWidth(), slider.getHeight(), BACK_COLOR);
+    public SliderRenderer(final Slider slider, final Font font, final UIBatch batch) {
+        super(slider, batch);
+        this.font = font;
+        this.builder = new StringBuilder();
+        this.backBox = batch.reserveBoxes(2);
+        this.fillBox = this.backBox + 1;
+        this.text = batch.reserveText();
+    }
+
+    @Override
+    protected void rebuild() {
+        final var slider = this.control;
+        this.builder.setLength(0);
+        this.builder.append(slider.getLabel()).append(" : ").append(slider.getValue())
+                .append(" [").append(slider.getMin()).append("; ").append(slider.getMax()).append(']');
+        this.batch.setText(this.text, Text.create(this.builder.toString(), this.font, slider.getX(), slider.getY() + slider.getHeight(),
+                slider.getHeight() * 1.6f, Color.WHITE));
+        this.batch.setBox(this.backBox, slider.getX(), slider.getY(), slider.getWidth(), slider.getHeight(), BACK_COLOR);
         final float range = slider.getMax() - slider.getMin();
         final float advance = slider.getValue() - slider.getMin();
         final float position = advance / range;
-        this.uiRenderer.renderBox(slider.getX(), slider.getY(), slider.getWidth() * position, slider.getHeight(), FILL_COLOR);
+        this.batch.setBox(this.fillBox, slider.getX(), slider.getY(), slider.getWidth() * position, slider.getHeight(), FILL_COLOR);
     }
 
 }
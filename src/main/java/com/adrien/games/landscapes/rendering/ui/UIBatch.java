@@ -0,0 +1,218 @@
+package com.adrien.games.landscapes.rendering.ui;
+
+import com.adrienben.games.bagl.core.Color;
+import com.adrienben.games.bagl.core.io.ResourcePath;
+import com.adrienben.games.bagl.engine.rendering.text.Text;
+import com.adrienben.games.bagl.engine.rendering.text.TextRenderer;
+import com.adrienben.games.bagl.opengl.BlendMode;
+import com.adrienben.games.bagl.opengl.OpenGL;
+import com.adrienben.games.bagl.opengl.buffer.BufferUsage;
+import com.adrienben.games.bagl.opengl.shader.Shader;
+import com.adrienben.games.bagl.opengl.vertex.VertexArray;
+import com.adrienben.games.bagl.opengl.vertex.VertexBuffer;
+import com.adrienben.games.bagl.opengl.vertex.VertexBufferParams;
+import com.adrienben.games.bagl.opengl.vertex.VertexElement;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Retained batch of ui boxes and texts
+ * <p>
+ * Renderers reserve slots for their boxes and texts once, then overwrite
+ * them only when what they display changes. The vertices of all boxes live
+ * in a single vertex buffer which is uploaded only when a box changed and
+ * drawn with one draw call. Texts are then rendered in the same pass, with
+ * the gl state set once for the whole ui.
+ * <p>
+ * Positions and dimensions are in screen space, ranging from 0 to 1 where
+ * (0,0) is the bottom left corner of the screen.
+ *
+ * @author adrien
+ */
+public class UIBatch {
+
+    private static final int POSITION_ELEMENTS_INDEX = 0;
+    private static final int COLOR_ELEMENTS_INDEX = 1;
+    private static final int ELEMENTS_PER_POSITION = 2;
+    private static final int ELEMENTS_PER_COLOR = 4;
+    private static final int FLOATS_PER_VERTEX = ELEMENTS_PER_POSITION + ELEMENTS_PER_COLOR;
+    private static final int VERTICES_PER_BOX = 6;
+    private static final int FLOATS_PER_BOX = FLOATS_PER_VERTEX * VERTICES_PER_BOX;
+
+    private final Shader shader;
+    private final TextRenderer textRenderer;
+    private final List<Text> texts;
+    private FloatBuffer boxes;
+    private int boxCount;
+    private VertexArray vArray;
+    private VertexBuffer vBuffer;
+    private int uploadedBoxCount;
+    private boolean dirty;
+
+    /**
+     * Construct an empty batch
+     *
+     * @param textRenderer The renderer used to render the texts
+     */
+    public UIBatch(final TextRenderer textRenderer) {
+        this.shader = Shader.pipelineBuilder()
+                .vertexPath(ResourcePath.get("classpath:/shaders/ui_box.vert"))
+                .fragmentPath(ResourcePath.get("classpath:/shaders/ui_box.frag"))
+                .build();
+        this.textRenderer = textRenderer;
+        this.texts = new ArrayList<>();
+        this.boxes = MemoryUtil.memAllocFloat(FLOATS_PER_BOX);
+    }
+
+    /**
+     * Reserve slots for boxes
+     * <p>
+     * Reserved boxes are empty until set
+     *
+     * @param count The number of boxes to reserve
+     * @return The index of the first reserved box
+     */
+    public int reserveBoxes(final int count) {
+        final int first = this.boxCount;
+        this.boxCount += count;
+        if (this.boxes.capacity() < this.boxCount * FLOATS_PER_BOX) {
+            this.boxes = MemoryUtil.memRealloc(this.boxes, Math.max(this.boxes.capacity() * 2, this.boxCount * FLOATS_PER_BOX));
+        }
+        MemoryUtil.memSet(MemoryUtil.memAddress(this.boxes, first * FLOATS_PER_BOX), 0, (long) count * FLOATS_PER_BOX * Float.BYTES);
+        this.dirty = true;
+        return first;
+    }
+
+    /**
+     * Reserve a slot for a text
+     * <p>
+     * Reserved texts are not rendered until set
+     *
+     * @return The index of the reserved text
+     */
+    public int reserveText() {
+        this.texts.add(null);
+        return this.texts.size() - 1;
+    }
+
+    /**
+     * Overwrite a box
+     *
+     * @param index  The index of the box
+     * @param x      X position of the box
+     * @param y      Y position of the box
+     * @param width  Width of the box
+     * @param height Height of the box
+     * @param color  Color of the box
+     */
+    public void setBox(final int index, final float x, final float y, final float width, final float height, final Color color) {
+        int offset = index * FLOATS_PER_BOX;
+        offset = this.putVertex(offset, x, y, color);
+        offset = this.putVertex(offset, x + width, y, color);
+        offset = this.putVertex(offset, x + width, y + height, color);
+        offset = this.putVertex(offset, x, y, color);
+        offset = this.putVertex(offset, x + width, y + height, color);
+        this.putVertex(offset, x, y + height, color);
+        this.dirty = true;
+    }
+
+    /**
+     * Hide a box until it is set again
+     *
+     * @param index The index of the box
+     */
+    public void clearBox(final int index) {
+        MemoryUtil.memSet(MemoryUtil.memAddress(this.boxes, index * FLOATS_PER_BOX), 0, (long) FLOATS_PER_BOX * Float.BYTES);
+        this.dirty = true;
+    }
+
+    private int putVertex(final int offset, final float x, final float y, final Color color) {
+        this.boxes.put(offset, x)
+                .put(offset + 1, y)
+                .put(offset + 2, color.getRed())
+                .put(offset + 3, color.getGreen())
+                .put(offset + 4, color.getBlue())
+                .put(offset + 5, color.getAlpha());
+        return offset + FLOATS_PER_VERTEX;
+    }
+
+    /**
+     * Overwrite a text
+     *
+     * @param index The index of the text
+     * @param text  The text to render in this slot
+     */
+    public void setText(final int index, final Text text) {
+        this.texts.set(index, text);
+    }
+
+    /**
+     * Render all boxes then all texts
+     */
+    public void render() {
+        if (this.dirty) {
+            this.upload();
+        }
+        GL11.glDisable(GL11.GL_DEPTH_TEST);
+        OpenGL.setBlendMode(BlendMode.TRANSPARENCY);
+        if (this.boxCount > 0) {
+            this.shader.bind();
+            this.vArray.bind();
+            GL11.glDrawArrays(GL11.GL_TRIANGLES, 0, this.boxCount * VERTICES_PER_BOX);
+            this.vArray.unbind();
+            Shader.unbind();
+        }
+        for (int i = 0; i < this.texts.size(); i++) {
+            final var text = this.texts.get(i);
+            if (text != null) {
+                this.textRenderer.render(text);
+            }
+        }
+    }
+
+    /**
+     * Upload the boxes, recreating the vertex buffer if boxes were reserved since the last upload
+     */
+    private void upload() {
+        final var vertices = this.boxes.duplicate().clear().limit(this.boxCount * FLOATS_PER_BOX);
+        if (this.vBuffer != null && this.uploadedBoxCount == this.boxCount) {
+            this.vBuffer.bind();
+            GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, vertices);
+            this.vBuffer.unbind();
+        } else {
+            this.destroyBuffers();
+            this.vBuffer = new VertexBuffer(vertices, VertexBufferParams.builder()
+                    .usage(BufferUsage.DYNAMIC_DRAW)
+                    .element(new VertexElement(POSITION_ELEMENTS_INDEX, ELEMENTS_PER_POSITION))
+                    .element(new VertexElement(COLOR_ELEMENTS_INDEX, ELEMENTS_PER_COLOR)).build());
+            this.vArray = new VertexArray();
+            this.vArray.bind();
+            this.vArray.attachVertexBuffer(this.vBuffer);
+            this.vArray.unbind();
+            this.uploadedBoxCount = this.boxCount;
+        }
+        this.dirty = false;
+    }
+
+    private void destroyBuffers() {
+        if (this.vBuffer != null) {
+            this.vBuffer.destroy();
+            this.vArray.destroy();
+        }
+    }
+
+    /**
+     * Destroy the batch
+     */
+    public void destroy() {
+        this.destroyBuffers();
+        MemoryUtil.memFree(this.boxes);
+        this.shader.destroy();
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.adrien.games.landscapes.terrain;
+
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+
+/**
+ * Stage raising heights in the range [0; 1] to the power of the exponent and scaling the result
+ *
+ * @author adrien
+ */
+public class CurveStage extends HeightMapStage {
+
+    public CurveStage() {
+        super(HeightMapParameter.EXPONENT, HeightMapParameter.SCALE);
+    }
+
+    @Override
+    protected void apply(final HeightMapParameters parameters, final HeightMap input, final HeightMap output) {
+        final float exponent = parameters.getExponent();
+        final int scale = parameters.getScale();
+        ParallelRows.forEach(parameters.getThreads(), output.getWidth(), (from, to) -> {
+            final var row = new float[output.getDepth()];
+            for (int x = from; x < to; x++) {
+                input.getRow(x, row, 0);
+                for (int z = 0; z < row.length; z++) {
+                    row[z] = HeightMapGenerator.applyCurve(row[z], exponent, scale);
+                }
+                output.setRow(x, row, 0);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.adrien.games.landscapes.terrain;
+
+/**
+ * Parameters of the erosion of height maps, see {@link HeightMapErosion}
+ * <p>
+ * Usage example : ErosionParameters parameters = ErosionParameters.create().iterations(32).droplets(8192);
+ * <p>
+ * The available parameters are :
+ * <ul>
+ * <li>iterations       number of erosion iterations. default = 64
+ * <li>droplets         number of water droplets simulated per iteration. default = 8192
+ * <li>lifetime         maximum number of moves of a droplet. default = 30
+ * <li>inertia          how much droplets keep their direction instead of following the slope. default = 0.05
+ * <li>capacity         sediment capacity of droplets per unit of height lost, speed and water. default = 4
+ * <li>minCapacity      minimum sediment capacity of droplets. default = 0.01
+ * <li>erodeSpeed       fraction of the missing sediment a droplet erodes per move. default = 0.3
+ * <li>depositSpeed     fraction of the excess sediment a droplet deposits per move. default = 0.3
+ * <li>evaporateSpeed   fraction of the water of a droplet evaporating per move. default = 0.01
+ * <li>gravity          acceleration of droplets going down. default = 4
+ * <li>radius           radius in samples of the area eroded by droplets. default = 3
+ * <li>talus            slope above which material slides down during thermal erosion. default = 1.2
+ * <li>thermalRate      fraction of the material above the talus slope moved per iteration. default = 0.25
+ * <li>tileSize         size in samples of the tiles processed concurrently. default = 64
+ * <li>seed             seed of the droplet positions. default = 0
+ * <li>threads          number of threads used to erode the map. default = 1
+ *
+ * @author adrien
+ */
+public class ErosionParameters {
+
+    private int iterations = 64;
+    private int droplets = 8192;
+    private int lifetime = 30;
+    private float inertia = 0.05f;
+    private float capacity = 4;
+    private float minCapacity = 0.01f;
+    private float erodeSpeed = 0.3f;
+    private float depositSpeed = 0.3f;
+    private float evaporateSpeed = 0.01f;
+    private float gravity = 4;
+    private int radius = 3;
+    private float talus = 1.2f;
+    private float thermalRate = 0.25f;
+    private int tileSize = 64;
+    private long seed = 0;
+    private int threads = 1;
+
+    /**
+     * Create a new default instance of the parameters
+     *
+     * @return An new instance of {@link ErosionParameters}
+     */
+    public static ErosionParameters create() {
+        return new ErosionParameters();
+    }
+
+    private ErosionParameters() {
+    }
+
+    /**
+     * Create a copy of the parameters
+     *
+     * @return A new instance of {@link ErosionParameters} with the same values
+     */
+    public ErosionParameters copy() {
+        return create().iterations(this.iterations).droplets(this.droplets).lifetime(this.lifetime).inertia(this.inertia)
+                .capacity(this.capacity).minCapacity(this.minCapacity).erodeSpeed(this.erodeSpeed).depositSpeed(this.depositSpeed)
+                .evaporateSpeed(this.evaporateSpeed).gravity(this.gravity).radius(this.radius).talus(this.talus)
+                .thermalRate(this.thermalRate).tileSize(this.tileSize).seed(this.seed).threads(this.threads);
+    }
+
+    public ErosionParameters iterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    public ErosionParameters droplets(int droplets) {
+        this.droplets = droplets;
+        return this;
+    }
+
+    public ErosionParameters lifetime(int lifetime) {
+        this.lifetime = lifetime;
+        return this;
+    }
+
+    public ErosionParameters inertia(float inertia) {
+        this.inertia = inertia;
+        return this;
+    }
+
+    public ErosionParameters capacity(float capacity) {
+        this.capacity = capacity;
+        return this;
+    }
+
+    public ErosionParameters minCapacity(float minCapacity) {
+        this.minCapacity = minCapacity;
+        return this;
+    }
+
+    public ErosionParameters erodeSpeed(float erodeSpeed) {
+        this.erodeSpeed = erodeSpeed;
+        return this;
+    }
+
+    public ErosionParameters depositSpeed(float depositSpeed) {
+        this.depositSpeed = depositSpeed;
+        return this;
+    }
+
+    public ErosionParameters evaporateSpeed(float evaporateSpeed) {
+        this.evaporateSpeed = evaporateSpeed;
+        return this;
+    }
+
+    public ErosionParameters gravity(float gravity) {
+        this.gravity = gravity;
+        return this;
+    }
+
+    public ErosionParameters radius(int radius) {
+        this.radius = radius;
+        return this;
+    }
+
+    public ErosionParameters talus(float talus) {
+        this.talus = talus;
+        return this;
+    }
+
+    public ErosionParameters thermalRate(float thermalRate) {
+        this.thermalRate = thermalRate;
+        return this;
+    }
+
+    public ErosionParameters tileSize(int tileSize) {
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    public ErosionParameters seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public ErosionParameters threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getDroplets() {
+        return droplets;
+    }
+
+    public int getLifetime() {
+        return lifetime;
+    }
+
+    public float getInertia() {
+        return inertia;
+    }
+
+    public float getCapacity() {
+        return capacity;
+    }
+
+    public float getMinCapacity() {
+        return minCapacity;
+    }
+
+    public float getErodeSpeed() {
+        return erodeSpeed;
+    }
+
+    public float getDepositSpeed() {
+        return depositSpeed;
+    }
+
+    public float getEvaporateSpeed() {
+        return evaporateSpeed;
+    }
+
+    public float getGravity() {
+        return gravity;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public float getTalus() {
+        return talus;
+    }
+
+    public float getThermalRate() {
+        return thermalRate;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+}
@@ -1,67 +1,308 @@
 package com.adrien.games.landscapes.terrain;
 
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+import org.lwjgl.system.MemoryUtil;
 
-import com.adrienben.games.bagl.core.math.Noise;
+import java.nio.FloatBuffer;
 
 /**
  * Height map
  * <p>
- * 2D map of heights build using Perlin noise algorithm
+ * 2D map of heights build using Perlin noise algorithm. Heights are sampled
+ * every step units, so neighbouring samples are step units apart in the world.
+ * The first sample is located at the origin of the map in world space
+ * <p>
+ * Heights are stored off heap in pages of whole rows so the mesh builders
+ * and the gpu can read them directly and maps are not limited to the size
+ * of an array. The memory of a map is released by {@link #destroy()}
  *
  * @author adrien
  */
 public class HeightMap {
 
     /**
-     * The width of the map
+     * The maximum number of samples in a page, unless a single row is larger
+     */
+    static final int MAX_PAGE_SIZE = 1 << 26;
+
+    /**
+     * The number of samples along the x axis
      */
     private final int width;
 
     /**
-     * The depth of the map
+     * The number of samples along the z axis
      */
     private final int depth;
 
+    /**
+     * The distance between two samples
+     */
+    private final int step;
+
+    /**
+     * The world x coordinate of the first sample
+     */
+    private final int originX;
+
+    /**
+     * The world z coordinate of the first sample
+     */
+    private final int originZ;
+
     /**
      * The scale of heights
      */
     private final int scale;
 
     /**
-     * The heights of the map
+     * The number of rows of samples stored in each page
      */
-    private final float[] heights;
+    private final int rowsPerPage;
+
+    /**
+     * The pages holding the heights of the map
+     */
+    private final FloatBuffer[] pages;
+
+    /**
+     * Whether the pages were allocated by the map and must be freed by {@link #destroy()}
+     */
+    private final boolean ownsPages;
 
     /**
      * Construct the height map
      * <p>
-     * Heights will be generated in the range [0; 1] then scaled by scale parameter
+     * Heights will be generated in the range [0; 1] then scaled by scale parameter.
+     * When more than one thread is requested, rows of the map are generated
+     * concurrently. Each height only depends on its coordinates so the result
+     * is the same whatever the number of threads.
+     * <p>
+     * To generate several maps in a row, prefer {@link HeightMapGenerator} which
+     * avoids regenerating noise when only the exponent or the scale change.
      *
      * @param parameters The parameters of the height map.
      */
     public HeightMap(final HeightMapParameters parameters) {
-        this.width = parameters.getWidth();
-        this.depth = parameters.getDepth();
-        this.scale = parameters.getScale();
-        this.heights = new float[this.width * this.depth];
-        for (int i = 0; i < this.width * this.depth; i++) {
-            final int x = i / this.depth;
-            final int z = i % this.depth;
-            final float noise = Noise.perlin(x * parameters.getFrequency(), 0, z * parameters.getFrequency(), parameters.getOctaves(),
-                    parameters.getPersistence());
-            this.heights[i] = (float) Math.pow(noise, parameters.getExponent()) * this.scale;
+        this(parameters.getSampleWidth(), parameters.getSampleDepth(), parameters.getStep(), parameters.getOriginX(),
+                parameters.getOriginZ(), parameters.getScale());
+        final float exponent = parameters.getExponent();
+        ParallelRows.forEach(parameters.getThreads(), this.width, (from, to) -> {
+            final var row = new float[this.depth];
+            for (int x = from; x < to; x++) {
+                HeightMapGenerator.generateNoiseRow(parameters, x, row, 0);
+                for (int z = 0; z < this.depth; z++) {
+                    row[z] = HeightMapGenerator.applyCurve(row[z], exponent, this.scale);
+                }
+                this.setRow(x, row, 0);
+            }
+        });
+    }
+
+    /**
+     * Construct a height map allocating uninitialized pages
+     *
+     * @param width   The number of samples along the x axis
+     * @param depth   The number of samples along the z axis
+     * @param step    The distance between two samples
+     * @param originX The world x coordinate of the first sample
+     * @param originZ The world z coordinate of the first sample
+     * @param scale   The scale of the heights
+     */
+    HeightMap(final int width, final int depth, final int step, final int originX, final int originZ, final int scale) {
+        this(width, depth, step, originX, originZ, scale, allocatePages(width, depth), true);
+    }
+
+    /**
+     * Construct a height map from existing pages
+     * <p>
+     * The pages must be laid out as described by {@link #getRowsPerPage(int)}
+     *
+     * @param width     The number of samples along the x axis
+     * @param depth     The number of samples along the z axis
+     * @param step      The distance between two samples
+     * @param originX   The world x coordinate of the first sample
+     * @param originZ   The world z coordinate of the first sample
+     * @param scale     The scale of the heights
+     * @param pages     The pages holding the heights. They are not copied
+     * @param ownsPages Whether the pages were allocated with {@link MemoryUtil} and should be freed with the map
+     */
+    HeightMap(final int width, final int depth, final int step, final int originX, final int originZ, final int scale,
+              final FloatBuffer[] pages, final boolean ownsPages) {
+        this.width = width;
+        this.depth = depth;
+        this.step = step;
+        this.originX = originX;
+        this.originZ = originZ;
+        this.scale = scale;
+        this.rowsPerPage = getRowsPerPage(depth);
+        this.pages = pages;
+        this.ownsPages = ownsPages;
+    }
+
+    /**
+     * Get the number of rows stored in each page of a map
+     * <p>
+     * Pages hold whole rows and at most {@link #MAX_PAGE_SIZE} samples unless a
+     * single row is larger, so maps can hold more samples than an array
+     *
+     * @param depth The number of samples along the z axis
+     * @return The number of rows per page
+     */
+    static int getRowsPerPage(final int depth) {
+        return Math.max(1, MAX_PAGE_SIZE / depth);
+    }
+
+    /**
+     * Allocate the uninitialized pages of a map
+     *
+     * @param width The number of samples along the x axis
+     * @param depth The number of samples along the z axis
+     * @return The pages, laid out as described by {@link #getRowsPerPage(int)}
+     */
+    static FloatBuffer[] allocatePages(final int width, final int depth) {
+        final int rowsPerPage = getRowsPerPage(depth);
+        final var pages = new FloatBuffer[(width + rowsPerPage - 1) / rowsPerPage];
+        for (int page = 0; page < pages.length; page++) {
+            final int rows = Math.min(rowsPerPage, width - page * rowsPerPage);
+            pages[page] = MemoryUtil.memAllocFloat(rows * depth);
+        }
+        return pages;
+    }
+
+    /**
+     * Free the memory of the map if it owns it
+     * <p>
+     * The map must not be used afterwards
+     */
+    public void destroy() {
+        if (this.ownsPages) {
+            for (final var page : this.pages) {
+                MemoryUtil.memFree(page);
+            }
         }
     }
 
     /**
      * Get the height at given coordinates
      *
-     * @param x The x coordinate
-     * @param z The z coordinate
+     * @param x The x index of the sample
+     * @param z The z index of the sample
      * @return The height a these coordinates
      */
     public float getHeight(final int x, final int z) {
-        return this.heights[x * this.depth + z];
+        return this.pages[x / this.rowsPerPage].get((x % this.rowsPerPage) * this.depth + z);
+    }
+
+    /**
+     * Overwrite the height at given coordinates
+     *
+     * @param x      The x index of the sample
+     * @param z      The z index of the sample
+     * @param height The new height
+     */
+    void setHeight(final int x, final int z, final float height) {
+        this.pages[x / this.rowsPerPage].put((x % this.rowsPerPage) * this.depth + z, height);
+    }
+
+    /**
+     * Create a copy of the map owning its memory
+     * <p>
+     * Useful to modify maps whose pages are shared, such as pooled maps
+     *
+     * @return The copy
+     */
+    public HeightMap copy() {
+        final var copy = new HeightMap(this.width, this.depth, this.step, this.originX, this.originZ, this.scale);
+        this.copyTo(copy);
+        return copy;
+    }
+
+    /**
+     * Create a copy of a region of the map owning its memory
+     * <p>
+     * The origin of the copy is the world position of the first sample of the region
+     *
+     * @param fromX The x index of the first sample of the region
+     * @param fromZ The z index of the first sample of the region
+     * @param width The number of samples of the region along the x axis
+     * @param depth The number of samples of the region along the z axis
+     * @return The copy
+     * @throws IllegalArgumentException If the region is empty or not contained in the map
+     */
+    public HeightMap copy(final int fromX, final int fromZ, final int width, final int depth) {
+        if (fromX < 0 || fromZ < 0 || width < 1 || depth < 1 || fromX + width > this.width || fromZ + depth > this.depth) {
+            throw new IllegalArgumentException("The region " + fromX + ", " + fromZ + " of " + width + "x" + depth
+                    + " is not contained in the map of " + this.width + "x" + this.depth);
+        }
+        final var copy = new HeightMap(width, depth, this.step, this.originX + fromX * this.step, this.originZ + fromZ * this.step,
+                this.scale);
+        final var row = new float[this.depth];
+        for (int x = 0; x < width; x++) {
+            this.getRow(fromX + x, row, 0);
+            copy.setRow(x, row, fromZ);
+        }
+        return copy;
+    }
+
+    /**
+     * Copy the heights of the map into a map with the same dimensions
+     *
+     * @param dst The map to overwrite
+     */
+    void copyTo(final HeightMap dst) {
+        for (int page = 0; page < this.pages.length; page++) {
+            dst.pages[page].clear().put(this.pages[page].duplicate().clear()).clear();
+        }
+    }
+
+    /**
+     * Copy a row of heights into an array
+     *
+     * @param x      The x index of the row
+     * @param dst    The array in which to copy the heights
+     * @param offset The position of the first height in the array
+     */
+    public void getRow(final int x, final float[] dst, final int offset) {
+        this.pages[x / this.rowsPerPage].duplicate().position((x % this.rowsPerPage) * this.depth).get(dst, offset, this.depth);
+    }
+
+    /**
+     * Overwrite a row of heights
+     *
+     * @param x      The x index of the row
+     * @param src    The array containing the heights
+     * @param offset The position of the first height in the array
+     */
+    void setRow(final int x, final float[] src, final int offset) {
+        this.pages[x / this.rowsPerPage].duplicate().position((x % this.rowsPerPage) * this.depth).put(src, offset, this.depth);
+    }
+
+    /**
+     * Get the number of pages holding the heights
+     *
+     * @return The number of pages
+     */
+    public int getPageCount() {
+        return this.pages.length;
+    }
+
+    /**
+     * Get a page of heights
+     * <p>
+     * Page i holds the rows from i * {@link #getRowsPerPage()} in x major
+     * order. The returned buffer is the storage of the map, not a copy, so it
+     * can be handed to the gpu directly
+     *
+     * @param page The index of the page
+     * @return The heights of the page
+     */
+    public FloatBuffer getPage(final int page) {
+        return this.pages[page];
+    }
+
+    public int getRowsPerPage() {
+        return rowsPerPage;
     }
 
     public int getWidth() {
@@ -72,6 +313,18 @@ public class HeightMap {
         return depth;
     }
 
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
     public int getScale() {
         return scale;
     }
@@ -0,0 +1,91 @@
+package com.adrien.games.landscapes.terrain;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of the pages of intermediate height maps
+ * <p>
+ * Maps acquired from the pool do not own their pages, they must be given
+ * back with {@link #release(HeightMap)} instead of being destroyed. Pages
+ * are kept by dimensions so changing the parameters of a map without
+ * changing its number of samples does not allocate any memory.
+ * <p>
+ * A pool is not thread safe.
+ *
+ * @author adrien
+ */
+class HeightMapBufferPool {
+
+    private final int maxFreePerSize;
+    private final Map<Long, Deque<FloatBuffer[]>> free;
+
+    /**
+     * Construct a pool
+     *
+     * @param maxFreePerSize The maximum number of released page sets of each dimensions kept for reuse
+     */
+    HeightMapBufferPool(final int maxFreePerSize) {
+        this.maxFreePerSize = maxFreePerSize;
+        this.free = new HashMap<>();
+    }
+
+    /**
+     * Get a map with the dimensions and the metadata of some parameters, reusing released pages if possible
+     *
+     * @param parameters The parameters of the map
+     * @return The map. Its heights are undefined
+     */
+    HeightMap acquire(final HeightMapParameters parameters) {
+        final int width = parameters.getSampleWidth();
+        final int depth = parameters.getSampleDepth();
+        final var released = this.free.get(getKey(width, depth));
+        final var pages = released == null || released.isEmpty() ? HeightMap.allocatePages(width, depth) : released.pop();
+        return new HeightMap(width, depth, parameters.getStep(), parameters.getOriginX(), parameters.getOriginZ(),
+                parameters.getScale(), pages, false);
+    }
+
+    /**
+     * Give the pages of a map acquired from the pool back
+     * <p>
+     * The map must not be used afterwards
+     *
+     * @param map The map to release
+     */
+    void release(final HeightMap map) {
+        final var pages = new FloatBuffer[map.getPageCount()];
+        for (int page = 0; page < pages.length; page++) {
+            pages[page] = map.getPage(page);
+        }
+        final var released = this.free.computeIfAbsent(getKey(map.getWidth(), map.getDepth()), key -> new ArrayDeque<>());
+        if (released.size() < this.maxFreePerSize) {
+            released.push(pages);
+        } else {
+            free(pages);
+        }
+    }
+
+    /**
+     * Free all released pages
+     */
+    void destroy() {
+        this.free.values().forEach(released -> released.forEach(HeightMapBufferPool::free));
+        this.free.clear();
+    }
+
+    private static void free(final FloatBuffer[] pages) {
+        for (final var page : pages) {
+            MemoryUtil.memFree(page);
+        }
+    }
+
+    private static long getKey(final int width, final int depth) {
+        return (long) width << Integer.SIZE | depth;
+    }
+
+}
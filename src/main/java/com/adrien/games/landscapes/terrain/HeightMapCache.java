@@ -0,0 +1,367 @@
+package com.adrien.games.landscapes.terrain;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of {@link HeightMap}s
+ * <p>
+ * Each map is stored in its own file named after the content hash of its
+ * parameters and the configuration hash of the pipeline that generated it,
+ * see {@link HeightMapPipeline#getConfigurationHash()}. A file starts with a
+ * header holding both hashes, the parameters, the dimensions of the map and
+ * a CRC32 checksum of the heights, followed by
+ * the heights in little endian order. Files are read and written through
+ * memory mapped buffers, one page of the map at a time, and each mapping is
+ * released as soon as its page is copied. Loaded maps own their memory and
+ * no file stays mapped or open once a call returns.
+ * <p>
+ * Loads and stores of a cache are serialized so a file is never replaced
+ * or evicted while it is mapped.
+ * <p>
+ * A map generated by a chain of stages is never served for another chain,
+ * or for the same stages with other settings, even if the parameters match.
+ * <p>
+ * When the cache holds more maps than its capacity, the least recently
+ * used files are deleted.
+ *
+ * @author adrien
+ */
+public class HeightMapCache {
+
+    private static final int MAGIC = 0x484d4150;
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 88;
+    private static final int SEED_OFFSET = 72;
+    private static final int CHECKSUM_OFFSET = 68;
+    private static final int PIPELINE_OFFSET = 80;
+    private static final String EXTENSION = ".hmap";
+
+    /**
+     * Unsafe.invokeCleaner bound to the unsafe instance, used to release mappings deterministically
+     */
+    private static final MethodHandle INVOKE_CLEANER = findCleaner();
+
+    private final Path directory;
+    private final int capacity;
+
+    /**
+     * Construct a cache
+     *
+     * @param directory The directory in which to store maps. Created if missing
+     * @param capacity  The maximum number of maps to keep
+     */
+    public HeightMapCache(final Path directory, final int capacity) {
+        this.directory = directory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Load a map from the cache
+     * <p>
+     * Files whose header does not match the parameters and the pipeline or
+     * whose heights do not match the checksum are deleted and reported as missing
+     *
+     * @param parameters   The parameters of the map
+     * @param pipelineHash The configuration hash of the pipeline generating the map
+     * @return The map or null if it is not in the cache. The caller is responsible for destroying it
+     * @throws UncheckedIOException If the file exists but cannot be read
+     */
+    public synchronized HeightMap load(final HeightMapParameters parameters, final long pipelineHash) {
+        final var file = this.getFile(parameters, pipelineHash);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        final HeightMap map;
+        try (final var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            map = read(channel, parameters, pipelineHash);
+        } catch (final IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        try {
+            if (map == null) {
+                Files.delete(file);
+            } else {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (final IOException exception) {
+            if (map != null) {
+                map.destroy();
+            }
+            throw new UncheckedIOException(exception);
+        }
+        return map;
+    }
+
+    /**
+     * Read a map from a cache file
+     * <p>
+     * Each page of heights is mapped, checked against the checksum and copied
+     * into the pages of the map, then unmapped before the next one is mapped
+     *
+     * @param channel      The channel of the file
+     * @param parameters   The parameters of the map
+     * @param pipelineHash The configuration hash of the pipeline generating the map
+     * @return The map or null if the file does not match the parameters, the pipeline or the checksum
+     * @throws IOException If the file cannot be read
+     */
+    private static HeightMap read(final FileChannel channel, final HeightMapParameters parameters, final long pipelineHash)
+            throws IOException {
+        final int width = parameters.getSampleWidth();
+        final int depth = parameters.getSampleDepth();
+        if (channel.size() != HEADER_SIZE + (long) width * depth * Float.BYTES) {
+            return null;
+        }
+        final var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final var mappedHeader = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        try {
+            header.put(mappedHeader).clear();
+        } finally {
+            unmap(mappedHeader);
+        }
+        if (!matches(header, parameters, pipelineHash)) {
+            return null;
+        }
+        final var map = new HeightMap(width, depth, parameters.getStep(), parameters.getOriginX(), parameters.getOriginZ(),
+                parameters.getScale());
+        try {
+            final var crc = new CRC32();
+            for (int page = 0; page < map.getPageCount(); page++) {
+                final var pageBytes = mapPage(channel, FileChannel.MapMode.READ_ONLY, page, width, depth);
+                try {
+                    crc.update(pageBytes.duplicate());
+                    map.getPage(page).duplicate().clear().put(pageBytes.asFloatBuffer());
+                } finally {
+                    unmap(pageBytes);
+                }
+            }
+            if (crc.getValue() != Integer.toUnsignedLong(header.getInt(CHECKSUM_OFFSET))) {
+                map.destroy();
+                return null;
+            }
+            return map;
+        } catch (final IOException | RuntimeException exception) {
+            map.destroy();
+            throw exception;
+        }
+    }
+
+    /**
+     * Store a map in the cache
+     * <p>
+     * The map is written to a temporary file which is then moved in place so
+     * readers never see a partially written file. The temporary file is
+     * deleted if the map cannot be written
+     *
+     * @param parameters   The parameters the map was generated from
+     * @param pipelineHash The configuration hash of the pipeline that generated the map
+     * @param map          The map to store
+     * @throws UncheckedIOException If the map cannot be written
+     */
+    public synchronized void store(final HeightMapParameters parameters, final long pipelineHash, final HeightMap map) {
+        final var file = this.getFile(parameters, pipelineHash);
+        try {
+            Files.createDirectories(this.directory);
+            final var temporary = Files.createTempFile(this.directory, null, null);
+            try {
+                write(temporary, parameters, pipelineHash, map);
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (final IOException | RuntimeException exception) {
+                Files.deleteIfExists(temporary);
+                throw exception;
+            }
+            this.evict();
+        } catch (final IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Write a map in the format of the cache files
+     * <p>
+     * Files written to a directory under the name returned by {@link #getFileName(HeightMapParameters, long)}
+     * can later be loaded by a cache using this directory.
+     * <p>
+     * The file is not forced to disk: maps can always be generated again
+     * and files torn by a crash fail the checksum when loaded
+     *
+     * @param file         The file to write. Created if missing
+     * @param parameters   The parameters the map was generated from
+     * @param pipelineHash The configuration hash of the pipeline that generated the map
+     * @param map          The map to write
+     * @throws IOException If the file cannot be written
+     */
+    public static void write(final Path file, final HeightMapParameters parameters, final long pipelineHash, final HeightMap map)
+            throws IOException {
+        try (final var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final var crc = new CRC32();
+            for (int page = 0; page < map.getPageCount(); page++) {
+                final var pageBytes = mapPage(channel, FileChannel.MapMode.READ_WRITE, page, map.getWidth(), map.getDepth());
+                try {
+                    pageBytes.asFloatBuffer().put(map.getPage(page).duplicate().clear());
+                    crc.update(pageBytes.duplicate());
+                } finally {
+                    unmap(pageBytes);
+                }
+            }
+            final var header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            try {
+                writeHeader(header.duplicate().order(ByteOrder.LITTLE_ENDIAN), parameters, pipelineHash, crc.getValue());
+            } finally {
+                unmap(header);
+            }
+        }
+    }
+
+    /**
+     * Map the region of a file holding a page of heights
+     * <p>
+     * The mapping must be released by {@link #unmap(MappedByteBuffer)}
+     *
+     * @param channel The channel of the file
+     * @param mode    The mapping mode
+     * @param page    The index of the page
+     * @param width   The number of samples of the map along the x axis
+     * @param depth   The number of samples of the map along the z axis
+     * @return The little endian mapped bytes of the page
+     * @throws IOException If the region cannot be mapped
+     */
+    private static MappedByteBuffer mapPage(final FileChannel channel, final FileChannel.MapMode mode, final int page, final int width,
+                                            final int depth) throws IOException {
+        final int rowsPerPage = HeightMap.getRowsPerPage(depth);
+        final int rows = Math.min(rowsPerPage, width - page * rowsPerPage);
+        final long position = HEADER_SIZE + (long) page * rowsPerPage * depth * Float.BYTES;
+        final var pageBytes = channel.map(mode, position, (long) rows * depth * Float.BYTES);
+        pageBytes.order(ByteOrder.LITTLE_ENDIAN);
+        return pageBytes;
+    }
+
+    /**
+     * Release a mapping right away instead of when the buffer is garbage collected
+     * <p>
+     * The buffer and its views must not be used afterwards
+     *
+     * @param buffer The mapped buffer to release
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            INVOKE_CLEANER.invokeExact((ByteBuffer) buffer);
+        } catch (final Throwable throwable) {
+            throw new IllegalStateException("Cannot release a mapped buffer", throwable);
+        }
+    }
+
+    private static MethodHandle findCleaner() {
+        try {
+            final var unsafeClass = Class.forName("sun.misc.Unsafe");
+            final var field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (final ReflectiveOperationException exception) {
+            throw new IllegalStateException("Cannot access the cleaner of mapped buffers", exception);
+        }
+    }
+
+    private Path getFile(final HeightMapParameters parameters, final long pipelineHash) {
+        return this.directory.resolve(getFileName(parameters, pipelineHash));
+    }
+
+    /**
+     * Get the name of the file holding the map generated from given parameters by a pipeline
+     *
+     * @param parameters   The parameters of the map
+     * @param pipelineHash The configuration hash of the pipeline generating the map
+     * @return The name of the file
+     */
+    public static String getFileName(final HeightMapParameters parameters, final long pipelineHash) {
+        return Long.toHexString(parameters.contentHash()) + '-' + Long.toHexString(pipelineHash) + EXTENSION;
+    }
+
+    /**
+     * Delete the least recently used files until the cache fits its capacity
+     *
+     * @throws IOException If the directory cannot be listed or a file cannot be deleted
+     */
+    private void evict() throws IOException {
+        final Comparator<Path> byLastModified = Comparator.comparing(file -> file.toFile().lastModified());
+        try (final var files = Files.list(this.directory)) {
+            final var maps = files.filter(file -> file.getFileName().toString().endsWith(EXTENSION))
+                    .sorted(byLastModified.reversed())
+                    .collect(Collectors.toList());
+            for (int i = this.capacity; i < maps.size(); i++) {
+                Files.deleteIfExists(maps.get(i));
+            }
+        }
+    }
+
+    private static void writeHeader(final ByteBuffer buffer, final HeightMapParameters parameters, final long pipelineHash,
+                                    final long checksum) {
+        buffer.putInt(0, MAGIC)
+                .putInt(4, VERSION)
+                .putLong(8, parameters.contentHash())
+                .putInt(16, parameters.getWidth())
+                .putInt(20, parameters.getDepth())
+                .putInt(24, parameters.getScale())
+                .putFloat(28, parameters.getFrequency())
+                .putInt(32, parameters.getOctaves())
+                .putFloat(36, parameters.getPersistence())
+                .putFloat(40, parameters.getExponent())
+                .putInt(44, parameters.getNoise().ordinal())
+                .putInt(48, parameters.getStep())
+                .putInt(52, parameters.getOriginX())
+                .putInt(56, parameters.getOriginZ())
+                .putLong(60, (long) parameters.getSampleWidth() * parameters.getSampleDepth())
+                .putInt(CHECKSUM_OFFSET, (int) checksum)
+                .putLong(SEED_OFFSET, parameters.getSeed())
+                .putLong(PIPELINE_OFFSET, pipelineHash);
+    }
+
+    /**
+     * Check that a header was written for given parameters and pipeline
+     * <p>
+     * All parameters are compared so that hash collisions are detected
+     *
+     * @param buffer       The buffer containing the header
+     * @param parameters   The expected parameters
+     * @param pipelineHash The expected configuration hash of the pipeline
+     * @return true if the header matches
+     */
+    private static boolean matches(final ByteBuffer buffer, final HeightMapParameters parameters, final long pipelineHash) {
+        return buffer.getInt(0) == MAGIC
+                && buffer.getInt(4) == VERSION
+                && buffer.getLong(8) == parameters.contentHash()
+                && buffer.getInt(16) == parameters.getWidth()
+                && buffer.getInt(20) == parameters.getDepth()
+                && buffer.getInt(24) == parameters.getScale()
+                && buffer.getFloat(28) == parameters.getFrequency()
+                && buffer.getInt(32) == parameters.getOctaves()
+                && buffer.getFloat(36) == parameters.getPersistence()
+                && buffer.getFloat(40) == parameters.getExponent()
+                && buffer.getInt(44) == parameters.getNoise().ordinal()
+                && buffer.getInt(48) == parameters.getStep()
+                && buffer.getInt(52) == parameters.getOriginX()
+                && buffer.getInt(56) == parameters.getOriginZ()
+                && buffer.getLong(60) == (long) parameters.getSampleWidth() * parameters.getSampleDepth()
+                && buffer.getLong(SEED_OFFSET) == parameters.getSeed()
+                && buffer.getLong(PIPELINE_OFFSET) == pipelineHash;
+    }
+
+}
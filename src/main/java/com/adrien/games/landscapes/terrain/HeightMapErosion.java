@@ -0,0 +1,352 @@
+package com.adrien.games.landscapes.terrain;
+
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Erodes a {@link HeightMap} in place
+ * <p>
+ * Each iteration runs a hydraulic pass followed by a thermal pass.
+ * <p>
+ * The hydraulic pass simulates water droplets running down the terrain,
+ * eroding it when they speed up and depositing their sediment when they slow
+ * down. The map is split into square tiles colored like a checkerboard with
+ * four colors, and droplets start in a tile and cannot leave it by more than
+ * a margin. The areas touched by the droplets of tiles of the same color are
+ * then disjoint so these tiles are processed concurrently without locking.
+ * The four colors are processed one after the other and the tiling is shifted
+ * randomly at each iteration so no seam forms along tile borders. Each tile
+ * draws its droplets from its own random generator so the result does not
+ * depend on the number of threads.
+ * <p>
+ * The thermal pass lets material slide down slopes steeper than the talus.
+ * The heights of the previous pass are kept in a second map, and each sample
+ * only writes its own height, adding what its neighbours send and removing
+ * what it sends them, so rows are processed concurrently and the total
+ * amount of material is preserved.
+ * <p>
+ * Erosion can be run incrementally with {@link #run(int)} so the map can be
+ * displayed between two batches of iterations.
+ *
+ * @author adrien
+ */
+public class HeightMapErosion {
+
+    private static final int COLORS = 4;
+    private static final float MIN_DIRECTION_LENGTH = 1e-6f;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final HeightMap map;
+    private final ErosionParameters parameters;
+    private final HeightMap previous;
+    private final int margin;
+    private final int[] brushOffsetsX;
+    private final int[] brushOffsetsZ;
+    private final float[] brushWeights;
+    private int iteration;
+
+    /**
+     * Prepare the erosion of a map
+     * <p>
+     * The map is modified in place so it must own writable pages, see {@link HeightMap#copy()}
+     *
+     * @param map        The map to erode
+     * @param parameters The parameters of the erosion. Copied
+     * @throws IllegalArgumentException If the tiles are too small for the radius of the droplets
+     */
+    public HeightMapErosion(final HeightMap map, final ErosionParameters parameters) {
+        this.margin = parameters.getTileSize() / 2 - parameters.getRadius() - 2;
+        if (this.margin < 0) {
+            throw new IllegalArgumentException("Erosion tiles of size " + parameters.getTileSize() + " are too small for a radius of "
+                    + parameters.getRadius());
+        }
+        this.map = map;
+        this.parameters = parameters.copy();
+        this.previous = map.copy();
+
+        final int radius = parameters.getRadius();
+        final var offsetsX = new ArrayList<Integer>();
+        final var offsetsZ = new ArrayList<Integer>();
+        final var weights = new ArrayList<Float>();
+        float weightSum = 0;
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                final float weight = radius + 1 - (float) Math.sqrt(x * x + z * z);
+                if (weight > 0) {
+                    offsetsX.add(x);
+                    offsetsZ.add(z);
+                    weights.add(weight);
+                    weightSum += weight;
+                }
+            }
+        }
+        this.brushOffsetsX = offsetsX.stream().mapToInt(Integer::intValue).toArray();
+        this.brushOffsetsZ = offsetsZ.stream().mapToInt(Integer::intValue).toArray();
+        this.brushWeights = new float[weights.size()];
+        for (int i = 0; i < this.brushWeights.length; i++) {
+            this.brushWeights[i] = weights.get(i) / weightSum;
+        }
+    }
+
+    /**
+     * Run iterations of erosion
+     *
+     * @param iterations The maximum number of iterations to run
+     * @return The number of iterations actually run, less than requested if the erosion is complete
+     */
+    public int run(final int iterations) {
+        final int count = Math.min(iterations, this.parameters.getIterations() - this.iteration);
+        for (int i = 0; i < count; i++) {
+            this.runHydraulicPass();
+            this.runThermalPass();
+            this.iteration++;
+        }
+        return Math.max(count, 0);
+    }
+
+    /**
+     * Release the memory used by the erosion. The eroded map is not released
+     */
+    public void destroy() {
+        this.previous.destroy();
+    }
+
+    public boolean isComplete() {
+        return this.iteration >= this.parameters.getIterations();
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    private void runHydraulicPass() {
+        final int tileSize = this.parameters.getTileSize();
+        final var random = new SplittableRandom(mix(this.parameters.getSeed(), this.iteration));
+        final int shiftX = random.nextInt(tileSize);
+        final int shiftZ = random.nextInt(tileSize);
+        final int tilesX = (this.map.getWidth() + shiftX + tileSize - 1) / tileSize;
+        final int tilesZ = (this.map.getDepth() + shiftZ + tileSize - 1) / tileSize;
+        final float dropletsPerSample = (float) this.parameters.getDroplets() / (this.map.getWidth() * this.map.getDepth());
+        for (int color = 0; color < COLORS; color++) {
+            final List<int[]> tiles = new ArrayList<>();
+            for (int tileX = color & 1; tileX < tilesX; tileX += 2) {
+                for (int tileZ = color >> 1; tileZ < tilesZ; tileZ += 2) {
+                    tiles.add(new int[]{tileX * tileSize - shiftX, tileZ * tileSize - shiftZ});
+                }
+            }
+            ParallelRows.forEach(this.parameters.getThreads(), tiles.size(), (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    final int[] tile = tiles.get(i);
+                    final long tilePosition = (long) tile[0] << Integer.SIZE | tile[1] & 0xffffffffL;
+                    final long tileSeed = mix(mix(this.parameters.getSeed(), this.iteration), tilePosition);
+                    this.runTile(tile[0], tile[1], dropletsPerSample, new SplittableRandom(tileSeed));
+                }
+            });
+        }
+    }
+
+    /**
+     * Simulate the droplets of a tile
+     *
+     * @param tileX             The x index of the first sample of the tile, can be negative
+     * @param tileZ             The z index of the first sample of the tile, can be negative
+     * @param dropletsPerSample The average number of droplets starting on each sample
+     * @param random            The random generator of the tile
+     */
+    private void runTile(final int tileX, final int tileZ, final float dropletsPerSample, final SplittableRandom random) {
+        final int tileSize = this.parameters.getTileSize();
+        // droplets read and write the four samples around them so they must stay one sample away from the last row and column
+        final int maxX = this.map.getWidth() - 1;
+        final int maxZ = this.map.getDepth() - 1;
+        final int fromX = Math.max(0, tileX);
+        final int fromZ = Math.max(0, tileZ);
+        final int toX = Math.min(maxX, tileX + tileSize);
+        final int toZ = Math.min(maxZ, tileZ + tileSize);
+        if (fromX >= toX || fromZ >= toZ) {
+            return;
+        }
+        final var region = new float[]{Math.max(0, tileX - this.margin), Math.max(0, tileZ - this.margin),
+                Math.min(maxX, tileX + tileSize + this.margin), Math.min(maxZ, tileZ + tileSize + this.margin)};
+        final float expected = dropletsPerSample * (toX - fromX) * (toZ - fromZ);
+        final int droplets = (int) expected + (random.nextDouble() < expected - (int) expected ? 1 : 0);
+        for (int i = 0; i < droplets; i++) {
+            final float x = fromX + (float) random.nextDouble() * (toX - fromX);
+            final float z = fromZ + (float) random.nextDouble() * (toZ - fromZ);
+            this.runDroplet(x, z, region);
+        }
+    }
+
+    /**
+     * Simulate a droplet until it evaporates, stops or leaves its region
+     *
+     * @param startX The initial x coordinate of the droplet in samples
+     * @param startZ The initial z coordinate of the droplet in samples
+     * @param region The area the droplet cannot leave as min x, min z, max x and max z
+     */
+    private void runDroplet(final float startX, final float startZ, final float[] region) {
+        final float inertia = this.parameters.getInertia();
+        final var sample = new float[3];
+        float x = startX;
+        float z = startZ;
+        float directionX = 0;
+        float directionZ = 0;
+        float speed = 1;
+        float water = 1;
+        float sediment = 0;
+        for (int move = 0; move < this.parameters.getLifetime(); move++) {
+            final int nodeX = (int) x;
+            final int nodeZ = (int) z;
+            final float cellX = x - nodeX;
+            final float cellZ = z - nodeZ;
+            this.sample(x, z, sample);
+            final float height = sample[0];
+
+            directionX = directionX * inertia - sample[1] * (1 - inertia);
+            directionZ = directionZ * inertia - sample[2] * (1 - inertia);
+            final float length = (float) Math.sqrt(directionX * directionX + directionZ * directionZ);
+            if (length < MIN_DIRECTION_LENGTH) {
+                break;
+            }
+            directionX /= length;
+            directionZ /= length;
+            x += directionX;
+            z += directionZ;
+            if (x < region[0] || z < region[1] || x >= region[2] || z >= region[3]) {
+                break;
+            }
+
+            this.sample(x, z, sample);
+            final float deltaHeight = sample[0] - height;
+            final float capacity = Math.max(-deltaHeight * speed * water * this.parameters.getCapacity(),
+                    this.parameters.getMinCapacity());
+            if (sediment > capacity || deltaHeight > 0) {
+                final float deposit = deltaHeight > 0
+                        ? Math.min(deltaHeight, sediment)
+                        : (sediment - capacity) * this.parameters.getDepositSpeed();
+                sediment -= deposit;
+                this.deposit(nodeX, nodeZ, cellX, cellZ, deposit);
+            } else {
+                final float erosion = Math.min((capacity - sediment) * this.parameters.getErodeSpeed(), -deltaHeight);
+                sediment += this.erode(nodeX, nodeZ, erosion);
+            }
+            speed = (float) Math.sqrt(Math.max(0, speed * speed + deltaHeight * this.parameters.getGravity()));
+            water *= 1 - this.parameters.getEvaporateSpeed();
+        }
+    }
+
+    /**
+     * Bilinearly interpolate the height and the gradient of the map
+     *
+     * @param x   The x coordinate in samples
+     * @param z   The z coordinate in samples
+     * @param dst The array receiving the height and the gradient along x and z
+     */
+    private void sample(final float x, final float z, final float[] dst) {
+        final int nodeX = (int) x;
+        final int nodeZ = (int) z;
+        final float u = x - nodeX;
+        final float v = z - nodeZ;
+        final float h00 = this.map.getHeight(nodeX, nodeZ);
+        final float h10 = this.map.getHeight(nodeX + 1, nodeZ);
+        final float h01 = this.map.getHeight(nodeX, nodeZ + 1);
+        final float h11 = this.map.getHeight(nodeX + 1, nodeZ + 1);
+        dst[0] = h00 * (1 - u) * (1 - v) + h10 * u * (1 - v) + h01 * (1 - u) * v + h11 * u * v;
+        dst[1] = (h10 - h00) * (1 - v) + (h11 - h01) * v;
+        dst[2] = (h01 - h00) * (1 - u) + (h11 - h10) * u;
+    }
+
+    private void deposit(final int nodeX, final int nodeZ, final float cellX, final float cellZ, final float amount) {
+        this.add(nodeX, nodeZ, amount * (1 - cellX) * (1 - cellZ));
+        this.add(nodeX + 1, nodeZ, amount * cellX * (1 - cellZ));
+        this.add(nodeX, nodeZ + 1, amount * (1 - cellX) * cellZ);
+        this.add(nodeX + 1, nodeZ + 1, amount * cellX * cellZ);
+    }
+
+    /**
+     * Erode the samples around a node, never digging below zero
+     *
+     * @param nodeX  The x index of the node
+     * @param nodeZ  The z index of the node
+     * @param amount The amount of material to remove
+     * @return The amount of material actually removed
+     */
+    private float erode(final int nodeX, final int nodeZ, final float amount) {
+        float eroded = 0;
+        for (int i = 0; i < this.brushWeights.length; i++) {
+            final int x = nodeX + this.brushOffsetsX[i];
+            final int z = nodeZ + this.brushOffsetsZ[i];
+            if (x < 0 || z < 0 || x >= this.map.getWidth() || z >= this.map.getDepth()) {
+                continue;
+            }
+            final float height = this.map.getHeight(x, z);
+            final float delta = Math.min(height, amount * this.brushWeights[i]);
+            this.map.setHeight(x, z, height - delta);
+            eroded += delta;
+        }
+        return eroded;
+    }
+
+    private void add(final int x, final int z, final float amount) {
+        this.map.setHeight(x, z, this.map.getHeight(x, z) + amount);
+    }
+
+    private void runThermalPass() {
+        this.map.copyTo(this.previous);
+        final int width = this.map.getWidth();
+        final int depth = this.map.getDepth();
+        final float talus = this.parameters.getTalus() * this.map.getStep();
+        final float rate = this.parameters.getThermalRate() / 2;
+        ParallelRows.forEach(this.parameters.getThreads(), width, (from, to) -> {
+            for (int x = from; x < to; x++) {
+                for (int z = 0; z < depth; z++) {
+                    final float height = this.previous.getHeight(x, z);
+                    float delta = 0;
+                    if (x > 0) {
+                        delta += this.slide(height, this.previous.getHeight(x - 1, z), talus);
+                    }
+                    if (x < width - 1) {
+                        delta += this.slide(height, this.previous.getHeight(x + 1, z), talus);
+                    }
+                    if (z > 0) {
+                        delta += this.slide(height, this.previous.getHeight(x, z - 1), talus);
+                    }
+                    if (z < depth - 1) {
+                        delta += this.slide(height, this.previous.getHeight(x, z + 1), talus);
+                    }
+                    this.map.setHeight(x, z, height + delta * rate);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compute the material exchanged between two neighbouring samples, before applying the rate
+     * <p>
+     * The result is opposite when the samples are swapped so the exchange preserves material
+     *
+     * @param height    The height of the sample
+     * @param neighbour The height of its neighbour
+     * @param talus     The height difference above which material slides
+     * @return The material received by the sample, negative if it loses material
+     */
+    private float slide(final float height, final float neighbour, final float talus) {
+        final float difference = neighbour - height;
+        if (difference > talus) {
+            return difference - talus;
+        }
+        if (difference < -talus) {
+            return difference + talus;
+        }
+        return 0;
+    }
+
+    private static long mix(final long seed, final long value) {
+        long hash = (seed ^ value) * GOLDEN_GAMMA;
+        hash ^= hash >>> 31;
+        return hash;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.adrien.games.landscapes.terrain;
+
+import com.adrien.games.landscapes.terrain.noise.FbmNoise2D;
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+import com.adrienben.games.bagl.core.math.Noise;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Height map generator
+ * <p>
+ * Generates height maps through a {@link HeightMapPipeline}, by default
+ * the raw noise normalized in the range [0; 1] followed by the curve raising
+ * it to the power of the exponent and scaling the result.
+ * <p>
+ * The outputs of the stages are kept between two generations so changing
+ * the exponent or the scale only re-runs the cheap curve stage, see
+ * {@link HeightMapPipeline}.
+ * <p>
+ * A generator is not thread safe, it should only be used by one thread at a time.
+ *
+ * @author adrien
+ */
+public class HeightMapGenerator {
+
+    /**
+     * Shared 2D noise generators by seed
+     */
+    private static final Map<Long, FbmNoise2D> FBM_NOISES = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of 2D noise generators kept, so sweeps over many seeds do not accumulate them
+     */
+    private static final int MAX_CACHED_SEEDS = 64;
+
+    /**
+     * Number of slices of the 3D noise selectable by the seed per unit of the y axis
+     */
+    private static final float SEED_SLICES_PER_UNIT = 256f;
+
+    /**
+     * Number of distinct slices of the 3D noise selectable by the seed
+     */
+    private static final int SEED_SLICES = 1 << 16;
+
+    private final HeightMapPipeline pipeline;
+
+    /**
+     * Construct a generator using the default pipeline, see {@link HeightMapPipeline#createDefault()}
+     */
+    public HeightMapGenerator() {
+        this(HeightMapPipeline.createDefault());
+    }
+
+    /**
+     * Construct a generator using a custom pipeline
+     *
+     * @param pipeline The pipeline generating the maps. Destroyed along with the generator
+     */
+    public HeightMapGenerator(final HeightMapPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Generate a height map
+     * <p>
+     * Only the stages of the pipeline whose output is outdated run
+     *
+     * @param parameters The parameters of the map
+     * @return A new height map
+     */
+    public HeightMap generate(final HeightMapParameters parameters) {
+        return this.pipeline.generate(parameters);
+    }
+
+    /**
+     * Release the memory kept by the pipeline
+     */
+    public void destroy() {
+        this.pipeline.destroy();
+    }
+
+    /**
+     * Generate the noise of one row of a map
+     *
+     * @param parameters The parameters of the map
+     * @param x          The x index of the row
+     * @param dst        The array in which to write the noise
+     * @param offset     The position of the first sample of the row in the array
+     */
+    static void generateNoiseRow(final HeightMapParameters parameters, final int x, final float[] dst, final int offset) {
+        final int depth = parameters.getSampleDepth();
+        final int step = parameters.getStep();
+        final int originZ = parameters.getOriginZ();
+        final float frequency = parameters.getFrequency();
+        final int octaves = parameters.getOctaves();
+        final float persistence = parameters.getPersistence();
+        final int worldX = parameters.getOriginX() + x * step;
+        if (parameters.getNoise() == NoiseType.FBM_2D) {
+            getFbmNoise(parameters.getSeed()).fillRow(worldX, originZ, step, depth, frequency, octaves, persistence, dst, offset);
+        } else {
+            final float y = getSeedSlice(parameters.getSeed());
+            for (int z = 0; z < depth; z++) {
+                dst[offset + z] = Noise.perlin(worldX * frequency, y, (originZ + z * step) * frequency, octaves, persistence);
+            }
+        }
+    }
+
+    private static FbmNoise2D getFbmNoise(final long seed) {
+        if (FBM_NOISES.size() > MAX_CACHED_SEEDS) {
+            FBM_NOISES.clear();
+        }
+        return FBM_NOISES.computeIfAbsent(seed, FbmNoise2D::new);
+    }
+
+    /**
+     * Get the y coordinate at which to sample the 3D noise for a seed
+     * <p>
+     * 3D noise has no permutation to shuffle so the seed selects a horizontal
+     * slice of it instead. The seed 0 keeps the slice at y = 0
+     *
+     * @param seed The seed of the map
+     * @return The y coordinate of the slice
+     */
+    private static float getSeedSlice(final long seed) {
+        return (Long.hashCode(seed * 0x9e3779b97f4a7c15L) & (SEED_SLICES - 1)) / SEED_SLICES_PER_UNIT;
+    }
+
+    /**
+     * Apply the exponent and the scale to a noise sample
+     *
+     * @param noise    The noise sample
+     * @param exponent The exponent of the curve
+     * @param scale    The scale of the heights
+     * @return The height
+     */
+    static float applyCurve(final float noise, final float exponent, final int scale) {
+        return (float) Math.pow(noise, exponent) * scale;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.adrien.games.landscapes.terrain;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Fields of {@link HeightMapParameters} that stages of a {@link HeightMapPipeline} can depend on
+ * <p>
+ * The number of threads is not listed since it does not change the generated heights
+ *
+ * @author adrien
+ */
+public enum HeightMapParameter {
+
+    WIDTH(HeightMapParameters::getWidth),
+    DEPTH(HeightMapParameters::getDepth),
+    STEP(HeightMapParameters::getStep),
+    ORIGIN_X(HeightMapParameters::getOriginX),
+    ORIGIN_Z(HeightMapParameters::getOriginZ),
+    SCALE(HeightMapParameters::getScale),
+    NOISE(HeightMapParameters::getNoise),
+    FREQUENCY(HeightMapParameters::getFrequency),
+    OCTAVES(HeightMapParameters::getOctaves),
+    PERSISTENCE(HeightMapParameters::getPersistence),
+    EXPONENT(HeightMapParameters::getExponent),
+    SEED(HeightMapParameters::getSeed);
+
+    private final Function<HeightMapParameters, Object> getter;
+
+    HeightMapParameter(final Function<HeightMapParameters, Object> getter) {
+        this.getter = getter;
+    }
+
+    /**
+     * Check whether the field has different values in two sets of parameters
+     *
+     * @param first  The first parameters
+     * @param second The second parameters
+     * @return true if the values differ
+     */
+    boolean differs(final HeightMapParameters first, final HeightMapParameters second) {
+        return !Objects.equals(this.getter.apply(first), this.getter.apply(second));
+    }
+
+}
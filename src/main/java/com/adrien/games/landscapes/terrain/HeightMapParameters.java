@@ -1,5 +1,7 @@
 package com.adrien.games.landscapes.terrain;
 
+import com.adrien.games.landscapes.terrain.noise.NoiseType;
+
 /**
  * Parameters for the generation of height maps
  * <p>
@@ -14,11 +16,20 @@ package com.adrien.games.landscapes.terrain;
  * <li>octaves     number of octaves used to generate heights. default = 1
  * <li>persistence persistence of the noise generator. default = 1
  * <li>exponent    exponent used to alter noise generator result. default = 1
+ * <li>threads     number of threads used to generate the map. default = 1
+ * <li>noise       noise algorithm used to generate heights. default = PERLIN_3D
+ * <li>step        distance between two samples of the map. default = 1
+ * <li>originX     world x coordinate of the first sample of the map. default = 0
+ * <li>originZ     world z coordinate of the first sample of the map. default = 0
+ * <li>seed        seed of the noise, maps with different seeds are unrelated. default = 0
  *
  * @author adrien
  */
 public class HeightMapParameters {
 
+    static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     /**
      * The width of the map
      */
@@ -54,6 +65,36 @@ public class HeightMapParameters {
      */
     private float exponent = 1;
 
+    /**
+     * The number of threads used to generate the map
+     */
+    private int threads = 1;
+
+    /**
+     * The noise algorithm used to generate heights
+     */
+    private NoiseType noise = NoiseType.PERLIN_3D;
+
+    /**
+     * The distance between two samples of the map
+     */
+    private int step = 1;
+
+    /**
+     * The world x coordinate of the first sample of the map
+     */
+    private int originX = 0;
+
+    /**
+     * The world z coordinate of the first sample of the map
+     */
+    private int originZ = 0;
+
+    /**
+     * The seed of the noise
+     */
+    private long seed = 0;
+
     /**
      * Create a new default instance of the parameters
      *
@@ -66,6 +107,62 @@ public class HeightMapParameters {
     private HeightMapParameters() {
     }
 
+    /**
+     * Create a copy of the parameters
+     * <p>
+     * Useful to take a snapshot of parameters that are still being edited
+     *
+     * @return A new instance of {@link HeightMapParameters} with the same values
+     */
+    public HeightMapParameters copy() {
+        return create().width(this.width).depth(this.depth).scale(this.scale).frequency(this.frequency).octaves(this.octaves)
+                .persistence(this.persistence).exponent(this.exponent).threads(this.threads).noise(this.noise).step(this.step)
+                .originX(this.originX).originZ(this.originZ).seed(this.seed);
+    }
+
+    /**
+     * Compute a hash of the parameters affecting the generated heights
+     * <p>
+     * Unlike {@link Object#hashCode()} the hash only depends on the values of
+     * the parameters so it is the same from one run to another and can be
+     * used to identify persisted maps. The number of threads is not part of
+     * the hash since it does not change the result
+     *
+     * @return The 64 bits FNV-1a hash of the parameters
+     */
+    public long contentHash() {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, this.width);
+        hash = hash(hash, this.depth);
+        hash = hash(hash, this.scale);
+        hash = hash(hash, Float.floatToIntBits(this.frequency));
+        hash = hash(hash, this.octaves);
+        hash = hash(hash, Float.floatToIntBits(this.persistence));
+        hash = hash(hash, Float.floatToIntBits(this.exponent));
+        hash = hash(hash, this.noise.ordinal());
+        hash = hash(hash, this.step);
+        hash = hash(hash, this.originX);
+        hash = hash(hash, this.originZ);
+        hash = hash(hash, (int) this.seed);
+        hash = hash(hash, (int) (this.seed >>> Integer.SIZE));
+        return hash;
+    }
+
+    /**
+     * Fold a value into a 64 bits FNV-1a hash
+     *
+     * @param hash  The hash so far
+     * @param value The value to fold in, byte by byte from the least significant one
+     * @return The new hash
+     */
+    static long hash(final long hash, final int value) {
+        long result = hash;
+        for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+            result = (result ^ ((value >>> shift) & 0xFF)) * FNV_PRIME;
+        }
+        return result;
+    }
+
     public HeightMapParameters width(int width) {
         this.width = width;
         return this;
@@ -101,6 +198,58 @@ public class HeightMapParameters {
         return this;
     }
 
+    public HeightMapParameters threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public HeightMapParameters noise(NoiseType noise) {
+        this.noise = noise;
+        return this;
+    }
+
+    public HeightMapParameters step(int step) {
+        this.step = step;
+        return this;
+    }
+
+    public HeightMapParameters originX(int originX) {
+        this.originX = originX;
+        return this;
+    }
+
+    public HeightMapParameters originZ(int originZ) {
+        this.originZ = originZ;
+        return this;
+    }
+
+    public HeightMapParameters seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Get the number of samples along the x axis
+     * <p>
+     * Samples are taken every step units so the sampled area can be slightly
+     * smaller than the width when the step does not divide it
+     *
+     * @return The number of samples along the x axis
+     */
+    public int getSampleWidth() {
+        return (this.width - 1) / this.step + 1;
+    }
+
+    /**
+     * Get the number of samples along the z axis
+     *
+     * @return The number of samples along the z axis
+     * @see #getSampleWidth()
+     */
+    public int getSampleDepth() {
+        return (this.depth - 1) / this.step + 1;
+    }
+
     public int getWidth() {
         return width;
     }
@@ -129,4 +278,28 @@ public class HeightMapParameters {
         return exponent;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public NoiseType getNoise() {
+        return noise;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
 }
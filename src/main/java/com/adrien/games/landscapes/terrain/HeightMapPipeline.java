@@ -0,0 +1,180 @@
+package com.adrien.games.landscapes.terrain;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chain of {@link HeightMapStage}s generating height maps
+ * <p>
+ * The output of each stage is kept between two generations along with the
+ * parameters it was computed with. When new parameters come in, the first
+ * stage whose dependencies changed and all the stages after it run again
+ * while the stages before it are skipped. Changing the exponent of the
+ * default pipeline for instance only re-runs the curve, not the noise.
+ * <p>
+ * One set of outputs is kept per sampling step so alternating between
+ * preview and full resolution maps does not invalidate them. Outputs are
+ * pooled by dimensions and reused when a stage runs again.
+ * <p>
+ * The stages and their settings make the configuration of a pipeline, see
+ * {@link #getConfigurationHash()}. Maps generated from the same parameters by
+ * pipelines with different configurations differ.
+ * <p>
+ * A pipeline is not thread safe, it should only be used by one thread at a time.
+ *
+ * @author adrien
+ */
+public class HeightMapPipeline {
+
+    /**
+     * Maximum number of unused buffers of each dimensions kept in the pool
+     */
+    private static final int MAX_FREE_BUFFERS_PER_SIZE = 2;
+
+    private final List<HeightMapStage> stages;
+    private final HeightMapBufferPool pool;
+    private final Map<Integer, StageOutput[]> outputs;
+
+    /**
+     * Construct a pipeline
+     *
+     * @param stages The stages to run in order. The first one must not need an input
+     * @throws IllegalArgumentException If no stage is given
+     */
+    public HeightMapPipeline(final HeightMapStage... stages) {
+        if (stages.length == 0) {
+            throw new IllegalArgumentException("A pipeline needs at least one stage");
+        }
+        this.stages = List.of(stages);
+        this.pool = new HeightMapBufferPool(MAX_FREE_BUFFERS_PER_SIZE);
+        this.outputs = new HashMap<>();
+    }
+
+    /**
+     * Create the pipeline generating the same maps as {@link HeightMap#HeightMap(HeightMapParameters)}
+     *
+     * @return A pipeline made of a {@link NoiseStage} and a {@link CurveStage}
+     */
+    public static HeightMapPipeline createDefault() {
+        return new HeightMapPipeline(new NoiseStage(), new CurveStage());
+    }
+
+    /**
+     * Compute a hash of the configuration of the default pipeline, see {@link #createDefault()}
+     *
+     * @return The hash of the configuration
+     */
+    public static long getDefaultConfigurationHash() {
+        return getConfigurationHash(List.of(new NoiseStage(), new CurveStage()));
+    }
+
+    /**
+     * Compute a hash of the configuration of the pipeline
+     * <p>
+     * The hash covers the type of each stage in order and its settings, see
+     * {@link HeightMapStage#getConfigurationHash()}. Along with the content
+     * hash of the parameters, it identifies the maps generated by the pipeline
+     *
+     * @return The 64 bits FNV-1a hash of the configuration
+     */
+    public long getConfigurationHash() {
+        return getConfigurationHash(this.stages);
+    }
+
+    private static long getConfigurationHash(final List<HeightMapStage> stages) {
+        long hash = HeightMapParameters.FNV_OFFSET_BASIS;
+        for (final var stage : stages) {
+            final long stageHash = stage.getConfigurationHash();
+            hash = HeightMapParameters.hash(hash, stage.getClass().getName().hashCode());
+            hash = HeightMapParameters.hash(hash, (int) stageHash);
+            hash = HeightMapParameters.hash(hash, (int) (stageHash >>> Integer.SIZE));
+        }
+        return hash;
+    }
+
+    /**
+     * Generate a height map, only running the stages whose output is outdated
+     *
+     * @param parameters The parameters of the map
+     * @return A new height map
+     */
+    public HeightMap generate(final HeightMapParameters parameters) {
+        final var stageOutputs = this.outputs.computeIfAbsent(parameters.getStep(), step -> new StageOutput[this.stages.size()]);
+        boolean upstreamChanged = false;
+        HeightMap input = null;
+        for (int i = 0; i < stageOutputs.length; i++) {
+            final var stage = this.stages.get(i);
+            final var cached = stageOutputs[i];
+            if (upstreamChanged || cached == null || cached.isOutdated(stage, parameters)) {
+                if (cached != null) {
+                    stageOutputs[i] = null;
+                    this.pool.release(cached.map);
+                }
+                final int revision = stage.getRevision();
+                final var output = this.pool.acquire(parameters);
+                stage.apply(parameters, input, output);
+                stageOutputs[i] = new StageOutput(output, parameters.copy(), revision);
+                upstreamChanged = true;
+            }
+            input = stageOutputs[i].map;
+        }
+
+        final var map = new HeightMap(parameters.getSampleWidth(), parameters.getSampleDepth(), parameters.getStep(),
+                parameters.getOriginX(), parameters.getOriginZ(), parameters.getScale());
+        input.copyTo(map);
+        return map;
+    }
+
+    /**
+     * Release the memory of the kept outputs and of the pool
+     */
+    public void destroy() {
+        for (final var stageOutputs : this.outputs.values()) {
+            for (final var output : stageOutputs) {
+                if (output != null) {
+                    this.pool.release(output.map);
+                }
+            }
+        }
+        this.outputs.clear();
+        this.pool.destroy();
+    }
+
+    /**
+     * Output of a stage along with what it was computed from
+     */
+    private static class StageOutput {
+
+        private final HeightMap map;
+        private final HeightMapParameters parameters;
+        private final int revision;
+
+        private StageOutput(final HeightMap map, final HeightMapParameters parameters, final int revision) {
+            this.map = map;
+            this.parameters = parameters;
+            this.revision = revision;
+        }
+
+        /**
+         * Check whether the stage has to run again
+         *
+         * @param stage      The stage that computed the output
+         * @param parameters The new parameters
+         * @return true if the settings of the stage or one of its dependencies changed
+         */
+        private boolean isOutdated(final HeightMapStage stage, final HeightMapParameters parameters) {
+            if (this.revision != stage.getRevision()) {
+                return true;
+            }
+            for (final var dependency : stage.getDependencies()) {
+                if (dependency.differs(this.parameters, parameters)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.adrien.games.landscapes.terrain;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stage of a {@link HeightMapPipeline}
+ * <p>
+ * A stage computes a map from the output of the previous stage, or from
+ * nothing for the first stage. It declares the fields of the
+ * {@link HeightMapParameters} it reads so the pipeline only runs it again
+ * when one of them changes or when a previous stage ran again. Stages with
+ * settings of their own call {@link #invalidate()} when the settings change
+ * and report them through {@link #getConfigurationHash()}.
+ * <p>
+ * Every stage implicitly depends on the number of samples of the maps, that
+ * is on the width, the depth and the step.
+ *
+ * @author adrien
+ */
+public abstract class HeightMapStage {
+
+    private final Set<HeightMapParameter> dependencies;
+    private final AtomicInteger revision;
+
+    /**
+     * Construct a stage
+     *
+     * @param dependencies The fields of the parameters read by the stage
+     */
+    protected HeightMapStage(final HeightMapParameter... dependencies) {
+        final var fields = EnumSet.of(HeightMapParameter.WIDTH, HeightMapParameter.DEPTH, HeightMapParameter.STEP);
+        Collections.addAll(fields, dependencies);
+        this.dependencies = Collections.unmodifiableSet(fields);
+        this.revision = new AtomicInteger();
+    }
+
+    /**
+     * Compute the output of the stage
+     * <p>
+     * Both maps have the dimensions and the metadata of the parameters. The
+     * output must be entirely overwritten, its previous content is undefined
+     *
+     * @param parameters The parameters of the map
+     * @param input      The output of the previous stage, null for the first stage. Must not be modified
+     * @param output     The map in which to write the result
+     */
+    protected abstract void apply(HeightMapParameters parameters, HeightMap input, HeightMap output);
+
+    /**
+     * Mark the output of the stage as outdated so it is computed again by the next run of the pipeline
+     */
+    protected void invalidate() {
+        this.revision.incrementAndGet();
+    }
+
+    /**
+     * Compute a hash of the settings of the stage, on top of the parameters it depends on
+     * <p>
+     * The hash only depends on the values of the settings so it is the same
+     * from one run to another. Stages without settings of their own return 0
+     *
+     * @return The hash of the settings
+     */
+    protected long getConfigurationHash() {
+        return 0;
+    }
+
+    int getRevision() {
+        return this.revision.get();
+    }
+
+    public Set<HeightMapParameter> getDependencies() {
+        return dependencies;
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.adrien.games.landscapes.terrain;
+
+import java.util.function.Function;
+
+/**
+ * Splits the area of a height map into tiles that can be generated independently
+ * <p>
+ * Tiles are square areas of tileSize world units, the last tiles of each axis
+ * being smaller when the tile size does not divide the map. Each tile includes
+ * its far border so two neighbouring tiles share a row or column of samples.
+ * Heights only depend on the world coordinates of the samples and on the seed,
+ * so a tile holds exactly the heights of the same samples in the whole map and
+ * tiles can be generated by different threads, processes or machines and then
+ * be reassembled with {@link #assemble(Function)} without seams.
+ *
+ * @author adrien
+ */
+public class HeightMapTiling {
+
+    private final HeightMapParameters parameters;
+    private final int tileSize;
+    private final int extentX;
+    private final int extentZ;
+    private final int tileCountX;
+    private final int tileCountZ;
+
+    /**
+     * Construct a tiling
+     *
+     * @param parameters The parameters of the whole map. Copied
+     * @param tileSize   The size of the tiles in world units. Must be a multiple of the sampling step
+     * @throws IllegalArgumentException If the tile size is not a positive multiple of the step
+     */
+    public HeightMapTiling(final HeightMapParameters parameters, final int tileSize) {
+        if (tileSize <= 0 || tileSize % parameters.getStep() != 0) {
+            throw new IllegalArgumentException("Tile size " + tileSize + " is not a positive multiple of the step " + parameters.getStep());
+        }
+        this.parameters = parameters.copy();
+        this.tileSize = tileSize;
+        this.extentX = (parameters.getSampleWidth() - 1) * parameters.getStep();
+        this.extentZ = (parameters.getSampleDepth() - 1) * parameters.getStep();
+        this.tileCountX = Math.max(1, (this.extentX + tileSize - 1) / tileSize);
+        this.tileCountZ = Math.max(1, (this.extentZ + tileSize - 1) / tileSize);
+    }
+
+    /**
+     * Get the parameters of a tile
+     *
+     * @param index The index of the tile, in [0; tileCount[, tiles being ordered along z first
+     * @return New parameters generating the tile
+     */
+    public HeightMapParameters getTile(final int index) {
+        return this.getTile(index / this.tileCountZ, index % this.tileCountZ);
+    }
+
+    /**
+     * Get the parameters of a tile
+     *
+     * @param tileX The x index of the tile
+     * @param tileZ The z index of the tile
+     * @return New parameters generating the tile
+     */
+    public HeightMapParameters getTile(final int tileX, final int tileZ) {
+        final int fromX = tileX * this.tileSize;
+        final int fromZ = tileZ * this.tileSize;
+        final int toX = Math.min(this.extentX, fromX + this.tileSize);
+        final int toZ = Math.min(this.extentZ, fromZ + this.tileSize);
+        return this.parameters.copy()
+                .originX(this.parameters.getOriginX() + fromX)
+                .originZ(this.parameters.getOriginZ() + fromZ)
+                .width(toX - fromX + 1)
+                .depth(toZ - fromZ + 1);
+    }
+
+    /**
+     * Reassemble the whole map from its tiles
+     * <p>
+     * Tiles are requested one column of tiles at a time and destroyed once copied
+     * so at most one column of tiles is held at once besides the assembled map
+     *
+     * @param tiles Provides the map of a tile given its parameters
+     * @return The assembled map
+     * @throws IllegalStateException If a tile is missing or does not have the expected dimensions
+     */
+    public HeightMap assemble(final Function<HeightMapParameters, HeightMap> tiles) {
+        final int step = this.parameters.getStep();
+        final var map = new HeightMap(this.parameters.getSampleWidth(), this.parameters.getSampleDepth(), step,
+                this.parameters.getOriginX(), this.parameters.getOriginZ(), this.parameters.getScale());
+        final var row = new float[map.getDepth()];
+        final var column = new HeightMap[this.tileCountZ];
+        try {
+            for (int tileX = 0; tileX < this.tileCountX; tileX++) {
+                for (int tileZ = 0; tileZ < this.tileCountZ; tileZ++) {
+                    column[tileZ] = this.loadTile(tiles, tileX, tileZ);
+                }
+                final int firstRow = tileX * this.tileSize / step;
+                for (int x = 0; x < column[0].getWidth(); x++) {
+                    for (int tileZ = 0; tileZ < this.tileCountZ; tileZ++) {
+                        column[tileZ].getRow(x, row, tileZ * this.tileSize / step);
+                    }
+                    map.setRow(firstRow + x, row, 0);
+                }
+                destroy(column);
+            }
+        } catch (final RuntimeException exception) {
+            destroy(column);
+            map.destroy();
+            throw exception;
+        }
+        return map;
+    }
+
+    private HeightMap loadTile(final Function<HeightMapParameters, HeightMap> tiles, final int tileX, final int tileZ) {
+        final var parameters = this.getTile(tileX, tileZ);
+        final var tile = tiles.apply(parameters);
+        if (tile == null) {
+            throw new IllegalStateException("Missing tile (" + tileX + ", " + tileZ + ")");
+        }
+        if (tile.getWidth() != parameters.getSampleWidth() || tile.getDepth() != parameters.getSampleDepth()) {
+            tile.destroy();
+            throw new IllegalStateException("Tile (" + tileX + ", " + tileZ + ") does not have the expected dimensions");
+        }
+        return tile;
+    }
+
+    private static void destroy(final HeightMap[] tiles) {
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                tiles[i].destroy();
+                tiles[i] = null;
+            }
+        }
+    }
+
+    public int getTileCount() {
+        return this.tileCountX * this.tileCountZ;
+    }
+
+    public int getTileCountX() {
+        return tileCountX;
+    }
+
+    public int getTileCountZ() {
+        return tileCountZ;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+}
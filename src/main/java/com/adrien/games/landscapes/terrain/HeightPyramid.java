@@ -0,0 +1,477 @@
+package com.adrien.games.landscapes.terrain;
+
+import org.joml.Vector3fc;
+
+/**
+ * Hierarchy of maximum heights of a {@link HeightMap} used to intersect rays with the terrain
+ * <p>
+ * Level 0 holds the maximum height of each cell of the map, that is of the
+ * four samples at its corners. Each cell of the next level holds the maximum
+ * of up to 2x2 cells of the level below, until a single cell covers the
+ * whole map.
+ * <p>
+ * Rays are traversed from the top level down. Whenever the ray stays above
+ * the maximum height of a cell over the whole span it crosses, the cell is
+ * skipped at once and the traversal goes back up one level, so the empty
+ * space above the terrain is crossed in a few large steps. Only the cells of
+ * level 0 the ray may actually touch are intersected with the two triangles
+ * they are rendered with, see {@link #getHeight(float, float)}.
+ * <p>
+ * The heights are copied on construction so the pyramid does not depend on
+ * the map, which can be released. Everything lives on the heap, the map must
+ * therefore hold less than {@link Integer#MAX_VALUE} samples.
+ * {@link #march(HeightMap, Vector3fc, Vector3fc, float)} walks the map cell
+ * by cell without the pyramid and serves as a reference.
+ *
+ * @author adrien
+ */
+public class HeightPyramid {
+
+    private final int width;
+    private final int depth;
+    private final int step;
+    private final int originX;
+    private final int originZ;
+    private final float[] heights;
+    private final int[] levelWidths;
+    private final int[] levelDepths;
+    private final float[][] maxHeights;
+
+    /**
+     * Build the pyramid of a map
+     *
+     * @param map The map from which to build the pyramid. It is not retained
+     * @throws IllegalArgumentException If the map has less than 2 samples along an axis or too many samples
+     */
+    public HeightPyramid(final HeightMap map) {
+        if (map.getWidth() < 2 || map.getDepth() < 2) {
+            throw new IllegalArgumentException("The map must have at least 2x2 samples, got " + map.getWidth() + "x" + map.getDepth());
+        }
+        if ((long) map.getWidth() * map.getDepth() > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The map has too many samples: " + map.getWidth() + "x" + map.getDepth());
+        }
+        this.width = map.getWidth();
+        this.depth = map.getDepth();
+        this.step = map.getStep();
+        this.originX = map.getOriginX();
+        this.originZ = map.getOriginZ();
+        this.heights = new float[this.width * this.depth];
+        for (int x = 0; x < this.width; x++) {
+            map.getRow(x, this.heights, x * this.depth);
+        }
+
+        int levelCount = 1;
+        while ((this.width - 2 >> levelCount - 1) > 0 || (this.depth - 2 >> levelCount - 1) > 0) {
+            levelCount++;
+        }
+        this.levelWidths = new int[levelCount];
+        this.levelDepths = new int[levelCount];
+        this.maxHeights = new float[levelCount][];
+        this.buildCells();
+        for (int level = 1; level < levelCount; level++) {
+            this.buildLevel(level);
+        }
+    }
+
+    /**
+     * Fill level 0 with the maximum height of each cell of the map
+     */
+    private void buildCells() {
+        final int cellWidth = this.width - 1;
+        final int cellDepth = this.depth - 1;
+        final var cells = new float[cellWidth * cellDepth];
+        for (int x = 0; x < cellWidth; x++) {
+            final int row = x * this.depth;
+            float previous = Math.max(this.heights[row], this.heights[row + this.depth]);
+            for (int z = 0; z < cellDepth; z++) {
+                final float next = Math.max(this.heights[row + z + 1], this.heights[row + this.depth + z + 1]);
+                cells[x * cellDepth + z] = Math.max(previous, next);
+                previous = next;
+            }
+        }
+        this.levelWidths[0] = cellWidth;
+        this.levelDepths[0] = cellDepth;
+        this.maxHeights[0] = cells;
+    }
+
+    /**
+     * Fill a level with the maximum of the cells of the level below
+     *
+     * @param level The level to fill, above 0
+     */
+    private void buildLevel(final int level) {
+        final int belowWidth = this.levelWidths[level - 1];
+        final int belowDepth = this.levelDepths[level - 1];
+        final var below = this.maxHeights[level - 1];
+        final int levelWidth = (belowWidth + 1) / 2;
+        final int levelDepth = (belowDepth + 1) / 2;
+        final var cells = new float[levelWidth * levelDepth];
+        for (int x = 0; x < levelWidth; x++) {
+            final int x0 = 2 * x;
+            final int x1 = Math.min(x0 + 1, belowWidth - 1);
+            for (int z = 0; z < levelDepth; z++) {
+                final int z0 = 2 * z;
+                final int z1 = Math.min(z0 + 1, belowDepth - 1);
+                cells[x * levelDepth + z] = Math.max(Math.max(below[x0 * belowDepth + z0], below[x0 * belowDepth + z1]),
+                        Math.max(below[x1 * belowDepth + z0], below[x1 * belowDepth + z1]));
+            }
+        }
+        this.levelWidths[level] = levelWidth;
+        this.levelDepths[level] = levelDepth;
+        this.maxHeights[level] = cells;
+    }
+
+    /**
+     * Find the first intersection of a ray with the terrain
+     * <p>
+     * The terrain is the triangle mesh of the map, as rendered at full
+     * resolution. A ray starting below the terrain hits it at its origin
+     *
+     * @param origin      The origin of the ray in world space
+     * @param direction   The direction of the ray. It does not need to be normalized
+     * @param maxDistance The maximum distance to search, in lengths of the direction
+     * @return The distance to the intersection in lengths of the direction, or a negative value if the ray misses the terrain
+     */
+    public float intersect(final Vector3fc origin, final Vector3fc direction, final float maxDistance) {
+        final var ray = new Ray(origin, direction, this.step, this.originX, this.originZ, this.width, this.depth, maxDistance);
+        if (!ray.clip()) {
+            return -1;
+        }
+        final int topLevel = this.maxHeights.length - 1;
+        int level = topLevel;
+        while (true) {
+            final float exit = ray.computeExit(level);
+            final float maxHeight = this.maxHeights[level][(ray.cellX >> level) * this.levelDepths[level] + (ray.cellZ >> level)];
+            final boolean belowMax = Math.min(ray.getY(ray.distance), ray.getY(exit)) <= maxHeight;
+            if (belowMax && level > 0) {
+                level--;
+                continue;
+            }
+            if (belowMax) {
+                final int sample = ray.cellX * this.depth + ray.cellZ;
+                final float hit = ray.intersectCell(this.heights[sample], this.heights[sample + this.depth], this.heights[sample + 1],
+                        this.heights[sample + this.depth + 1], exit);
+                if (hit >= 0) {
+                    return hit;
+                }
+            }
+            if (!ray.advance(exit)) {
+                return -1;
+            }
+            level = Math.min(level + 1, topLevel);
+        }
+    }
+
+    /**
+     * Find the first intersection of a ray with the terrain of a map by visiting every cell crossed by the ray
+     * <p>
+     * Gives the same result as {@link #intersect(Vector3fc, Vector3fc, float)}
+     * without building a pyramid, at a cost proportional to the number of
+     * cells crossed
+     *
+     * @param map         The map to intersect
+     * @param origin      The origin of the ray in world space
+     * @param direction   The direction of the ray. It does not need to be normalized
+     * @param maxDistance The maximum distance to search, in lengths of the direction
+     * @return The distance to the intersection in lengths of the direction, or a negative value if the ray misses the terrain
+     */
+    public static float march(final HeightMap map, final Vector3fc origin, final Vector3fc direction, final float maxDistance) {
+        final var ray = new Ray(origin, direction, map.getStep(), map.getOriginX(), map.getOriginZ(), map.getWidth(), map.getDepth(),
+                maxDistance);
+        if (map.getWidth() < 2 || map.getDepth() < 2 || !ray.clip()) {
+            return -1;
+        }
+        while (true) {
+            final int x = ray.cellX;
+            final int z = ray.cellZ;
+            final float exit = ray.computeExit(0);
+            final float hit = ray.intersectCell(map.getHeight(x, z), map.getHeight(x + 1, z), map.getHeight(x, z + 1),
+                    map.getHeight(x + 1, z + 1), exit);
+            if (hit >= 0) {
+                return hit;
+            }
+            if (!ray.advance(exit)) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Check whether a world position is above the map
+     *
+     * @param worldX The world x coordinate
+     * @param worldZ The world z coordinate
+     * @return true if the position is within the bounds of the map, borders included
+     */
+    public boolean contains(final float worldX, final float worldZ) {
+        final float gridX = (worldX - this.originX) / this.step;
+        final float gridZ = (worldZ - this.originZ) / this.step;
+        return gridX >= 0 && gridX <= this.width - 1 && gridZ >= 0 && gridZ <= this.depth - 1;
+    }
+
+    /**
+     * Get the height of the terrain at a world position
+     * <p>
+     * Heights are interpolated across the two triangles of each cell, the
+     * same way they are rendered. Positions outside of the map are clamped
+     * to its border
+     *
+     * @param worldX The world x coordinate
+     * @param worldZ The world z coordinate
+     * @return The height of the terrain
+     */
+    public float getHeight(final float worldX, final float worldZ) {
+        final float gridX = Math.max(0, Math.min((worldX - this.originX) / this.step, this.width - 1));
+        final float gridZ = Math.max(0, Math.min((worldZ - this.originZ) / this.step, this.depth - 1));
+        final int x = Math.min((int) gridX, this.width - 2);
+        final int z = Math.min((int) gridZ, this.depth - 2);
+        final int sample = x * this.depth + z;
+        return interpolate(this.heights[sample], this.heights[sample + this.depth], this.heights[sample + 1],
+                this.heights[sample + this.depth + 1], gridX - x, gridZ - z);
+    }
+
+    /**
+     * Interpolate the heights of a cell
+     * <p>
+     * Cells are split along the diagonal going from (1, 0) to (0, 1), like
+     * the meshes built by the terrain mesh builders
+     *
+     * @param h00 The height at (0, 0)
+     * @param h10 The height at (1, 0)
+     * @param h01 The height at (0, 1)
+     * @param h11 The height at (1, 1)
+     * @param u   The position along the x axis in [0; 1]
+     * @param v   The position along the z axis in [0; 1]
+     * @return The interpolated height
+     */
+    private static float interpolate(final float h00, final float h10, final float h01, final float h11, final float u, final float v) {
+        if (u + v <= 1) {
+            return h00 + (h10 - h00) * u + (h01 - h00) * v;
+        }
+        return h11 + (h01 - h11) * (1 - u) + (h10 - h11) * (1 - v);
+    }
+
+    /**
+     * Get the number of levels of the pyramid
+     *
+     * @return The number of levels, the last one being a single cell
+     */
+    public int getLevelCount() {
+        return this.maxHeights.length;
+    }
+
+    /**
+     * Get the highest height of the map
+     *
+     * @return The maximum height
+     */
+    public float getMaxHeight() {
+        return this.maxHeights[this.maxHeights.length - 1][0];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    /**
+     * State of the traversal of a ray across the cells of a map
+     * <p>
+     * Horizontal coordinates are expressed in samples relative to the first
+     * sample of the map while heights stay in world units. The distance along
+     * the ray is the same in both spaces. The current cell is tracked with
+     * integer indices that strictly move forward on each step so the traversal
+     * always ends, whatever the rounding errors on distances
+     */
+    private static class Ray {
+
+        private final float originX;
+        private final float originY;
+        private final float originZ;
+        private final float directionX;
+        private final float directionY;
+        private final float directionZ;
+        private final int lastCellX;
+        private final int lastCellZ;
+        private float distance;
+        private float maxDistance;
+        private int cellX;
+        private int cellZ;
+        private int fromX;
+        private int toX;
+        private int fromZ;
+        private int toZ;
+        private float exitX;
+        private float exitZ;
+
+        private Ray(final Vector3fc origin, final Vector3fc direction, final int step, final int mapOriginX, final int mapOriginZ,
+                    final int width, final int depth, final float maxDistance) {
+            this.originX = (origin.x() - mapOriginX) / step;
+            this.originY = origin.y();
+            this.originZ = (origin.z() - mapOriginZ) / step;
+            this.directionX = direction.x() / step;
+            this.directionY = direction.y();
+            this.directionZ = direction.z() / step;
+            this.lastCellX = width - 2;
+            this.lastCellZ = depth - 2;
+            this.maxDistance = maxDistance;
+        }
+
+        /**
+         * Clip the ray to the horizontal bounds of the map and find the first cell it crosses
+         *
+         * @return false if the ray does not cross the map
+         */
+        private boolean clip() {
+            if (this.directionX == 0 && (this.originX < 0 || this.originX > this.lastCellX + 1)
+                    || this.directionZ == 0 && (this.originZ < 0 || this.originZ > this.lastCellZ + 1)) {
+                return false;
+            }
+            final float enter = Math.max(0, Math.max(computeAxisEnter(this.originX, this.directionX, 0, this.lastCellX + 1),
+                    computeAxisEnter(this.originZ, this.directionZ, 0, this.lastCellZ + 1)));
+            final float exit = Math.min(this.maxDistance, Math.min(computeAxisExit(this.originX, this.directionX, 0, this.lastCellX + 1),
+                    computeAxisExit(this.originZ, this.directionZ, 0, this.lastCellZ + 1)));
+            if (!(enter <= exit)) {
+                return false;
+            }
+            this.distance = enter;
+            this.maxDistance = exit;
+            this.cellX = clampCell(this.originX + this.directionX * enter, this.lastCellX);
+            this.cellZ = clampCell(this.originZ + this.directionZ * enter, this.lastCellZ);
+            return true;
+        }
+
+        /**
+         * Compute the distance at which the ray leaves the block of cells containing the current cell at a given level
+         * <p>
+         * Blocks of level l span 2^l cells along both axes, except at the border of the map
+         *
+         * @param level The level of the block
+         * @return The exit distance, bounded by the end of the ray
+         */
+        private float computeExit(final int level) {
+            this.fromX = this.cellX >> level << level;
+            this.fromZ = this.cellZ >> level << level;
+            this.toX = Math.min(this.fromX + (1 << level), this.lastCellX + 1);
+            this.toZ = Math.min(this.fromZ + (1 << level), this.lastCellZ + 1);
+            this.exitX = computeAxisExit(this.originX, this.directionX, this.fromX, this.toX);
+            this.exitZ = computeAxisExit(this.originZ, this.directionZ, this.fromZ, this.toZ);
+            return Math.max(this.distance, Math.min(this.maxDistance, Math.min(this.exitX, this.exitZ)));
+        }
+
+        /**
+         * Move to the cell following the block whose exit was last computed
+         * <p>
+         * The ray leaves the block through the side it reaches first and
+         * stays within the block along the other axis
+         *
+         * @param exit The distance at which the ray leaves the block, see {@link #computeExit(int)}
+         * @return false if the ray left the map or reached its maximum distance
+         */
+        private boolean advance(final float exit) {
+            if (exit >= this.maxDistance) {
+                return false;
+            }
+            final int nextX = this.exitX <= this.exitZ ? (this.directionX > 0 ? this.toX : this.fromX - 1)
+                    : Math.max(this.fromX, Math.min(clampCell(this.originX + this.directionX * exit, this.lastCellX), this.toX - 1));
+            final int nextZ = this.exitZ <= this.exitX ? (this.directionZ > 0 ? this.toZ : this.fromZ - 1)
+                    : Math.max(this.fromZ, Math.min(clampCell(this.originZ + this.directionZ * exit, this.lastCellZ), this.toZ - 1));
+            if (nextX < 0 || nextX > this.lastCellX || nextZ < 0 || nextZ > this.lastCellZ) {
+                return false;
+            }
+            this.cellX = nextX;
+            this.cellZ = nextZ;
+            this.distance = exit;
+            return true;
+        }
+
+        /**
+         * Intersect the part of the ray crossing the current cell with its two triangles
+         *
+         * @param h00  The height of the first sample of the cell
+         * @param h10  The height of the next sample along the x axis
+         * @param h01  The height of the next sample along the z axis
+         * @param h11  The height of the opposite sample
+         * @param exit The distance at which the ray leaves the cell
+         * @return The distance of the intersection or a negative value if there is none
+         */
+        private float intersectCell(final float h00, final float h10, final float h01, final float h11, final float exit) {
+            final float u = this.originX - this.cellX;
+            final float v = this.originZ - this.cellZ;
+            final float diagonalStart = u + v - 1 + (this.directionX + this.directionZ) * this.distance;
+            final float diagonalEnd = u + v - 1 + (this.directionX + this.directionZ) * exit;
+            float split = exit;
+            if (diagonalStart < 0 != diagonalEnd < 0 && diagonalStart != diagonalEnd) {
+                split = this.distance + (exit - this.distance) * diagonalStart / (diagonalStart - diagonalEnd);
+            }
+            final float first = this.intersectSegment(h00, h10, h01, h11, u, v, this.distance, split);
+            return first >= 0 || split >= exit ? first : this.intersectSegment(h00, h10, h01, h11, u, v, split, exit);
+        }
+
+        /**
+         * Intersect a part of the ray crossing a single triangle of the current cell
+         * <p>
+         * Both the ray and the triangle are linear so their height difference
+         * is linear along the segment
+         */
+        private float intersectSegment(final float h00, final float h10, final float h01, final float h11, final float u, final float v,
+                                       final float start, final float end) {
+            final float startAbove = this.getY(start) - interpolate(h00, h10, h01, h11, u + this.directionX * start,
+                    v + this.directionZ * start);
+            if (startAbove <= 0) {
+                return start;
+            }
+            final float endAbove = this.getY(end) - interpolate(h00, h10, h01, h11, u + this.directionX * end,
+                    v + this.directionZ * end);
+            if (endAbove > 0) {
+                return -1;
+            }
+            return start + (end - start) * startAbove / (startAbove - endAbove);
+        }
+
+        private float getY(final float distance) {
+            return this.originY + this.directionY * distance;
+        }
+
+        private static float computeAxisEnter(final float origin, final float direction, final int from, final int to) {
+            if (direction > 0) {
+                return (from - origin) / direction;
+            }
+            if (direction < 0) {
+                return (to - origin) / direction;
+            }
+            return Float.NEGATIVE_INFINITY;
+        }
+
+        private static float computeAxisExit(final float origin, final float direction, final int from, final int to) {
+            if (direction > 0) {
+                return (to - origin) / direction;
+            }
+            if (direction < 0) {
+                return (from - origin) / direction;
+            }
+            return Float.POSITIVE_INFINITY;
+        }
+
+        private static int clampCell(final float coordinate, final int lastCell) {
+            return Math.max(0, Math.min((int) Math.floor(coordinate), lastCell));
+        }
+
+    }
+
+}
@@ -0,0 +1,359 @@
+package com.adrien.games.landscapes.terrain;
+
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+import org.joml.Vector3fc;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Lighting terms baked from the horizon of each sample of a {@link HeightMap}
+ * <p>
+ * Two terms are computed per sample, both in the range [0; 1]:
+ * <ul>
+ * <li>sun visibility: the terrain is marched from the sample towards the
+ * sun to find the elevation of the horizon in that direction. The sample is
+ * lit when the sun is above the horizon, with a small penumbra around it
+ * <li>ambient visibility: the horizon is found in several directions within
+ * a short radius and the sine of its elevation is averaged, giving the share
+ * of the sky hidden by the surrounding terrain
+ * </ul>
+ * Samples are independent so rows are baked concurrently. Terms are stored
+ * off heap as two bytes per sample laid out like the heights, so they can
+ * be uploaded as is into a two channel texture. The memory is released by
+ * {@link #destroy()}
+ *
+ * @author adrien
+ */
+public class HorizonLighting {
+
+    /**
+     * Number of bytes per sample: sun visibility then ambient visibility
+     */
+    public static final int BYTES_PER_SAMPLE = 2;
+
+    /**
+     * Angle over which the sun goes from hidden to visible, in radians
+     */
+    private static final float PENUMBRA = 0.05f;
+
+    /**
+     * Ratio between two consecutive distances marched towards the sun, above one sample
+     */
+    private static final float SUN_MARCH_GROWTH = 1f / 16;
+
+    /**
+     * Number of directions in which the horizon is searched for ambient occlusion
+     */
+    private static final int AMBIENT_DIRECTIONS = 8;
+
+    /**
+     * Distance in world units within which the terrain occludes the sky
+     */
+    private static final float AMBIENT_RADIUS = 48f;
+
+    /**
+     * Ratio between two consecutive distances marched for ambient occlusion
+     */
+    private static final float AMBIENT_MARCH_GROWTH = 1.5f;
+
+    private static final float[] AMBIENT_DIRECTIONS_X = new float[AMBIENT_DIRECTIONS];
+    private static final float[] AMBIENT_DIRECTIONS_Z = new float[AMBIENT_DIRECTIONS];
+
+    static {
+        for (int i = 0; i < AMBIENT_DIRECTIONS; i++) {
+            final double angle = 2 * Math.PI * i / AMBIENT_DIRECTIONS;
+            AMBIENT_DIRECTIONS_X[i] = (float) Math.cos(angle);
+            AMBIENT_DIRECTIONS_Z[i] = (float) Math.sin(angle);
+        }
+    }
+
+    private final int width;
+    private final int depth;
+    private final int step;
+    private final int originX;
+    private final int originZ;
+    private final ByteBuffer texels;
+
+    private HorizonLighting(final HeightMap map) {
+        this.width = map.getWidth();
+        this.depth = map.getDepth();
+        this.step = map.getStep();
+        this.originX = map.getOriginX();
+        this.originZ = map.getOriginZ();
+        this.texels = MemoryUtil.memAlloc(Math.multiplyExact(this.width * this.depth, BYTES_PER_SAMPLE));
+    }
+
+    /**
+     * Bake the lighting of a map
+     *
+     * @param map          The map to bake
+     * @param sunDirection The direction in which the sun light travels
+     * @param threads      The number of threads to use
+     * @return The baked lighting
+     */
+    public static HorizonLighting bake(final HeightMap map, final Vector3fc sunDirection, final int threads) {
+        final var lighting = new HorizonLighting(map);
+        final var baker = new Baker(map, sunDirection);
+        ParallelRows.forEach(threads, map.getWidth(), (from, to) -> {
+            for (int x = from; x < to; x++) {
+                for (int z = 0; z < lighting.depth; z++) {
+                    final int offset = (x * lighting.depth + z) * BYTES_PER_SAMPLE;
+                    lighting.texels.put(offset, toByte(baker.computeSunVisibility(x, z)));
+                    lighting.texels.put(offset + 1, toByte(baker.computeAmbientVisibility(x, z)));
+                }
+            }
+        });
+        return lighting;
+    }
+
+    private static float clamp(final float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    private static byte toByte(final float value) {
+        return (byte) Math.round(value * 255);
+    }
+
+    /**
+     * Free the memory of the lighting
+     * <p>
+     * The lighting must not be used afterwards
+     */
+    public void destroy() {
+        MemoryUtil.memFree(this.texels);
+    }
+
+    /**
+     * Get the visibility of the sun from a sample
+     *
+     * @param x The x index of the sample
+     * @param z The z index of the sample
+     * @return The visibility in [0; 1]
+     */
+    public float getSunVisibility(final int x, final int z) {
+        return Byte.toUnsignedInt(this.texels.get((x * this.depth + z) * BYTES_PER_SAMPLE)) / 255f;
+    }
+
+    /**
+     * Get the share of the sky visible from a sample
+     *
+     * @param x The x index of the sample
+     * @param z The z index of the sample
+     * @return The visibility in [0; 1]
+     */
+    public float getAmbientVisibility(final int x, final int z) {
+        return Byte.toUnsignedInt(this.texels.get((x * this.depth + z) * BYTES_PER_SAMPLE + 1)) / 255f;
+    }
+
+    /**
+     * Get the baked terms
+     * <p>
+     * Sample (x, z) starts at byte (x * depth + z) * {@link #BYTES_PER_SAMPLE}.
+     * The returned buffer is the storage of the lighting, not a copy
+     *
+     * @return The terms of all samples
+     */
+    public ByteBuffer getTexels() {
+        return texels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getOriginX() {
+        return originX;
+    }
+
+    public int getOriginZ() {
+        return originZ;
+    }
+
+    /**
+     * Horizon searches of one map
+     * <p>
+     * Every sample marches the same distances so the distances and the
+     * offsets of the visited samples are computed once per bake. Heights are
+     * copied into an array so that the hundreds of heights read per sample
+     * are plain array accesses
+     */
+    private static class Baker {
+
+        private final float[] heights;
+        private final int width;
+        private final int depth;
+        private final float maxHeight;
+        private final float sunDirectionX;
+        private final float sunDirectionZ;
+        private final float sunElevation;
+        private final boolean sunAtZenith;
+        private final float hiddenSlope;
+        private final float litSlope;
+        private final float[] sunDistances;
+        private final float[] sunInverseDistances;
+        private final int[][] ambientOffsetsX;
+        private final int[][] ambientOffsetsZ;
+        private final float[] ambientInverseDistances;
+
+        /**
+         * Prepare the bake of a map
+         *
+         * @param map            The map to bake
+         * @param lightDirection The direction in which the sun light travels
+         */
+        private Baker(final HeightMap map, final Vector3fc lightDirection) {
+            this.width = map.getWidth();
+            this.depth = map.getDepth();
+            this.heights = new float[Math.multiplyExact(this.width, this.depth)];
+            for (int x = 0; x < this.width; x++) {
+                map.getRow(x, this.heights, x * this.depth);
+            }
+            float highest = Float.NEGATIVE_INFINITY;
+            for (final float height : this.heights) {
+                highest = Math.max(highest, height);
+            }
+            this.maxHeight = highest;
+
+            final float horizontal = (float) Math.sqrt(lightDirection.x() * lightDirection.x() + lightDirection.z() * lightDirection.z());
+            this.sunAtZenith = horizontal == 0;
+            this.sunDirectionX = this.sunAtZenith ? 0 : -lightDirection.x() / horizontal;
+            this.sunDirectionZ = this.sunAtZenith ? 0 : -lightDirection.z() / horizontal;
+            this.sunElevation = (float) Math.atan2(-lightDirection.y(), horizontal);
+            this.hiddenSlope = (float) Math.tan(this.sunElevation + PENUMBRA / 2);
+            this.litSlope = (float) Math.tan(this.sunElevation - PENUMBRA / 2);
+
+            final float step = map.getStep();
+            final var distances = new ArrayList<Float>();
+            for (float distance = 1; distance < this.width + this.depth; distance += Math.max(1, distance * SUN_MARCH_GROWTH)) {
+                distances.add(distance);
+            }
+            this.sunDistances = new float[distances.size()];
+            this.sunInverseDistances = new float[distances.size()];
+            for (int i = 0; i < this.sunDistances.length; i++) {
+                this.sunDistances[i] = distances.get(i);
+                this.sunInverseDistances[i] = 1 / (this.sunDistances[i] * step);
+            }
+
+            distances.clear();
+            for (float distance = 1; distance <= AMBIENT_RADIUS / step; distance *= AMBIENT_MARCH_GROWTH) {
+                distances.add(distance);
+            }
+            this.ambientOffsetsX = new int[AMBIENT_DIRECTIONS][distances.size()];
+            this.ambientOffsetsZ = new int[AMBIENT_DIRECTIONS][distances.size()];
+            this.ambientInverseDistances = new float[distances.size()];
+            for (int i = 0; i < distances.size(); i++) {
+                final float distance = distances.get(i);
+                this.ambientInverseDistances[i] = 1 / (distance * step);
+                for (int direction = 0; direction < AMBIENT_DIRECTIONS; direction++) {
+                    this.ambientOffsetsX[direction][i] = Math.round(AMBIENT_DIRECTIONS_X[direction] * distance);
+                    this.ambientOffsetsZ[direction][i] = Math.round(AMBIENT_DIRECTIONS_Z[direction] * distance);
+                }
+            }
+        }
+
+        /**
+         * Compute the visibility of the sun from a sample
+         * <p>
+         * The march stops once the sun is fully hidden or as soon as the terrain
+         * left to visit can neither rise above the current horizon nor reach the
+         * penumbra of the sun
+         *
+         * @param x The x index of the sample
+         * @param z The z index of the sample
+         * @return The visibility
+         */
+        private float computeSunVisibility(final int x, final int z) {
+            if (this.sunElevation <= -PENUMBRA / 2) {
+                return 0;
+            }
+            if (this.sunAtZenith) {
+                return 1;
+            }
+            final float height = this.heights[x * this.depth + z];
+            final float maxX = this.width - 1;
+            final float maxZ = this.depth - 1;
+            float horizon = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < this.sunDistances.length; i++) {
+                final float sampleX = x + this.sunDirectionX * this.sunDistances[i];
+                final float sampleZ = z + this.sunDirectionZ * this.sunDistances[i];
+                if (sampleX < 0 || sampleZ < 0 || sampleX > maxX || sampleZ > maxZ) {
+                    break;
+                }
+                horizon = Math.max(horizon, (this.sampleHeight(sampleX, sampleZ) - height) * this.sunInverseDistances[i]);
+                final float reachableSlope = (this.maxHeight - height) * this.sunInverseDistances[i];
+                if (horizon >= this.hiddenSlope || reachableSlope <= Math.max(horizon, this.litSlope)) {
+                    break;
+                }
+            }
+            if (horizon <= this.litSlope) {
+                return 1;
+            }
+            if (horizon >= this.hiddenSlope) {
+                return 0;
+            }
+            return clamp(0.5f + (this.sunElevation - (float) Math.atan(horizon)) / PENUMBRA);
+        }
+
+        /**
+         * Compute the share of the sky visible from a sample
+         *
+         * @param x The x index of the sample
+         * @param z The z index of the sample
+         * @return The visibility
+         */
+        private float computeAmbientVisibility(final int x, final int z) {
+            final float height = this.heights[x * this.depth + z];
+            float occlusion = 0;
+            for (int direction = 0; direction < AMBIENT_DIRECTIONS; direction++) {
+                final int[] offsetsX = this.ambientOffsetsX[direction];
+                final int[] offsetsZ = this.ambientOffsetsZ[direction];
+                float horizon = 0;
+                for (int i = 0; i < offsetsX.length; i++) {
+                    final int sampleX = x + offsetsX[i];
+                    final int sampleZ = z + offsetsZ[i];
+                    if (sampleX < 0 || sampleZ < 0 || sampleX >= this.width || sampleZ >= this.depth) {
+                        break;
+                    }
+                    horizon = Math.max(horizon, (this.heights[sampleX * this.depth + sampleZ] - height) * this.ambientInverseDistances[i]);
+                    if ((this.maxHeight - height) * this.ambientInverseDistances[i] <= horizon) {
+                        break;
+                    }
+                }
+                occlusion += horizon / (float) Math.sqrt(1 + horizon * horizon);
+            }
+            return 1 - occlusion / AMBIENT_DIRECTIONS;
+        }
+
+        /**
+         * Bilinearly interpolate the heights
+         *
+         * @param x The x coordinate in samples, in [0; width - 1]
+         * @param z The z coordinate in samples, in [0; depth - 1]
+         * @return The interpolated height
+         */
+        private float sampleHeight(final float x, final float z) {
+            final int x0 = Math.min((int) x, this.width - 2);
+            final int z0 = Math.min((int) z, this.depth - 2);
+            final float u = x - x0;
+            final float v = z - z0;
+            final int offset = x0 * this.depth + z0;
+            final float h00 = this.heights[offset];
+            final float h10 = this.heights[offset + this.depth];
+            final float h01 = this.heights[offset + 1];
+            final float h11 = this.heights[offset + this.depth + 1];
+            return (h00 * (1 - u) + h10 * u) * (1 - v) + (h01 * (1 - u) + h11 * u) * v;
+        }
+
+    }
+
+}
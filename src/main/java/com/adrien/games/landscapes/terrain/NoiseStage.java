@@ -0,0 +1,32 @@
+package com.adrien.games.landscapes.terrain;
+
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+
+/**
+ * Stage generating the raw noise of a map, normalized in the range [0; 1]
+ * <p>
+ * Noise is sampled in world coordinates so maps generated at adjacent
+ * origins with the same seed line up seamlessly. Rows are generated
+ * concurrently when more than one thread is requested.
+ *
+ * @author adrien
+ */
+public class NoiseStage extends HeightMapStage {
+
+    public NoiseStage() {
+        super(HeightMapParameter.ORIGIN_X, HeightMapParameter.ORIGIN_Z, HeightMapParameter.NOISE, HeightMapParameter.FREQUENCY,
+                HeightMapParameter.OCTAVES, HeightMapParameter.PERSISTENCE, HeightMapParameter.SEED);
+    }
+
+    @Override
+    protected void apply(final HeightMapParameters parameters, final HeightMap input, final HeightMap output) {
+        ParallelRows.forEach(parameters.getThreads(), output.getWidth(), (from, to) -> {
+            final var row = new float[output.getDepth()];
+            for (int x = from; x < to; x++) {
+                HeightMapGenerator.generateNoiseRow(parameters, x, row, 0);
+                output.setRow(x, row, 0);
+            }
+        });
+    }
+
+}
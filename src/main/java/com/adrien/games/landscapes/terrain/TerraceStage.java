@@ -0,0 +1,81 @@
+package com.adrien.games.landscapes.terrain;
+
+import com.adrien.games.landscapes.concurrent.ParallelRows;
+
+/**
+ * Stage shaping scaled heights into terraces
+ * <p>
+ * The range [0; scale] is split into bands of equal height. Within each
+ * band the height is remapped through a power curve so the flat step of the
+ * terrace widens as the sharpness increases while heights stay continuous
+ * across bands. With no level, heights are copied unchanged.
+ *
+ * @author adrien
+ */
+public class TerraceStage extends HeightMapStage {
+
+    private int levels;
+    private float sharpness;
+
+    /**
+     * Construct a terrace stage
+     *
+     * @param levels    The number of terraces, 0 to leave heights unchanged
+     * @param sharpness The exponent of the curve within each terrace, 1 leaves heights unchanged
+     */
+    public TerraceStage(final int levels, final float sharpness) {
+        super(HeightMapParameter.SCALE);
+        this.levels = levels;
+        this.sharpness = sharpness;
+    }
+
+    @Override
+    protected void apply(final HeightMapParameters parameters, final HeightMap input, final HeightMap output) {
+        if (this.levels <= 0) {
+            input.copyTo(output);
+            return;
+        }
+        final float bandHeight = (float) parameters.getScale() / this.levels;
+        final float exponent = this.sharpness;
+        ParallelRows.forEach(parameters.getThreads(), output.getWidth(), (from, to) -> {
+            final var row = new float[output.getDepth()];
+            for (int x = from; x < to; x++) {
+                input.getRow(x, row, 0);
+                for (int z = 0; z < row.length; z++) {
+                    final float band = row[z] / bandHeight;
+                    final float floor = (float) Math.floor(band);
+                    row[z] = (floor + (float) Math.pow(band - floor, exponent)) * bandHeight;
+                }
+                output.setRow(x, row, 0);
+            }
+        });
+    }
+
+    @Override
+    protected long getConfigurationHash() {
+        if (this.levels <= 0) {
+            return 0;
+        }
+        final long hash = HeightMapParameters.hash(HeightMapParameters.FNV_OFFSET_BASIS, this.levels);
+        return HeightMapParameters.hash(hash, Float.floatToIntBits(this.sharpness));
+    }
+
+    public void setLevels(final int levels) {
+        this.levels = levels;
+        this.invalidate();
+    }
+
+    public void setSharpness(final float sharpness) {
+        this.sharpness = sharpness;
+        this.invalidate();
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public float getSharpness() {
+        return sharpness;
+    }
+
+}
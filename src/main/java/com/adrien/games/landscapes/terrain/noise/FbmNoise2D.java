@@ -0,0 +1,222 @@
+package com.adrien.games.landscapes.terrain.noise;
+
+import java.util.Random;
+
+/**
+ * 2D fractal Brownian motion noise
+ * <p>
+ * Sums several octaves of 2D gradient noise. Each octave doubles the
+ * frequency of the previous one and its amplitude is multiplied by the
+ * persistence. The result is normalized in the range [0; 1].
+ * <p>
+ * The noise is evaluated one row at a time so everything that only depends
+ * on the x coordinate is computed once per row and per octave. Only primitive
+ * arrays are used and the permutation table is stored flat and duplicated to
+ * avoid index wrapping. Instances are immutable and can be shared across threads.
+ * <p>
+ * The seed selects the permutation table. It is shuffled with {@link Random} whose
+ * algorithm is fully specified, so a seed gives the same noise on every machine.
+ *
+ * @author adrien
+ */
+public final class FbmNoise2D {
+
+    /**
+     * Size of the permutation table
+     */
+    private static final int SIZE = 256;
+
+    private static final int MASK = SIZE - 1;
+
+    /**
+     * Reference permutation from Ken Perlin's improved noise
+     */
+    private static final int[] REFERENCE_PERMUTATION = {151, 160, 137, 91, 90, 15, 131, 13, 201, 95, 96, 53, 194, 233, 7, 225, 140, 36,
+            103, 30, 69, 142, 8, 99, 37, 240, 21, 10, 23, 190, 6, 148, 247, 120, 234, 75, 0, 26, 197, 62, 94, 252, 219, 203, 117, 35, 11,
+            32, 57, 177, 33, 88, 237, 149, 56, 87, 174, 20, 125, 136, 171, 168, 68, 175, 74, 165, 71, 134, 139, 48, 27, 166, 77, 146, 158,
+            231, 83, 111, 229, 122, 60, 211, 133, 230, 220, 105, 92, 41, 55, 46, 245, 40, 244, 102, 143, 54, 65, 25, 63, 161, 1, 216, 80,
+            73, 209, 76, 132, 187, 208, 89, 18, 169, 200, 196, 135, 130, 116, 188, 159, 86, 164, 100, 109, 198, 173, 186, 3, 64, 52, 217,
+            226, 250, 124, 123, 5, 202, 38, 147, 118, 126, 255, 82, 85, 212, 207, 206, 59, 227, 47, 16, 58, 17, 182, 189, 28, 42, 223,
+            183, 170, 213, 119, 248, 152, 2, 44, 154, 163, 70, 221, 153, 101, 155, 167, 43, 172, 9, 129, 22, 39, 253, 19, 98, 108, 110,
+            79, 113, 224, 232, 178, 185, 112, 104, 218, 246, 97, 228, 251, 34, 242, 193, 238, 210, 144, 12, 191, 179, 162, 241, 81, 51,
+            145, 235, 249, 14, 239, 107, 49, 192, 214, 31, 181, 199, 106, 157, 184, 84, 204, 176, 115, 121, 50, 45, 127, 4, 150, 254, 138,
+            236, 205, 93, 222, 114, 67, 29, 24, 72, 243, 141, 128, 195, 78, 66, 215, 61, 156, 180};
+
+    /**
+     * Permutation table duplicated once to avoid wrapping indices
+     */
+    private final int[] permutations;
+
+    /**
+     * Create a noise generator using the reference permutation
+     */
+    public FbmNoise2D() {
+        this(0);
+    }
+
+    /**
+     * Create a seeded noise generator
+     * <p>
+     * The seed 0 uses the reference permutation
+     *
+     * @param seed The seed of the permutation table
+     */
+    public FbmNoise2D(final long seed) {
+        final var permutation = REFERENCE_PERMUTATION.clone();
+        if (seed != 0) {
+            final var random = new Random(seed);
+            for (int i = SIZE - 1; i > 0; i--) {
+                final int j = random.nextInt(i + 1);
+                final int swap = permutation[i];
+                permutation[i] = permutation[j];
+                permutation[j] = swap;
+            }
+        }
+        this.permutations = new int[SIZE * 2];
+        for (int i = 0; i < SIZE * 2; i++) {
+            this.permutations[i] = permutation[i & MASK];
+        }
+    }
+
+    /**
+     * Sample the noise at a given location
+     *
+     * @param x           The x coordinate
+     * @param z           The z coordinate
+     * @param octaves     The number of octaves to sum
+     * @param persistence The amplitude factor between two octaves
+     * @return The noise value in the range [0; 1]
+     */
+    public float sample(final float x, final float z, final int octaves, final float persistence) {
+        float total = 0;
+        float amplitude = 1;
+        float maxValue = 0;
+        float frequency = 1;
+        for (int octave = 0; octave < octaves; octave++) {
+            total += this.noise(x * frequency, z * frequency) * amplitude;
+            maxValue += amplitude;
+            amplitude *= persistence;
+            frequency *= 2;
+        }
+        return maxValue == 0 ? 0 : total / maxValue;
+    }
+
+    /**
+     * Evaluate a row of noise
+     * <p>
+     * The sample i of the row is taken at coordinates (x * frequency, (fromZ + i * step) * frequency)
+     * and written at dst[offset + i]
+     *
+     * @param x           The x index of the row
+     * @param fromZ       The z index of the first sample
+     * @param step        The distance between two samples
+     * @param count       The number of samples to evaluate
+     * @param frequency   The frequency of the first octave
+     * @param octaves     The number of octaves to sum
+     * @param persistence The amplitude factor between two octaves
+     * @param dst         The array to write the samples into
+     * @param offset      The index of the first sample in dst
+     */
+    public void fillRow(final int x, final int fromZ, final int step, final int count, final float frequency, final int octaves,
+                        final float persistence, final float[] dst, final int offset) {
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = 0;
+        }
+
+        float amplitude = 1;
+        float maxValue = 0;
+        float octaveFrequency = 1;
+        for (int octave = 0; octave < octaves; octave++) {
+            final float sampleX = x * frequency * octaveFrequency;
+            final int floorX = fastFloor(sampleX);
+            final float fx = sampleX - floorX;
+            final float u = fade(fx);
+            final int a = this.permutations[floorX & MASK];
+            final int b = this.permutations[(floorX + 1) & MASK];
+
+            for (int i = 0; i < count; i++) {
+                final float sampleZ = (fromZ + i * step) * frequency * octaveFrequency;
+                final int floorZ = fastFloor(sampleZ);
+                final float fz = sampleZ - floorZ;
+                final int zi = floorZ & MASK;
+
+                final float n00 = gradient(this.permutations[a + zi], fx, fz);
+                final float n10 = gradient(this.permutations[b + zi], fx - 1, fz);
+                final float n01 = gradient(this.permutations[a + zi + 1], fx, fz - 1);
+                final float n11 = gradient(this.permutations[b + zi + 1], fx - 1, fz - 1);
+
+                final float v = fade(fz);
+                final float nx0 = n00 + u * (n10 - n00);
+                final float nx1 = n01 + u * (n11 - n01);
+                dst[offset + i] += ((nx0 + v * (nx1 - nx0)) + 1) * 0.5f * amplitude;
+            }
+
+            maxValue += amplitude;
+            amplitude *= persistence;
+            octaveFrequency *= 2;
+        }
+
+        if (maxValue != 0) {
+            final float normalization = 1 / maxValue;
+            for (int i = 0; i < count; i++) {
+                dst[offset + i] *= normalization;
+            }
+        }
+    }
+
+    /**
+     * Compute one octave of gradient noise
+     *
+     * @param x The x coordinate
+     * @param z The z coordinate
+     * @return The noise value in the range [0; 1]
+     */
+    private float noise(final float x, final float z) {
+        final int floorX = fastFloor(x);
+        final int floorZ = fastFloor(z);
+        final float fx = x - floorX;
+        final float fz = z - floorZ;
+        final int a = this.permutations[floorX & MASK];
+        final int b = this.permutations[(floorX + 1) & MASK];
+        final int zi = floorZ & MASK;
+
+        final float n00 = gradient(this.permutations[a + zi], fx, fz);
+        final float n10 = gradient(this.permutations[b + zi], fx - 1, fz);
+        final float n01 = gradient(this.permutations[a + zi + 1], fx, fz - 1);
+        final float n11 = gradient(this.permutations[b + zi + 1], fx - 1, fz - 1);
+
+        final float u = fade(fx);
+        final float v = fade(fz);
+        final float nx0 = n00 + u * (n10 - n00);
+        final float nx1 = n01 + u * (n11 - n01);
+        return ((nx0 + v * (nx1 - nx0)) + 1) * 0.5f;
+    }
+
+    /**
+     * Dot product between the offset to a corner and one of the four diagonal gradients
+     *
+     * @param hash The hash of the corner
+     * @param x    The x offset to the corner
+     * @param z    The z offset to the corner
+     * @return The dot product
+     */
+    private static float gradient(final int hash, final float x, final float z) {
+        return ((hash & 1) == 0 ? x : -x) + ((hash & 2) == 0 ? z : -z);
+    }
+
+    /**
+     * Quintic fade curve 6t^5 - 15t^4 + 10t^3
+     *
+     * @param t The value to fade
+     * @return The faded value
+     */
+    private static float fade(final float t) {
+        return t * t * t * (t * (t * 6 - 15) + 10);
+    }
+
+    private static int fastFloor(final float value) {
+        final int truncated = (int) value;
+        return value < truncated ? truncated - 1 : truncated;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.adrien.games.landscapes.terrain.noise;
+
+/**
+ * Noise algorithms available to generate height maps
+ *
+ * @author adrien
+ */
+public enum NoiseType {
+
+    /**
+     * 3D Perlin noise from bagl sampled on the y = 0 plane. Kept as a reference
+     */
+    PERLIN_3D,
+
+    /**
+     * 2D fractal noise from {@link FbmNoise2D}
+     */
+    FBM_2D
+
+}
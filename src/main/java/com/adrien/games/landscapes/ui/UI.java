@@ -2,14 +2,17 @@ package com.adrien.games.landscapes.ui;
 
 
 import com.adrien.games.landscapes.rendering.ui.CheckBoxRenderer;
+import com.adrien.games.landscapes.rendering.ui.ControlRenderer;
+import com.adrien.games.landscapes.rendering.ui.LabelRenderer;
 import com.adrien.games.landscapes.rendering.ui.SliderRenderer;
+import com.adrien.games.landscapes.rendering.ui.UIBatch;
 import com.adrien.games.landscapes.ui.controllers.CheckBoxController;
 import com.adrien.games.landscapes.ui.controllers.CheckBoxListener;
 import com.adrien.games.landscapes.ui.controllers.SliderController;
 import com.adrien.games.landscapes.ui.controllers.SliderListener;
 import com.adrien.games.landscapes.ui.controls.CheckBox;
+import com.adrien.games.landscapes.ui.controls.Label;
 import com.adrien.games.landscapes.ui.controls.Slider;
-import com.adrienben.games.bagl.engine.rendering.shape.UIRenderer;
 import com.adrienben.games.bagl.engine.rendering.text.Font;
 import com.adrienben.games.bagl.engine.rendering.text.TextRenderer;
 
@@ -20,29 +23,30 @@ import java.util.List;
  * UI manager
  * <p>
  * This class updates a renderer all added controls
+ * <p>
+ * Rendering is retained: each control has its own renderer caching its
+ * boxes and texts, which are only rebuilt when the control changes, and the
+ * whole ui is drawn in one batched pass, see {@link UIBatch}
  *
  * @author adrien
  */
 public class UI {
 
-    private final SliderRenderer sliderRenderer;
-    private final CheckBoxRenderer checkBoxRenderer;
+    private final UIBatch batch;
     private final Font font;
-    private final List<Slider> sliders;
-    private final List<CheckBox> checkBoxes;
+    private final List<ControlRenderer<?>> renderers;
     private final List<UIController> controllers;
 
     /**
      * Create the ui manager
      *
-     * @param uiRenderer The renderer to use to render ui
+     * @param textRenderer The renderer to use to render texts
+     * @param font         The font of the texts
      */
-    public UI(final UIRenderer uiRenderer, final TextRenderer textRenderer, final Font font) {
-        this.sliderRenderer = new SliderRenderer(uiRenderer, textRenderer);
-        this.checkBoxRenderer = new CheckBoxRenderer(uiRenderer, textRenderer);
+    public UI(final TextRenderer textRenderer, final Font font) {
+        this.batch = new UIBatch(textRenderer);
         this.font = font;
-        this.sliders = new ArrayList<>();
-        this.checkBoxes = new ArrayList<>();
+        this.renderers = new ArrayList<>();
         this.controllers = new ArrayList<>();
     }
 
@@ -56,7 +60,7 @@ public class UI {
      */
     public void add(final Slider slider, final SliderListener listener) {
         this.controllers.add(new SliderController(slider, listener));
-        this.sliders.add(slider);
+        this.renderers.add(new SliderRenderer(slider, this.font, this.batch));
     }
 
     /**
@@ -69,7 +73,18 @@ public class UI {
      */
     public void add(final CheckBox checkBox, final CheckBoxListener listener) {
         this.controllers.add(new CheckBoxController(checkBox, listener));
-        this.checkBoxes.add(checkBox);
+        this.renderers.add(new CheckBoxRenderer(checkBox, this.font, this.batch));
+    }
+
+    /**
+     * Add a label to the manager
+     * <p>
+     * Labels are not interactive and have no controller
+     *
+     * @param label The label to add
+     */
+    public void add(final Label label) {
+        this.renderers.add(new LabelRenderer(label, this.font, this.batch));
     }
 
     /**
@@ -80,11 +95,20 @@ public class UI {
     }
 
     /**
-     * Render all sliders
+     * Refresh the controls that changed and render all controls
      */
     public void render() {
-        this.sliders.forEach(slider -> this.sliderRenderer.render(slider, this.font));
-        this.checkBoxes.forEach(checkBox -> this.checkBoxRenderer.render(checkBox, this.font));
+        for (int i = 0; i < this.renderers.size(); i++) {
+            this.renderers.get(i).refresh();
+        }
+        this.batch.render();
+    }
+
+    /**
+     * Release the gpu resources of the ui
+     */
+    public void destroy() {
+        this.batch.destroy();
     }
 
 }
@@ -2,6 +2,10 @@ package com.adrien.games.landscapes.ui;
 
 /**
  * Base UI control
+ * <p>
+ * Controls keep a revision which is incremented each time their state
+ * changes so renderers can cache what they draw and only rebuild it when
+ * the revision changes
  *
  * @author adrien
  */
@@ -13,6 +17,7 @@ public abstract class UIControl {
     private final float y;
     private final float width;
     private final float height;
+    private int revision;
 
     /**
      * Create a new UI control
@@ -44,7 +49,21 @@ public abstract class UIControl {
     }
 
     public void setLabel(String label) {
-        this.label = label;
+        if (!label.equals(this.label)) {
+            this.label = label;
+            this.markChanged();
+        }
+    }
+
+    /**
+     * Notify renderers that the state of the control changed
+     */
+    protected void markChanged() {
+        this.revision++;
+    }
+
+    public int getRevision() {
+        return revision;
     }
 
     public float getX() {
@@ -62,4 +81,5 @@ public abstract class UIControl {
     public float getHeight() {
         return height;
     }
+
 }
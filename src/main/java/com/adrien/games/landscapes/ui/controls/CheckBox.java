@@ -20,6 +20,7 @@ public class CheckBox extends UIControl {
      * Toggle the checkbox
      */
     public boolean toggle() {
+        this.markChanged();
         return this.checked = !this.checked;
     }
 
@@ -28,7 +29,10 @@ public class CheckBox extends UIControl {
     }
 
     public void setChecked(final boolean checked) {
-        this.checked = checked;
+        if (checked != this.checked) {
+            this.checked = checked;
+            this.markChanged();
+        }
     }
 
 }
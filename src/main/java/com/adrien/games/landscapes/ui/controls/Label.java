@@ -0,0 +1,16 @@
+package com.adrien.games.landscapes.ui.controls;
+
+import com.adrien.games.landscapes.ui.UIControl;
+
+/**
+ * Text only control
+ *
+ * @author adrien
+ */
+public class Label extends UIControl {
+
+    public Label(final String id, final String label, final float x, final float y, final float height) {
+        super(id, label, x, y, 0, height);
+    }
+
+}
@@ -32,7 +32,11 @@ public class Slider extends UIControl {
      * @param value The value to set
      */
     public void setValue(float value) {
-        this.value = MathUtils.clamp(value, this.min, this.max);
+        final float clamped = MathUtils.clamp(value, this.min, this.max);
+        if (clamped != this.value) {
+            this.value = clamped;
+            this.markChanged();
+        }
     }
 
     public float getMin() {
@@ -12,16 +12,52 @@ struct DirectionalLight {
 
 in float passHeight;
 in vec3 passNormal;
-in vec3 passColor;
+in vec2 passWorld;
 
 out vec4 finalColor;
 
 uniform Light uAmbient;
 uniform DirectionalLight uSun;
+uniform sampler1D uPalette;
+uniform float uHeightScale;
+uniform bool uSteep;
+uniform vec4 uSteepColor;
+uniform float uSteepStart;
+uniform float uSteepEnd;
+uniform sampler2D uLighting;
+uniform vec2 uLightingOrigin;
+uniform float uLightingStep;
+uniform int uLightingWidth;
+uniform int uLightingDepth;
+
+vec3 computeColor(vec3 normal) {
+    float size = float(textureSize(uPalette, 0));
+    float ratio = clamp(passHeight/uHeightScale, 0.0, 1.0);
+    vec3 color = texture(uPalette, (ratio*(size - 1.0) + 0.5)/size).rgb;
+    if (!uSteep) {
+        return color;
+    }
+    float steepness = smoothstep(uSteepStart, uSteepEnd, 1.0 - normal.y);
+    return mix(color, uSteepColor.rgb, steepness);
+}
+
+// baked sun visibility in x and ambient visibility in y, fully visible outside of the baked area
+// or when nothing is baked, in which case the size of the baked area is 0
+vec2 getLighting() {
+    vec2 sampleCoordinates = (passWorld - uLightingOrigin)/max(uLightingStep, 1.0);
+    vec2 lastSample = vec2(uLightingWidth - 1, uLightingDepth - 1);
+    if (any(lessThan(sampleCoordinates, vec2(0.0))) || any(greaterThan(sampleCoordinates, lastSample))) {
+        return vec2(1.0);
+    }
+    return texture(uLighting, (sampleCoordinates.yx + 0.5)/vec2(uLightingDepth, uLightingWidth)).rg;
+}
 
 void main() {
-    float diffuse = dot(-normalize(uSun.direction), normalize(passNormal));
-    vec3 ambient = uAmbient.intensity*uAmbient.color.rgb;
-    vec3 sun = diffuse*uSun.base.intensity*uSun.base.color.rgb;
-    finalColor = vec4(vec3(ambient*passColor + sun*passColor), 1.0);
+    vec3 normal = normalize(passNormal);
+    vec3 color = computeColor(normal);
+    float diffuse = dot(-normalize(uSun.direction), normal);
+    vec2 lighting = getLighting();
+    vec3 ambient = lighting.y*uAmbient.intensity*uAmbient.color.rgb;
+    vec3 sun = lighting.x*diffuse*uSun.base.intensity*uSun.base.color.rgb;
+    finalColor = vec4(vec3(ambient*color + sun*color), 1.0);
 }
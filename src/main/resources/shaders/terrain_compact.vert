@@ -0,0 +1,33 @@
+#version 330
+
+// Raw unsigned bytes bound as integer attributes
+layout (location = 0) in uvec2 vHeight;
+layout (location = 1) in uvec2 vNormal;
+
+uniform mat4 uVP;
+uniform int uDepth;
+uniform float uStep;
+uniform vec2 uOrigin;
+uniform float uHeightScale;
+
+out float passHeight;
+out vec3 passNormal;
+out vec2 passWorld;
+
+vec3 decodeNormal(uvec2 encoded) {
+    vec2 oct = vec2(encoded)/255.0*2.0 - 1.0;
+    return normalize(vec3(oct.x, 1.0 - abs(oct.x) - abs(oct.y), oct.y));
+}
+
+void main() {
+    int x = gl_VertexID/uDepth;
+    int z = gl_VertexID - x*uDepth;
+    uint quantizedHeight = (vHeight.x << 8u) | vHeight.y;
+    float height = float(quantizedHeight)/65535.0*uHeightScale;
+    vec3 position = vec3(uOrigin.x + x*uStep, height, uOrigin.y + z*uStep);
+
+    passHeight = height;
+    passNormal = decodeNormal(vNormal);
+    passWorld = position.xz;
+    gl_Position = uVP*vec4(position, 1.0);
+}
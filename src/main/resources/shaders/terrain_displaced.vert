@@ -0,0 +1,39 @@
+#version 330
+
+// Cell of the patch grid as raw unsigned bytes bound as integer attributes
+layout (location = 0) in uvec2 vCell;
+
+uniform mat4 uVP;
+uniform sampler2D uHeights;
+uniform int uPatchX;
+uniform int uPatchZ;
+uniform int uWidth;
+uniform int uDepth;
+uniform float uStep;
+uniform vec2 uOrigin;
+
+out float passHeight;
+out vec3 passNormal;
+out vec2 passWorld;
+
+float getHeight(int x, int z) {
+    return texelFetch(uHeights, ivec2(z, x), 0).r;
+}
+
+void main() {
+    ivec2 cell = ivec2(vCell);
+    int x = min(uPatchX + cell.x, uWidth - 1);
+    int z = min(uPatchZ + cell.y, uDepth - 1);
+    int previousX = max(x - 1, 0);
+    int nextX = min(x + 1, uWidth - 1);
+    int previousZ = max(z - 1, 0);
+    int nextZ = min(z + 1, uDepth - 1);
+    float slopeX = (getHeight(nextX, z) - getHeight(previousX, z))/(float(nextX - previousX)*uStep);
+    float slopeZ = (getHeight(x, nextZ) - getHeight(x, previousZ))/(float(nextZ - previousZ)*uStep);
+    float height = getHeight(x, z);
+
+    passHeight = height;
+    passNormal = normalize(vec3(-slopeX, 1.0, -slopeZ));
+    passWorld = vec2(uOrigin.x + x*uStep, uOrigin.y + z*uStep);
+    gl_Position = uVP*vec4(uOrigin.x + x*uStep, height, uOrigin.y + z*uStep, 1.0);
+}
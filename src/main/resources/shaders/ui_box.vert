@@ -0,0 +1,11 @@
+#version 330
+
+layout (location = 0) in vec2 vPosition;
+layout (location = 1) in vec4 vColor;
+
+out vec4 passColor;
+
+void main() {
+    passColor = vColor;
+    gl_Position = vec4(vPosition*2.0 - 1.0, 0.0, 1.0);
+}